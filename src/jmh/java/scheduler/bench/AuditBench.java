@@ -0,0 +1,110 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.audit.AuditEvent;
+import scheduler.audit.AuditLog;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * What the audit log costs the command that records into it.
+ *
+ *   java -jar build/libs/vaccine-scheduler-java-jmh.jar AuditBench -p policy=block,drop -t 16
+ *
+ * Every invocation records a burst of events shaped like a reserve and reports the nanoseconds per record() on
+ * the recording thread. With paced=true each burst is preceded by a millisecond's pause, outside the measurement,
+ * so the writer keeps up as it does under real command rates. paced=false records flat out instead, which shows
+ * how the policies differ once the writer cannot keep up: drop never makes the caller wait but loses events,
+ * block loses nothing but slows every caller down to the writer's pace. The log's stats are printed at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Threads(4)
+public class AuditBench {
+
+    private static final String[] TOKENS = {"reserve", "2031-06-01", "moderna"};
+    private static final int BURST = 1000;
+
+    @Param({"block", "drop"})
+    public String policy;
+
+    @Param({"true", "false"})
+    public boolean paced;
+
+    @Param({"65536"})
+    public int buffer;
+
+    private Path dir;
+    private AuditLog log;
+    private final AtomicInteger recorders = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Recorder {
+        private String user;
+        private long sequence = 0;
+
+        @Setup(Level.Trial)
+        public void setUp(AuditBench bench) {
+            user = "bench_patient_" + bench.recorders.getAndIncrement();
+        }
+
+        @Setup(Level.Invocation)
+        public void pause(AuditBench bench) throws InterruptedException {
+            if (bench.paced) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("audit-bench");
+        log = new AuditLog.AuditLogBuilder(dir)
+                .policy(AuditLog.Policy.parse(policy))
+                .bufferEvents(buffer)
+                // the bench measures the caller, not the disk; keep what lands there bounded
+                .keepSegments(4)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        log.close();
+        System.out.println(log.getStats());
+        for (File file : dir.toFile().listFiles()) {
+            file.delete();
+        }
+        dir.toFile().delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void record(Recorder recorder) {
+        for (int i = 0; i < BURST; i++) {
+            log.record(TOKENS, Integer.MAX_VALUE, AuditEvent.Role.PATIENT, recorder.user, AuditEvent.Outcome.OK,
+                    recorder.sequence++);
+        }
+    }
+}
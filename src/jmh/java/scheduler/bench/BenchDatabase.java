@@ -0,0 +1,24 @@
+package scheduler.bench;
+
+import scheduler.db.MigrationRunner;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+// Schema setup shared by the benchmark tools
+class BenchDatabase {
+
+    // opens a connection to the database at dbPath and applies the migrations at the given location to it
+    static Connection create(String dbPath, String migrations) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        Connection con = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+        try {
+            new MigrationRunner(migrations).migrate(con);
+        } catch (SQLException | RuntimeException e) {
+            con.close();
+            throw e;
+        }
+        return con;
+    }
+}
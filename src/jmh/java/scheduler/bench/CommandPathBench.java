@@ -0,0 +1,203 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.CommandRegistry;
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.CredentialHasher;
+import scheduler.util.Util;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Every command path against SQLite, at several data sizes and thread counts.
+ *
+ *   java -jar build/libs/vaccine-scheduler-java-jmh.jar CommandPathBench -p db=file,memory -p rows=1000,1000000 -t 4
+ *
+ * "file" is a fresh SQLite file in a temp directory, "memory" a shared-cache in-memory database. The connection
+ * pool, the writer and the availability index are process-wide singletons, so each trial needs a JVM of its own,
+ * which JMH gives every parameter combination; the setup points that JVM at its database through the DBPath
+ * system property before anything opens a connection. It then seeds rows availability rows, full years of days
+ * for as many caregivers as it takes, and some patients. Each benchmark thread is logged in as one of those
+ * patients and has a caregiver of its own to upload with. Scores are operations per second; -bm sample -tu us
+ * gives the latency percentiles instead.
+ *
+ * reserve books the slots it finds, so at small sizes it soon measures the "no caregiver" path, and
+ * show_appointments grows with every reserve that ran before it in the same JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Threads(4)
+public class CommandPathBench {
+
+    static final String PASSWORD = "password";
+    static final String VACCINE = "bench_vaccine";
+    static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+    static final int DAYS = 365;
+    static final int PATIENTS = 64;
+
+    @Param({"file", "memory"})
+    public String db;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private Path dir;
+    private Connection keeper;
+    private CommandRegistry commands;
+    private Vaccine vaccine;
+    private final List<Patient> patients = new ArrayList<>();
+    private final AtomicInteger clients = new AtomicInteger();
+    private final AtomicLong uploadDay = new AtomicLong();
+
+    // what one benchmark thread works as
+    @State(Scope.Thread)
+    public static class Client {
+        private Session session;
+        private Caregiver uploader;
+
+        @Setup(Level.Trial)
+        public void setUp(CommandPathBench bench) throws Exception {
+            int index = bench.clients.getAndIncrement();
+            session = new Session(new PrintWriter(Writer.nullWriter()));
+            session.setCurrentPatient(bench.patients.get(index % PATIENTS));
+            uploader = newCaregiver("bench_uploader_" + index);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("scheduler-bench");
+        String dbPath = db.equals("memory")
+                ? "file:bench" + rows + "?mode=memory&cache=shared"
+                : dir.resolve("bench.db").toString();
+        // before anything below opens a connection
+        System.setProperty("DBPath", dbPath);
+        // also keeps a shared-cache in-memory database alive for the whole trial
+        keeper = BenchDatabase.create(dbPath, "sqlite/migrations");
+        commands = Scheduler.getCommands();
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        keeper.close();
+        for (File file : dir.toFile().listFiles()) {
+            file.delete();
+        }
+        dir.toFile().delete();
+    }
+
+    private void seed() throws Exception {
+        vaccine = new Vaccine.VaccineBuilder(VACCINE, Integer.MAX_VALUE / 2).build();
+        vaccine.saveToDB();
+
+        int remaining = rows;
+        for (int c = 0; remaining > 0; c++) {
+            int days = Math.min(DAYS, remaining);
+            Caregiver caregiver = newCaregiver("bench_caregiver_" + c);
+            caregiver.uploadAvailability(Date.valueOf(FIRST_DAY), Date.valueOf(FIRST_DAY.plusDays(days - 1)),
+                    EnumSet.allOf(DayOfWeek.class));
+            remaining -= days;
+        }
+
+        CredentialHasher hasher = CredentialHasher.getInstance();
+        for (int p = 0; p < PATIENTS; p++) {
+            byte[] salt = hasher.generateSalt();
+            byte[] hash = hasher.hash(PASSWORD, salt, hasher.getDefaultParams());
+            Patient patient = new Patient.PatientBuilder("bench_patient_" + p, salt, hash,
+                    hasher.getDefaultParams()).build();
+            patient.saveToDB();
+            patients.add(patient);
+        }
+    }
+
+    @Benchmark
+    public Patient patientGet() throws Exception {
+        Patient patient = patients.get(ThreadLocalRandom.current().nextInt(PATIENTS));
+        Patient loggedIn = new Patient.PatientGetter(patient.getUsername(), PASSWORD).get();
+        if (loggedIn == null) {
+            throw new IllegalStateException("login failed");
+        }
+        return loggedIn;
+    }
+
+    @Benchmark
+    public void uploadAvailability(Client client) throws Exception {
+        // every call uploads a date nobody has uploaded before
+        LocalDate day = FIRST_DAY.plusYears(10).plusDays(uploadDay.incrementAndGet());
+        client.uploader.uploadAvailability(Date.valueOf(day));
+    }
+
+    @Benchmark
+    public void increaseDoses() throws Exception {
+        vaccine.increaseAvailableDoses(1);
+    }
+
+    @Benchmark
+    public void decreaseDoses() throws Exception {
+        vaccine.decreaseAvailableDoses(1);
+    }
+
+    @Benchmark
+    public boolean search(Client client) {
+        return commands.dispatch(client.session, "search_caregiver_schedule " + randomDay());
+    }
+
+    @Benchmark
+    public boolean reserve(Client client) {
+        return commands.dispatch(client.session, "reserve " + randomDay() + " " + VACCINE);
+    }
+
+    @Benchmark
+    public boolean showAppointments(Client client) {
+        return commands.dispatch(client.session, "show_appointments");
+    }
+
+    private static String randomDay() {
+        return FIRST_DAY.plusDays(ThreadLocalRandom.current().nextInt(DAYS)).toString();
+    }
+
+    // the benchmark caregivers get a cheap legacy hash, they never log in
+    private static Caregiver newCaregiver(String username) throws Exception {
+        byte[] salt = new byte[16];
+        Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, Util.generateHash(PASSWORD, salt)).build();
+        caregiver.saveToDB();
+        return caregiver;
+    }
+}
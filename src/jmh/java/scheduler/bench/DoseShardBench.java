@@ -0,0 +1,92 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.InMemoryEngine;
+import scheduler.db.ReservationRecord;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reserve throughput against one popular vaccine as its doses are split over more shards.
+ *
+ *   java -jar build/libs/vaccine-scheduler-java-jmh.jar DoseShardBench -p shards=1,16 -t 16
+ *
+ * Seeds an InMemoryEngine with days x caregivers free slots and one vaccine. Every operation books a random date
+ * and cancels the booking again, so the slots and doses never run out however long JMH runs, and both halves go
+ * through the dose shards. The trial fails if a dose went missing or was handed out twice along the way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Threads(16)
+public class DoseShardBench {
+
+    private static final String VACCINE = "bench_vaccine";
+    private static final String PATIENT = "bench_patient";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2031, 1, 1);
+    private static final int DOSES = 1000000;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int shards;
+
+    @Param({"2000"})
+    public int days;
+
+    @Param({"1000"})
+    public int caregivers;
+
+    private InMemoryEngine engine;
+    private final List<Date> dates = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        engine = new InMemoryEngine(shards);
+        engine.addVaccine(VACCINE, DOSES);
+        for (int d = 0; d < days; d++) {
+            dates.add(Date.valueOf(FIRST_DAY.plusDays(d)));
+        }
+        for (int c = 0; c < caregivers; c++) {
+            engine.addAvailability("bench_caregiver_" + c, dates);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void check() {
+        int left = engine.getDoses(VACCINE);
+        if (left != DOSES) {
+            throw new IllegalStateException("Expected all " + DOSES + " doses back after cancelling, found " + left);
+        }
+    }
+
+    @Benchmark
+    public ReservationRecord reserveAndCancel() {
+        ReservationRecord reservation = engine.reserve(PATIENT,
+                dates.get(ThreadLocalRandom.current().nextInt(dates.size())), VACCINE);
+        if (reservation != null) {
+            engine.cancel(reservation.getReservationId(), PATIENT, false);
+        }
+        return reservation;
+    }
+}
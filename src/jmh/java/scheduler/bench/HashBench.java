@@ -0,0 +1,47 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.CredentialHasher;
+import scheduler.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Password hashing on its own, which needs no database: the legacy Util.generateHash and CredentialHasher with
+ * its default parameters (HashIterations and friends from the environment).
+ *
+ *   java -jar build/libs/vaccine-scheduler-java-jmh.jar HashBench -t 16
+ *
+ * Scores are hashes per second; -bm sample -tu us gives the latency percentiles instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Threads(4)
+public class HashBench {
+
+    private static final String PASSWORD = "password";
+
+    @Benchmark
+    public byte[] hashLegacy() {
+        return Util.generateHash(PASSWORD, Util.generateSalt());
+    }
+
+    @Benchmark
+    public byte[] hashDefault() {
+        CredentialHasher hasher = CredentialHasher.getInstance();
+        return hasher.hash(PASSWORD, hasher.generateSalt(), hasher.getDefaultParams());
+    }
+}
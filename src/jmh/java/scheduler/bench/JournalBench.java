@@ -0,0 +1,190 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.JournaledEngine;
+import scheduler.db.StoredCredentials;
+import scheduler.util.CredentialHasher;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Write throughput and recovery time of the journal storage engine.
+ *
+ *   java -jar build/libs/vaccine-scheduler-java-jmh.jar JournalBench.recover -p events=10000000
+ *   java -jar build/libs/vaccine-scheduler-java-jmh.jar JournalBench.write -p sync=true
+ *
+ * Events come in a fixed mix: in every eight, four single-date availability uploads spread over 1000 caregivers,
+ * two reservations, one dose increment and one new patient.
+ *
+ * recover times reopening a journal of that many events, written with snapshots off. With from=journal that
+ * replays the whole journal; with from=snapshot the setup then writes a snapshot and a tail of a tenth as many
+ * events after it, so the recovery reads the snapshot and replays only the tail. write measures appending events
+ * to a fresh journal; sync=true forces every event to disk.
+ */
+@Fork(1)
+public class JournalBench {
+
+    private static final int CAREGIVERS = 1000;
+    private static final String VACCINE = "bench_vaccine";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2031, 1, 1);
+    private static final int SEGMENT_SIZE = 64 << 20;
+
+    // a journal written once per trial, to recover from
+    @State(Scope.Benchmark)
+    public static class Written {
+        @Param({"1000000", "10000000"})
+        public long events;
+
+        @Param({"journal", "snapshot"})
+        public String from;
+
+        private Path dir;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            dir = Files.createTempDirectory("journal-bench");
+            Events writer = new Events();
+            JournaledEngine engine = open(dir, false);
+            writer.seed(engine);
+            writer.write(engine, events);
+            if (from.equals("snapshot")) {
+                engine.close();
+                engine = open(dir, false);
+                engine.snapshot();
+                writer.write(engine, events / 10);
+            }
+            engine.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            delete(dir);
+        }
+    }
+
+    // a journal to append to
+    @State(Scope.Benchmark)
+    public static class Appending {
+        @Param({"false", "true"})
+        public boolean sync;
+
+        private Path dir;
+        private JournaledEngine engine;
+        private Events events;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            dir = Files.createTempDirectory("journal-bench");
+            engine = open(dir, sync);
+            events = new Events();
+            events.seed(engine);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            engine.close();
+            delete(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long recover(Written written) throws Exception {
+        JournaledEngine engine = open(written.dir, false);
+        long replayed = engine.getRecoveredRecords();
+        engine.close();
+        return replayed;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 3, time = 5)
+    public void write(Appending appending) throws Exception {
+        appending.events.write(appending.engine, 1);
+    }
+
+    // snapshots off, so a recovery really replays everything written since the last explicit snapshot
+    private static JournaledEngine open(Path dir, boolean sync) throws Exception {
+        return new JournaledEngine(dir, SEGMENT_SIZE, sync, 0);
+    }
+
+    private static void delete(Path dir) {
+        for (File file : dir.toFile().listFiles()) {
+            file.delete();
+        }
+        dir.toFile().delete();
+    }
+
+    // writes the event mix, carrying on where the last call stopped, also across a reopened engine
+    private static class Events {
+        private final StoredCredentials credentials;
+        private long written = 0;
+        private long availabilityEvents = 0;
+        private long patients = 0;
+        private Date lastDate = Date.valueOf(FIRST_DAY);
+
+        Events() {
+            // every patient shares one set of credentials; hashing is not what is being measured
+            CredentialHasher hasher = CredentialHasher.getInstance();
+            credentials = new StoredCredentials(hasher.generateSalt(), new byte[16], hasher.getDefaultParams());
+        }
+
+        // the vaccine and caregivers the events refer to, once per journal
+        void seed(JournaledEngine engine) throws Exception {
+            engine.addVaccine(VACCINE, 0);
+            for (int c = 0; c < CAREGIVERS; c++) {
+                engine.addCaregiver("bench_caregiver_" + c, credentials);
+            }
+        }
+
+        void write(JournaledEngine engine, long events) throws Exception {
+            for (long end = written + events; written < end; written++) {
+                switch ((int) (written % 8)) {
+                    case 0:
+                    case 1:
+                    case 2:
+                    case 3: {
+                        long n = availabilityEvents++;
+                        lastDate = Date.valueOf(FIRST_DAY.plusDays(n / CAREGIVERS));
+                        engine.addAvailability("bench_caregiver_" + n % CAREGIVERS, lastDate);
+                        break;
+                    }
+                    case 4:
+                        engine.increaseDoses(VACCINE, 2);
+                        break;
+                    case 5:
+                    case 6:
+                        // the dose increment above always leaves a dose for both reservations
+                        engine.reserve("bench_patient_" + (patients == 0 ? 0 : written % patients), lastDate,
+                                VACCINE);
+                        break;
+                    default:
+                        engine.addPatient("bench_patient_" + patients++, credentials);
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package scheduler.bench;
+
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.CancelDayResult;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.util.CredentialHasher;
+import scheduler.util.Histogram;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Synthetic vaccination-drive load with a correctness oracle.
+ *
+ *   DBPath=<fresh db> java -cp build/libs/vaccine-scheduler-java-jmh.jar scheduler.bench.LoadGenerator
+ *        [--caregivers 100] [--patients 1000] [--vaccines 2] [--doses 5000] [--days 30] [--rate 500]
+ *        [--duration-seconds 30] [--workers 64]
+ *        [--mix create=5,login=15,search=45,reserve=30,cancel=5] [--migrations sqlite/migrations]
+ *
+ * Seeds caregivers (each free on every one of the days), patients and a dose inventory through the model
+ * classes, then fires operations open-loop: arrivals are scheduled at a fixed rate whether or not earlier ones
+ * have finished, and latency is measured from the scheduled arrival, so a stalled database shows up as
+ * latency instead of silently lowering the offered load. At the end it prints throughput and p50/p99/p99.9
+ * per operation and checks the invariants: no vaccine below zero doses, no caregiver booked twice on a date,
+ * no booked slot still listed as available, and every vaccine's seeded inventory equals its remaining doses
+ * plus its reservations, and the availability index matching the table. The process exits with status 1 if any invariant fails.
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "password";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2031, 1, 1);
+
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private final Map<String, Integer> mix = new LinkedHashMap<>();
+    private final List<String> patients = new ArrayList<>();
+    private final List<String> vaccines = new ArrayList<>();
+    private final Map<String, Histogram> recorders = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+    private final AtomicInteger newPatients = new AtomicInteger();
+    // appointments made so far, for cancel to pick from
+    private final ConcurrentLinkedQueue<Reservation> booked = new ConcurrentLinkedQueue<>();
+
+    private int days;
+    private int seededDoses;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator(args);
+        Connection con = BenchDatabase.create(System.getenv("DBPath"), generator.option("migrations"));
+        generator.seed();
+        generator.drive();
+        boolean ok = generator.check(con);
+        con.close();
+        System.exit(ok ? 0 : 1);
+    }
+
+    private LoadGenerator(String[] args) {
+        options.put("caregivers", "100");
+        options.put("patients", "1000");
+        options.put("vaccines", "2");
+        options.put("doses", "5000");
+        options.put("days", "30");
+        options.put("rate", "500");
+        options.put("duration-seconds", "30");
+        options.put("workers", "64");
+        options.put("mix", "create=5,login=15,search=45,reserve=30,cancel=5");
+        options.put("migrations", "sqlite/migrations");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i].replaceFirst("^--", "");
+            if (!options.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            options.put(name, args[i + 1]);
+        }
+        for (String part : option("mix").split(",")) {
+            String[] kv = part.split("=");
+            mix.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+        }
+        days = intOption("days");
+        seededDoses = intOption("doses");
+    }
+
+    private void seed() throws Exception {
+        long start = System.nanoTime();
+        for (int v = 0; v < intOption("vaccines"); v++) {
+            String name = "load_vaccine_" + v;
+            new Vaccine.VaccineBuilder(name, seededDoses).build().saveToDB();
+            vaccines.add(name);
+        }
+        Date from = Date.valueOf(FIRST_DAY);
+        Date to = Date.valueOf(FIRST_DAY.plusDays(days - 1));
+        for (int c = 0; c < intOption("caregivers"); c++) {
+            byte[] salt = new byte[16];
+            Caregiver caregiver = new Caregiver.CaregiverBuilder("load_caregiver_" + c, salt,
+                    Util.generateHash(PASSWORD, salt)).build();
+            caregiver.saveToDB();
+            caregiver.uploadAvailability(from, to, EnumSet.allOf(DayOfWeek.class));
+        }
+        // every seeded patient shares one salt so seeding hashes once; logins still verify at full cost
+        CredentialHasher hasher = CredentialHasher.getInstance();
+        byte[] salt = hasher.generateSalt();
+        byte[] hash = hasher.hash(PASSWORD, salt, hasher.getDefaultParams());
+        for (int p = 0; p < intOption("patients"); p++) {
+            String username = "load_patient_" + p;
+            new Patient.PatientBuilder(username, salt, hash, hasher.getDefaultParams()).build().saveToDB();
+            patients.add(username);
+        }
+        System.out.println("Seeded " + vaccines.size() + " vaccines x " + seededDoses + " doses, " +
+                intOption("caregivers") + " caregivers x " + days + " days, " + patients.size() + " patients in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private void drive() throws InterruptedException {
+        int rate = intOption("rate");
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration-seconds"));
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        int totalWeight = 0;
+        for (int weight : mix.values()) {
+            totalWeight += weight;
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(intOption("workers"));
+        long start = System.nanoTime();
+        long issued = 0;
+        for (long next = start; next - start < durationNanos; next += interval) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String operation = pick(totalWeight);
+            long scheduled = next;
+            workers.execute(() -> runOperation(operation, scheduled));
+            issued++;
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format("Issued %d operations in %.1f s (%.0f ops/s offered, %.0f ops/s achieved)",
+                issued, durationNanos / 1e9, (double) rate, issued / seconds));
+        System.out.println(String.format("%-10s %10s %10s %10s %10s %10s", "operation", "count", "ops/s",
+                "p50_ms", "p99_ms", "p999_ms"));
+        for (Map.Entry<String, Histogram> entry : recorders.entrySet()) {
+            Histogram recorder = entry.getValue();
+            System.out.println(String.format("%-10s %10d %10.0f %10.2f %10.2f %10.2f", entry.getKey(),
+                    recorder.getCount(), recorder.getCount() / seconds, recorder.getPercentileNanos(0.5) / 1e6,
+                    recorder.getPercentileNanos(0.99) / 1e6, recorder.getPercentileNanos(0.999) / 1e6));
+        }
+        for (Map.Entry<String, AtomicLong> entry : outcomes.entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue().get());
+        }
+    }
+
+    private String pick(int totalWeight) {
+        int roll = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private void runOperation(String operation, long scheduled) {
+        String outcome;
+        try {
+            outcome = perform(operation);
+        } catch (Exception e) {
+            outcome = "error " + e.getClass().getSimpleName();
+        }
+        long latency = System.nanoTime() - scheduled;
+        Histogram recorder = recorders.computeIfAbsent(operation, k -> new Histogram());
+        recorder.record(latency);
+        outcomes.computeIfAbsent(operation + " " + outcome, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private String perform(String operation) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (operation) {
+            case "create": {
+                CredentialHasher hasher = CredentialHasher.getInstance();
+                byte[] salt = hasher.generateSalt();
+                byte[] hash = hasher.hash(PASSWORD, salt, hasher.getDefaultParams());
+                new Patient.PatientBuilder("load_new_patient_" + newPatients.incrementAndGet(), salt, hash,
+                        hasher.getDefaultParams()).build().saveToDB();
+                return "ok";
+            }
+            case "login": {
+                String username = patients.get(random.nextInt(patients.size()));
+                return new Patient.PatientGetter(username, PASSWORD).get() == null ? "rejected" : "ok";
+            }
+            case "search": {
+                AvailabilityIndex.getInstance().caregiversOn(randomDay(random));
+                Vaccine.getAll();
+                return "ok";
+            }
+            case "reserve": {
+                String username = patients.get(random.nextInt(patients.size()));
+                String vaccine = vaccines.get(random.nextInt(vaccines.size()));
+                try {
+                    Reservation reservation = new Reservation.Reserver(username, randomDay(random), vaccine).reserve();
+                    if (reservation == null) {
+                        return "no_caregiver";
+                    }
+                    booked.add(reservation);
+                    return "ok";
+                } catch (IllegalArgumentException e) {
+                    return "no_doses";
+                }
+            }
+            case "cancel": {
+                Reservation reservation = booked.poll();
+                if (reservation == null) {
+                    return "none_booked";
+                }
+                // a cancel_day may have cancelled it already
+                return Reservation.cancel(reservation.getAppointmentId(), reservation.getPatientUsername(),
+                        false) == null ? "gone" : "ok";
+            }
+            case "cancel_day": {
+                String username = "load_caregiver_" + random.nextInt(intOption("caregivers"));
+                CancelDayResult result = new Caregiver.CaregiverBuilder(username, new byte[16], new byte[16]).build()
+                        .cancelDay(randomDay(random));
+                return result.getReleased().isEmpty() ? "all_rebooked" : "some_released";
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private boolean check(Connection con) throws SQLException {
+        boolean ok = true;
+        try (Statement statement = con.createStatement()) {
+            ok &= expectNone(statement, "vaccines below zero doses",
+                    "SELECT Name, Doses FROM Vaccines WHERE Doses < 0");
+            ok &= expectNone(statement, "caregivers booked twice on a date",
+                    "SELECT caregiver_username, appointment_date, COUNT(*) FROM Reservations " +
+                            "GROUP BY caregiver_username, appointment_date HAVING COUNT(*) > 1");
+            ok &= expectNone(statement, "booked slots still listed as available",
+                    "SELECT r.caregiver_username, r.appointment_date FROM Reservations r JOIN Availabilities a " +
+                            "ON a.caregiver_username = r.caregiver_username AND a.available_date = r.appointment_date");
+            ok &= expectNone(statement, "vaccines whose inventory does not reconcile with Reservations",
+                    "SELECT v.Name, v.Doses, (SELECT COUNT(*) FROM Reservations r WHERE r.vaccine_name = v.Name) " +
+                            "FROM Vaccines v WHERE v.Name LIKE 'load_vaccine_%' AND v.Doses + " +
+                            "(SELECT COUNT(*) FROM Reservations r WHERE r.vaccine_name = v.Name) <> " + seededDoses);
+            ok &= checkIndex(statement);
+        }
+        System.out.println(ok ? "All invariants hold" : "INVARIANT VIOLATIONS FOUND");
+        return ok;
+    }
+
+    // the in-memory availability index must hold exactly the rows of Availabilities
+    private boolean checkIndex(Statement statement) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        int rows = 0;
+        int missing = 0;
+        try (ResultSet resultSet = statement.executeQuery(
+                "SELECT caregiver_username, available_date FROM Availabilities")) {
+            while (resultSet.next()) {
+                rows++;
+                if (!index.isAvailable(resultSet.getString(1), Date.valueOf(resultSet.getString(2)))) {
+                    missing++;
+                }
+            }
+        }
+        int indexed = 0;
+        for (int c = 0; c < intOption("caregivers"); c++) {
+            indexed += index.datesFor("load_caregiver_" + c).size();
+        }
+        boolean ok = missing == 0 && indexed == rows;
+        System.out.println((ok ? "OK    " : "FAILED ") + "availability index agrees with Availabilities" +
+                (ok ? "" : ": " + rows + " rows, " + indexed + " indexed, " + missing + " missing"));
+        return ok;
+    }
+
+    private static boolean expectNone(Statement statement, String description, String sql) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(sql)) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            int violations = 0;
+            while (resultSet.next()) {
+                if (violations++ < 10) {
+                    StringBuilder row = new StringBuilder("    ");
+                    for (int i = 1; i <= columns; i++) {
+                        row.append(resultSet.getString(i)).append(i < columns ? " | " : "");
+                    }
+                    System.out.println(row);
+                }
+            }
+            System.out.println((violations == 0 ? "OK    " : "FAILED ") + description +
+                    (violations == 0 ? "" : ": " + violations));
+            return violations == 0;
+        }
+    }
+
+    private Date randomDay(ThreadLocalRandom random) {
+        return Date.valueOf(FIRST_DAY.plusDays(random.nextInt(days)));
+    }
+
+    private String option(String name) {
+        return options.get(name);
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+}
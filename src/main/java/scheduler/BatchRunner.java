@@ -0,0 +1,128 @@
+package scheduler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Runs a file of commands back to back in one session, without prompts.
+ *
+ * Output goes to a buffered writer that is only flushed at the end. With pipelining on, each run of
+ * consecutive read-only commands (see Command.isReadOnly) is executed concurrently; their output is collected
+ * per command and written in input order, so the result reads the same as a sequential run. Blank lines and
+ * lines starting with # are skipped. Latency is recorded per command name for printReport().
+ */
+public class BatchRunner {
+
+    private final CommandRegistry commands;
+    private final PrintWriter out;
+    private final boolean pipeline;
+    private final Session session;
+    private final Map<String, Latency> latencies = new TreeMap<>();
+
+    public BatchRunner(CommandRegistry commands, PrintWriter out, boolean pipeline) {
+        this.commands = commands;
+        this.out = out;
+        this.pipeline = pipeline;
+        this.session = new Session(out);
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        ExecutorService readers = pipeline
+                ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
+                : null;
+        try {
+            List<String[]> pendingReads = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = CommandRegistry.tokenize(trimmed);
+                Command command = commands.get(tokens[0]);
+                if (readers != null && command != null && command.isReadOnly()) {
+                    pendingReads.add(tokens);
+                    continue;
+                }
+                runReads(readers, pendingReads);
+                runOne(session, tokens);
+                if (session.isEnded()) {
+                    return;
+                }
+            }
+            runReads(readers, pendingReads);
+        } finally {
+            if (readers != null) {
+                readers.shutdown();
+            }
+            out.flush();
+        }
+    }
+
+    public void printReport(PrintWriter report) {
+        report.println(String.format("%-28s %8s %12s %12s %12s", "command", "count", "total_ms", "mean_us",
+                "max_us"));
+        for (Map.Entry<String, Latency> entry : latencies.entrySet()) {
+            Latency latency = entry.getValue();
+            report.println(String.format("%-28s %8d %12.1f %12d %12d", entry.getKey(), latency.count,
+                    latency.totalNanos / 1e6, latency.totalNanos / latency.count / 1000, latency.maxNanos / 1000));
+        }
+        report.flush();
+    }
+
+    private void runOne(Session target, String[] tokens) {
+        long start = System.nanoTime();
+        commands.dispatch(target, tokens);
+        record(tokens[0], System.nanoTime() - start);
+    }
+
+    private void runReads(ExecutorService readers, List<String[]> pendingReads) {
+        if (pendingReads.isEmpty()) {
+            return;
+        }
+        List<Future<String>> results = new ArrayList<>(pendingReads.size());
+        for (String[] tokens : pendingReads) {
+            results.add(readers.submit(() -> {
+                StringWriter buffer = new StringWriter();
+                PrintWriter bufferOut = new PrintWriter(buffer);
+                runOne(new Session(session, bufferOut), tokens);
+                bufferOut.flush();
+                return buffer.toString();
+            }));
+        }
+        for (Future<String> result : results) {
+            try {
+                out.print(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                out.println("Please try again!");
+            }
+        }
+        pendingReads.clear();
+    }
+
+    private synchronized void record(String name, long nanos) {
+        Latency latency = latencies.computeIfAbsent(name, k -> new Latency());
+        latency.count++;
+        latency.totalNanos += nanos;
+        latency.maxNanos = Math.max(latency.maxNanos, nanos);
+    }
+
+    private static class Latency {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+    }
+}
@@ -0,0 +1,135 @@
+package scheduler;
+
+// One command of the line protocol: its name, how many arguments it takes and who may run it
+public class Command {
+
+    public enum Role {
+        // anyone, logged in or not
+        ANY,
+        // any logged-in user
+        LOGGED_IN,
+        PATIENT,
+        CAREGIVER
+    }
+
+    public interface Handler {
+        // tokens[0] is the command name, the arguments follow
+        void run(Session session, String[] tokens);
+    }
+
+    private final String name;
+    private final String usage;
+    private final int minArgs;
+    private final int maxArgs;
+    private final Role role;
+    private final boolean readOnly;
+    private final int auditArgs;
+    private final String usageError;
+    private final Handler handler;
+
+    private Command(CommandBuilder builder) {
+        this.name = builder.name;
+        this.usage = builder.usage;
+        this.minArgs = builder.minArgs;
+        this.maxArgs = builder.maxArgs;
+        this.role = builder.role;
+        this.readOnly = builder.readOnly;
+        this.auditArgs = builder.auditArgs;
+        this.usageError = builder.usageError;
+        this.handler = builder.handler;
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public String getUsage() {
+        return usage;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    // read-only commands change neither the database nor the session, so a batch may run them concurrently
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public boolean acceptsArgs(int args) {
+        return args >= minArgs && args <= maxArgs;
+    }
+
+    // how many of the arguments go into the audit log
+    public int getAuditArgs() {
+        return auditArgs;
+    }
+
+    public String getUsageError() {
+        return usageError;
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public static class CommandBuilder {
+        private final String name;
+        private final Handler handler;
+        private String usage;
+        private int minArgs = 0;
+        private int maxArgs = 0;
+        private Role role = Role.ANY;
+        private boolean readOnly = false;
+        private int auditArgs = Integer.MAX_VALUE;
+        private String usageError = "Please try again!";
+
+        public CommandBuilder(String name, Handler handler) {
+            this.name = name;
+            this.handler = handler;
+            this.usage = name;
+        }
+
+        public CommandBuilder usage(String usage) {
+            this.usage = name + " " + usage;
+            return this;
+        }
+
+        public CommandBuilder args(int count) {
+            return args(count, count);
+        }
+
+        public CommandBuilder args(int min, int max) {
+            this.minArgs = min;
+            this.maxArgs = max;
+            return this;
+        }
+
+        public CommandBuilder role(Role role) {
+            this.role = role;
+            return this;
+        }
+
+        public CommandBuilder readOnly() {
+            this.readOnly = true;
+            return this;
+        }
+
+        // only the first count arguments are audited, e.g. to keep passwords out of the audit log
+        public CommandBuilder auditArgs(int count) {
+            this.auditArgs = count;
+            return this;
+        }
+
+        // what to print when the arguments do not fit
+        public CommandBuilder usageError(String usageError) {
+            this.usageError = usageError;
+            return this;
+        }
+
+        public Command build() {
+            return new Command(this);
+        }
+    }
+}
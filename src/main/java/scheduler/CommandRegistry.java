@@ -0,0 +1,176 @@
+package scheduler;
+
+import scheduler.audit.AuditEvent;
+import scheduler.audit.AuditLog;
+import scheduler.util.Histogram;
+import scheduler.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Looks commands up by name and runs them.
+ *
+ * dispatch() checks the role and the argument count every command declares before its handler runs, so the
+ * handlers only deal with their own logic. Every run is timed into the command's command.<name> histogram and
+ * recorded in the audit log, with who ran it and how it ended, including runs refused for the role or the
+ * arguments. A handler that could not do what was asked reports it through Session.fail, or by throwing, and
+ * the run is audited as failed. Lines that name no command are not audited, since they could be anything, a
+ * password included.
+ */
+public class CommandRegistry {
+
+    private final Map<String, Command> commands = new LinkedHashMap<>();
+    private final Map<String, Histogram> timers = new HashMap<>();
+
+    public void register(Command command) {
+        if (commands.putIfAbsent(command.getName(), command) != null) {
+            throw new IllegalArgumentException("Command registered twice: " + command.getName());
+        }
+        timers.put(command.getName(), Metrics.histogram("command." + command.getName()));
+    }
+
+    public Command get(String name) {
+        return commands.get(name);
+    }
+
+    // in registration order
+    public Collection<Command> getCommands() {
+        return Collections.unmodifiableCollection(commands.values());
+    }
+
+    // runs one command line for the session, returns false once the session should end
+    public boolean dispatch(Session session, String line) {
+        return dispatch(session, tokenize(line));
+    }
+
+    public boolean dispatch(Session session, String[] tokens) {
+        // check if input exists
+        if (tokens.length == 0) {
+            session.println("Please try again!");
+            return !session.isEnded();
+        }
+        Command command = commands.get(tokens[0]);
+        if (command == null) {
+            session.println("Invalid operation name!");
+        } else {
+            run(command, session, tokens);
+        }
+        return !session.isEnded();
+    }
+
+    public void run(Command command, Session session, String[] tokens) {
+        if (!checkRole(command.getRole(), session)) {
+            audit(command, tokens, roleOf(session), usernameOf(session), AuditEvent.Outcome.DENIED, 0);
+            return;
+        }
+        if (!command.acceptsArgs(tokens.length - 1)) {
+            session.println(command.getUsageError());
+            audit(command, tokens, roleOf(session), usernameOf(session), AuditEvent.Outcome.BAD_ARGS, 0);
+            return;
+        }
+        // who ran it is who was logged in before it ran, so a logout is audited under the user it logged out
+        AuditEvent.Role role = roleOf(session);
+        String user = usernameOf(session);
+        AuditEvent.Outcome outcome = AuditEvent.Outcome.OK;
+        long start = System.nanoTime();
+        // a failure left over from a run that never got here must not count against this one
+        session.takeFailed();
+        try {
+            command.getHandler().run(session, tokens);
+        } catch (RuntimeException e) {
+            // e.g. a malformed number; one bad command must not take the whole session down
+            Metrics.increment("command.errors." + command.getName());
+            session.println("Please try again!");
+            outcome = AuditEvent.Outcome.FAILED;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (session.takeFailed()) {
+                outcome = AuditEvent.Outcome.FAILED;
+            }
+            Histogram timer = timers.get(command.getName());
+            if (timer != null) {
+                timer.record(elapsed);
+            }
+            audit(command, tokens, role, user, outcome, elapsed);
+        }
+    }
+
+    private static void audit(Command command, String[] tokens, AuditEvent.Role role, String user,
+                              AuditEvent.Outcome outcome, long elapsed) {
+        AuditLog audit = AuditLog.getDefault();
+        if (audit != null) {
+            audit.record(tokens, command.getAuditArgs(), role, user, outcome, elapsed);
+        }
+    }
+
+    private static AuditEvent.Role roleOf(Session session) {
+        if (session.getCurrentCaregiver() != null) {
+            return AuditEvent.Role.CAREGIVER;
+        }
+        return session.getCurrentPatient() != null ? AuditEvent.Role.PATIENT : AuditEvent.Role.NONE;
+    }
+
+    private static String usernameOf(Session session) {
+        if (session.getCurrentCaregiver() != null) {
+            return session.getCurrentCaregiver().getUsername();
+        }
+        return session.getCurrentPatient() != null ? session.getCurrentPatient().getUsername() : null;
+    }
+
+    // splits on runs of spaces and tabs, without going through the regex engine
+    public static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isSeparator(line.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !isSeparator(line.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    private static boolean checkRole(Command.Role role, Session session) {
+        boolean caregiver = session.getCurrentCaregiver() != null;
+        boolean patient = session.getCurrentPatient() != null;
+        switch (role) {
+            case LOGGED_IN:
+                if (!caregiver && !patient) {
+                    session.println("Please login first!");
+                    return false;
+                }
+                return true;
+            case PATIENT:
+                if (!patient) {
+                    session.println(caregiver ? "Please login as a patient!" : "Please login first!");
+                    return false;
+                }
+                return true;
+            case CAREGIVER:
+                if (!caregiver) {
+                    session.println("Please login as a caregiver first!");
+                    return false;
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+}
@@ -0,0 +1,1016 @@
+package scheduler;
+
+import scheduler.audit.AuditEvent;
+import scheduler.audit.AuditLog;
+import scheduler.audit.AuditReader;
+import scheduler.bulk.BulkExporter;
+import scheduler.bulk.BulkImporter;
+import scheduler.bulk.Format;
+import scheduler.db.AppointmentQuery;
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.CancelDayResult;
+import scheduler.db.ConnectionManager;
+import scheduler.db.InMemoryEngine;
+import scheduler.db.JournaledEngine;
+import scheduler.db.QueryPlans;
+import scheduler.db.ReservationRecord;
+import scheduler.db.RetentionSweeper;
+import scheduler.db.StorageEngine;
+import scheduler.db.StorageEngines;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.model.Waitlist;
+import scheduler.util.CredentialHasher;
+import scheduler.util.CredentialHasher.HashParams;
+import scheduler.util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+public class Scheduler {
+
+    private static final CommandRegistry commands = buildCommands();
+    // longest range a single search_caregiver_schedule may cover
+    private static final int MAX_SCHEDULE_DAYS = 366;
+
+    public static void main(String[] args) {
+        // Scheduler --audit [filters] prints the audit log; it only reads files, so it needs no database
+        if (args.length > 0 && args[0].equals("--audit")) {
+            readAudit(args);
+            return;
+        }
+        startStatsDump();
+        if (!migrateSchema()) {
+            return;
+        }
+        // Scheduler --check-plans prints the query plans of the hot statements
+        if (args.length > 0 && args[0].equals("--check-plans")) {
+            checkPlans();
+            return;
+        }
+        // Scheduler --export-sqlite <file> copies the in-memory or journaled state into a SQLite database
+        if (args.length > 0 && args[0].equals("--export-sqlite")) {
+            exportSqlite(args);
+            return;
+        }
+        // Scheduler --import <kind> <file> [options] streams users, availability or inventory in from a file
+        if (args.length > 0 && args[0].equals("--import")) {
+            bulkImport(args);
+            return;
+        }
+        // Scheduler --export <reservations|availability> <file|-> [--format csv|ndjson] streams a table out
+        if (args.length > 0 && args[0].equals("--export")) {
+            bulkExport(args);
+            return;
+        }
+        // Scheduler --sweep archives past appointments and purges past availability once, then exits
+        if (args.length > 0 && args[0].equals("--sweep")) {
+            sweepOnce();
+            return;
+        }
+        // Scheduler --server <port> [max-sessions] serves the same commands over TCP
+        if (args.length > 0 && args[0].equals("--server")) {
+            runServer(args);
+            return;
+        }
+        // Scheduler --batch <file|-> [--pipeline] runs a command file, or piped stdin, without prompts
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+
+        // the console is a single session over stdin/stdout
+        Session session = new Session(new PrintWriter(new OutputStreamWriter(System.out), true));
+        printGreeting(session);
+        loadAvailability(session);
+
+        // read input from user
+        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+        while (true) {
+            session.print("> ");
+            String response;
+            try {
+                response = r.readLine();
+            } catch (IOException e) {
+                session.println("Please try again!");
+                continue;
+            }
+            // end of input works like quit
+            if (response == null) {
+                session.println("Bye!");
+                return;
+            }
+            if (!runCommand(session, response)) {
+                return;
+            }
+        }
+    }
+
+    public static CommandRegistry getCommands() {
+        return commands;
+    }
+
+    private static CommandRegistry buildCommands() {
+        CommandRegistry registry = new CommandRegistry();
+        registry.register(new Command.CommandBuilder("create_patient", Scheduler::createPatient)
+                .usage("<username> <password>").args(2).auditArgs(1).usageError("Create patient failed").build());
+        registry.register(new Command.CommandBuilder("create_caregiver", Scheduler::createCaregiver)
+                .usage("<username> <password>").args(2).auditArgs(1).usageError("Failed to create user.").build());
+        registry.register(new Command.CommandBuilder("login_patient", Scheduler::loginPatient)
+                .usage("<username> <password>").args(2).auditArgs(1).usageError("Login patient failed").build());
+        registry.register(new Command.CommandBuilder("login_caregiver", Scheduler::loginCaregiver)
+                .usage("<username> <password>").args(2).auditArgs(1).usageError("Login failed.").build());
+        registry.register(new Command.CommandBuilder("search_caregiver_schedule", Scheduler::searchCaregiverSchedule)
+                .usage("<date> | <from> <to>").args(1, 2).role(Command.Role.LOGGED_IN).readOnly().build());
+        registry.register(new Command.CommandBuilder("first_available", Scheduler::firstAvailable)
+                .usage("<date> [min-caregivers | --caregivers <name,...>]").args(1, 3).role(Command.Role.LOGGED_IN)
+                .readOnly().build());
+        registry.register(new Command.CommandBuilder("reserve", Scheduler::reserve)
+                .usage("<date> <vaccine>").args(2).role(Command.Role.PATIENT).build());
+        registry.register(new Command.CommandBuilder("upload_availability", Scheduler::uploadAvailability)
+                .usage("<date> | <from> <to> [weekday-mask]").args(1, 3).role(Command.Role.CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("cancel", Scheduler::cancel)
+                .usage("<appointment_id>").args(1).role(Command.Role.LOGGED_IN).build());
+        registry.register(new Command.CommandBuilder("cancel_day", Scheduler::cancelDay)
+                .usage("<date>").args(1).role(Command.Role.CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("add_doses", Scheduler::addDoses)
+                .usage("<vaccine> <number>").args(2).role(Command.Role.CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("show_appointments", Scheduler::showAppointments)
+                .usage("[--after <id>] [--limit <n>] [--from <date>] [--to <date>] [--archive]").args(0, 9)
+                .role(Command.Role.LOGGED_IN).readOnly().build());
+        registry.register(new Command.CommandBuilder("stats", Scheduler::stats).readOnly().build());
+        registry.register(new Command.CommandBuilder("logout", Scheduler::logout).build());
+        registry.register(new Command.CommandBuilder("quit", Scheduler::quit).build());
+        return registry;
+    }
+
+    private static void runServer(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: Scheduler --server <port> [max-sessions]");
+            return;
+        }
+        int port;
+        int maxSessions = SchedulerServer.DEFAULT_MAX_SESSIONS;
+        try {
+            port = Integer.parseInt(args[1]);
+            if (args.length == 3) {
+                maxSessions = Integer.parseInt(args[2]);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: Scheduler --server <port> [max-sessions]");
+            return;
+        }
+        loadAvailability(new Session(new PrintWriter(new OutputStreamWriter(System.out), true)));
+        startRetentionSweep();
+        try {
+            SchedulerServer server = new SchedulerServer(port, maxSessions);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "scheduler-shutdown"));
+            System.out.println("Listening on port " + server.getPort() + " for up to " + maxSessions + " sessions");
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Could not start server: " + e.getMessage());
+        }
+    }
+
+    private static void runBatch(String[] args) {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !args[2].equals("--pipeline"))) {
+            System.out.println("Usage: Scheduler --batch <file|-> [--pipeline]");
+            return;
+        }
+        boolean pipeline = args.length == 3;
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        loadAvailability(new Session(out));
+        try (BufferedReader in = args[1].equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Paths.get(args[1]))) {
+            BatchRunner runner = new BatchRunner(commands, out, pipeline);
+            runner.run(in);
+            out.flush();
+            runner.printReport(new PrintWriter(new OutputStreamWriter(System.err), true));
+        } catch (IOException e) {
+            out.flush();
+            System.out.println("Could not read batch input: " + e.getMessage());
+        }
+    }
+
+    // applies any pending schema migrations before the first command runs
+    private static boolean migrateSchema() {
+        try {
+            for (String migration : StorageEngines.getDefault().migrate()) {
+                System.out.println("Applied migration " + migration);
+            }
+            return true;
+        } catch (SQLException | IllegalStateException e) {
+            System.out.println("Error occurred when migrating the database: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void exportSqlite(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: Scheduler --export-sqlite <file>");
+            return;
+        }
+        StorageEngine engine = StorageEngines.getDefault();
+        try {
+            if (engine instanceof JournaledEngine) {
+                ((JournaledEngine) engine).exportToSqlite(args[1]);
+            } else if (engine instanceof InMemoryEngine) {
+                ((InMemoryEngine) engine).exportToSqlite(args[1]);
+            } else {
+                System.out.println("Only the memory and journal storage engines can be exported");
+                return;
+            }
+            System.out.println("Exported to " + args[1]);
+        } catch (SQLException e) {
+            System.out.println("Error occurred when exporting: " + e.getMessage());
+        }
+    }
+
+    private static void bulkImport(String[] args) {
+        String usage = "Usage: Scheduler --import <caregivers|patients|availability|inventory> <file> " +
+                "[--format csv|ndjson] [--chunk <rows>] [--checkpoint <file>] [--parallelism <threads>]";
+        if (args.length < 3 || args.length % 2 == 0) {
+            System.out.println(usage);
+            return;
+        }
+        BulkImporter importer;
+        try {
+            BulkImporter.BulkImporterBuilder builder = new BulkImporter.BulkImporterBuilder(
+                    BulkImporter.Kind.parse(args[1]), Paths.get(args[2]));
+            for (int i = 3; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--format":
+                        builder.format(Format.parse(args[i + 1]));
+                        break;
+                    case "--chunk":
+                        builder.chunkSize(Integer.parseInt(args[i + 1]));
+                        break;
+                    case "--checkpoint":
+                        builder.checkpoint(Paths.get(args[i + 1]));
+                        break;
+                    case "--parallelism":
+                        builder.parallelism(Integer.parseInt(args[i + 1]));
+                        break;
+                    default:
+                        System.out.println(usage);
+                        return;
+                }
+            }
+            importer = builder.build();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(usage);
+            return;
+        }
+        try {
+            importer.run();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.out.println("Import failed: " + e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Import failed, run it again to resume from the checkpoint: " + e.getMessage());
+        }
+    }
+
+    private static void bulkExport(String[] args) {
+        String usage = "Usage: Scheduler --export <reservations|availability> <file|-> [--format csv|ndjson]";
+        if (!(args.length == 3 || (args.length == 5 && args[3].equals("--format")))) {
+            System.out.println(usage);
+            return;
+        }
+        try {
+            BulkExporter.Table table = BulkExporter.Table.parse(args[1]);
+            Format format = args.length == 5 ? Format.parse(args[4]) : Format.ofFile(args[2]);
+            long rows = BulkExporter.export(table, args[2], format);
+            // stderr when the rows themselves went to stdout
+            (args[2].equals("-") ? System.err : System.out).println("Exported " + rows + " rows");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(usage);
+        } catch (IOException | SQLException e) {
+            System.out.println("Export failed: " + e.getMessage());
+        }
+    }
+
+    private static void readAudit(String[] args) {
+        String usage = "Usage: Scheduler --audit [--user <name>] [--command <name>] " +
+                "[--outcome ok|denied|bad_args|failed] [--from <date>] [--to <date>] [--limit <n>]";
+        if (args.length % 2 == 0) {
+            System.out.println(usage);
+            return;
+        }
+        AuditReader reader;
+        try {
+            AuditReader.AuditReaderBuilder builder = new AuditReader.AuditReaderBuilder(AuditLog.getDefaultDir());
+            for (int i = 1; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--user":
+                        builder.user(args[i + 1]);
+                        break;
+                    case "--command":
+                        builder.command(args[i + 1]);
+                        break;
+                    case "--outcome":
+                        builder.outcome(AuditEvent.Outcome.parse(args[i + 1]));
+                        break;
+                    case "--from":
+                        builder.from(LocalDate.parse(args[i + 1]));
+                        break;
+                    case "--to":
+                        builder.to(LocalDate.parse(args[i + 1]));
+                        break;
+                    case "--limit":
+                        builder.limit(Long.parseLong(args[i + 1]));
+                        break;
+                    default:
+                        System.out.println(usage);
+                        return;
+                }
+            }
+            reader = builder.build();
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            System.out.println(e.getMessage());
+            System.out.println(usage);
+            return;
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        out.println(String.format("%-24s %-8s %10s %-24s %s", "time", "outcome", "elapsed_us", "user", "command"));
+        try {
+            long events = reader.read(event -> out.println(event.toString()));
+            out.flush();
+            System.err.println(events + " events");
+        } catch (IOException e) {
+            out.flush();
+            System.out.println("Could not read the audit log: " + e.getMessage());
+        }
+    }
+
+    private static void checkPlans() {
+        try {
+            int scans = QueryPlans.check(new PrintWriter(new OutputStreamWriter(System.out), true));
+            System.out.println(scans == 0 ? "Every hot statement uses an index" : scans + " statements scan a table");
+            if (scans > 0) {
+                System.exit(1);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error occurred when checking query plans: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void sweepOnce() {
+        try {
+            System.out.println(RetentionSweeper.fromEnvironment(StorageEngines.getDefault()).sweep());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Retention sweep failed: " + e.getMessage());
+        }
+    }
+
+    // the server sweeps every RetentionSweepMinutes (default 60, 0 turns it off), see RetentionSweeper
+    private static void startRetentionSweep() {
+        int minutes = RetentionSweeper.getSweepMinutes();
+        if (minutes <= 0) {
+            return;
+        }
+        try {
+            RetentionSweeper.fromEnvironment(StorageEngines.getDefault()).start(minutes);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Retention sweep is off: " + e.getMessage());
+        }
+    }
+
+    // StatsFile=<path> rewrites the stats report to that file every StatsIntervalSec seconds (default 60)
+    private static void startStatsDump() {
+        String file = System.getenv("StatsFile");
+        if (file == null || file.isEmpty()) {
+            return;
+        }
+        int interval = 60;
+        String intervalValue = System.getenv("StatsIntervalSec");
+        if (intervalValue != null && !intervalValue.isEmpty()) {
+            try {
+                interval = Math.max(1, Integer.parseInt(intervalValue.trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring invalid StatsIntervalSec: " + intervalValue);
+            }
+        }
+        Metrics.startDump(file, interval, Scheduler::statsReport);
+    }
+
+    static String statsReport() {
+        return Metrics.report() +
+                ConnectionManager.getPoolStats() + System.lineSeparator() +
+                CredentialHasher.getInstance().getStats() + System.lineSeparator() +
+                Waitlist.getInstance().getStats() + System.lineSeparator() +
+                availabilityStats() + System.lineSeparator() +
+                auditStats() + System.lineSeparator();
+    }
+
+    private static String auditStats() {
+        AuditLog audit = AuditLog.getDefault();
+        return audit == null ? "audit: off" : audit.getStats();
+    }
+
+    private static String availabilityStats() {
+        try {
+            return AvailabilityIndex.getInstance().getStats();
+        } catch (SQLException e) {
+            return "availability: not loaded";
+        }
+    }
+
+    static void printGreeting(Session session) {
+        // printing greetings text
+        session.println("");
+        session.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        session.println("*** Please enter one of the following commands ***");
+        for (Command command : commands.getCommands()) {
+            session.println("> " + command.getUsage());
+        }
+        session.println("");
+    }
+
+    private static void loadAvailability(Session session) {
+        // build the in-memory availability index before taking commands
+        try {
+            AvailabilityIndex.getInstance();
+        } catch (SQLException e) {
+            session.println("Error occurred when loading availability");
+        }
+    }
+
+    // runs one command line for the session, returns false once the session should end
+    static boolean runCommand(Session session, String response) {
+        return commands.dispatch(session, response);
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
+        // create_patient <username> <password>
+        String username = tokens[1];
+        String password = tokens[2];
+        // Check if username already exists in Patients table
+        if (usernameExistsPatient(session, username)) {
+            session.fail("Username taken, try again");
+            return;
+        }
+        // Create a new patient
+        CredentialHasher hasher = CredentialHasher.getInstance();
+        HashParams hashParams = hasher.getDefaultParams();
+        byte[] salt = hasher.generateSalt();
+        byte[] hash = hasher.hash(password, salt, hashParams);
+        try {
+            Patient patient = new Patient.PatientBuilder(username, salt, hash, hashParams).build();
+            patient.saveToDB();
+            session.println("Created user " + username);
+        } catch (SQLException e) {
+            session.fail("Create patient failed");
+        }
+    }
+
+    private static void createCaregiver(Session session, String[] tokens) {
+        // create_caregiver <username> <password>
+        String username = tokens[1];
+        String password = tokens[2];
+        // check 1: check if the username has been taken already
+        if (usernameExistsCaregiver(session, username)) {
+            session.fail("Username taken, try again!");
+            return;
+        }
+        CredentialHasher hasher = CredentialHasher.getInstance();
+        HashParams hashParams = hasher.getDefaultParams();
+        byte[] salt = hasher.generateSalt();
+        byte[] hash = hasher.hash(password, salt, hashParams);
+        // create the caregiver
+        try {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash, hashParams).build();
+            // save to caregiver information to our database
+            caregiver.saveToDB();
+            session.println("Created user " + username);
+        } catch (SQLException e) {
+            session.fail("Failed to create user.");
+        }
+    }
+
+    private static boolean usernameExistsCaregiver(Session session, String username) {
+        try {
+            return StorageEngines.getDefault().caregiverExists(username);
+        } catch (SQLException e) {
+            session.fail("Error occurred when checking username");
+        }
+        return true;
+    }
+
+    private static boolean usernameExistsPatient(Session session, String username) {
+        try {
+            return StorageEngines.getDefault().patientExists(username);
+        } catch (SQLException e) {
+            session.fail("Error occurred when checking username");
+        }
+        return true;
+    }
+
+    private static void loginPatient(Session session, String[] tokens) {
+        // login_patient <username> <password>
+        if (session.getCurrentPatient() != null || session.getCurrentCaregiver() != null) {
+            session.fail("User already logged in, try again");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Patient patient = null;
+        try {
+            patient = new Patient.PatientGetter(username, password).get();
+        } catch (SQLException e) {
+            session.fail("Login patient failed");
+            return;
+        }
+        if (patient == null) {
+            session.fail("Login patient failed");
+        } else {
+            session.setCurrentPatient(patient);
+            session.println("Logged in as " + username);
+        }
+
+    }
+
+    private static void loginCaregiver(Session session, String[] tokens) {
+        // login_caregiver <username> <password>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.fail("User already logged in.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Caregiver caregiver = null;
+        try {
+            caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (SQLException e) {
+            session.fail("Login failed.");
+        }
+        // check if the login was successful
+        if (caregiver == null) {
+            session.fail("Login failed.");
+        } else {
+            session.println("Logged in as: " + username);
+            session.setCurrentCaregiver(caregiver);
+        }
+    }
+
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
+        // search_caregiver_schedule <date>
+        // search_caregiver_schedule <from> <to>
+        if (tokens.length > 2) {
+            searchCaregiverScheduleRange(session, tokens);
+            return;
+        }
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date!");
+            return;
+        }
+        try {
+            // caregivers come from the in-memory availability index, not from a scan of Availabilities
+            SortedSet<String> caregivers = AvailabilityIndex.getInstance().caregiversOn(d);
+            if (caregivers.isEmpty()) {
+                session.println("No Caregiver is available!");
+                return;
+            }
+            session.println("Caregivers:");
+            for (String caregiver : caregivers) {
+                session.println(caregiver);
+            }
+            session.println("Vaccines:");
+            for (Vaccine vaccine : Vaccine.getAll()) {
+                session.println(vaccine.getVaccineName() + " " + vaccine.getAvailableDoses());
+            }
+        } catch (SQLException e) {
+            session.fail("Please try again!");
+        }
+    }
+
+    // One line per day with the number of free caregivers and, per vaccine, how many appointments could be booked
+    // that day. Doses are not tied to a date, so they are shown once; a day can book no more of a vaccine than it
+    // has free caregivers or than there are doses left.
+    private static void searchCaregiverScheduleRange(Session session, String[] tokens) {
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date!");
+            return;
+        }
+        LocalDate first = from.toLocalDate();
+        LocalDate last = to.toLocalDate();
+        if (last.isBefore(first)) {
+            session.fail("End date is before start date!");
+            return;
+        }
+        if (ChronoUnit.DAYS.between(first, last) >= MAX_SCHEDULE_DAYS) {
+            session.fail("Date range is too long!");
+            return;
+        }
+        try {
+            // the per-day counts are kept up to date by the index, so nothing here reads Availabilities
+            SortedMap<LocalDate, Integer> free = AvailabilityIndex.getInstance().freeCountsBetween(from, to);
+            List<Vaccine> vaccines = Vaccine.getAll();
+            StringBuilder line = new StringBuilder("Doses left:");
+            for (Vaccine vaccine : vaccines) {
+                line.append(' ').append(vaccine.getVaccineName()).append(' ').append(vaccine.getAvailableDoses());
+            }
+            session.println(vaccines.isEmpty() ? "Doses left: none" : line.toString());
+            line.setLength(0);
+            line.append("Date        Caregivers");
+            for (Vaccine vaccine : vaccines) {
+                line.append("  ").append(vaccine.getVaccineName());
+            }
+            session.println(line.toString());
+            for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+                int caregivers = free.getOrDefault(day, 0);
+                line.setLength(0);
+                line.append(day).append(String.format("  %10d", caregivers));
+                for (Vaccine vaccine : vaccines) {
+                    // a stored count below zero means none are bookable, not a negative number
+                    String bookable = Integer.toString(Math.max(0, Math.min(caregivers, vaccine.getAvailableDoses())));
+                    line.append("  ").append(" ".repeat(Math.max(0, vaccine.getVaccineName().length() -
+                            bookable.length()))).append(bookable);
+                }
+                session.println(line.toString());
+            }
+        } catch (SQLException e) {
+            session.fail("Please try again!");
+        }
+    }
+
+    private static void firstAvailable(Session session, String[] tokens) {
+        // first_available <date> [min-caregivers]
+        // first_available <date> --caregivers <name,...>
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date!");
+            return;
+        }
+        try {
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            if (tokens.length > 2 && tokens[2].startsWith("--")) {
+                if (!tokens[2].equals("--caregivers") || tokens.length != 4) {
+                    session.fail("Please enter --caregivers followed by names separated by commas!");
+                    return;
+                }
+                // every one of them free on the same day: an intersection of their day bitmaps
+                List<String> caregivers = List.of(tokens[3].split(","));
+                LocalDate first = index.allFree(caregivers).nextSetDay(d.toLocalDate());
+                session.println(first == null ? "No date from " + d + " has all of " + tokens[3] + " free"
+                        : "First date with all of " + tokens[3] + " free: " + first);
+                return;
+            }
+            int min = 1;
+            if (tokens.length > 2) {
+                try {
+                    min = Integer.parseInt(tokens[2]);
+                } catch (NumberFormatException e) {
+                    min = 0;
+                }
+            }
+            if (min < 1 || tokens.length > 3) {
+                session.fail("Please enter a positive number of caregivers!");
+                return;
+            }
+            LocalDate first = index.firstDateWith(min, d);
+            String caregivers = min == 1 ? "a free caregiver" : min + " free caregivers";
+            session.println(first == null ? "No date from " + d + " has " + caregivers
+                    : "First date with " + caregivers + ": " + first);
+        } catch (SQLException e) {
+            session.fail("Please try again!");
+        }
+    }
+
+    private static void reserve(Session session, String[] tokens) {
+        // reserve <date> <vaccine>
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date!");
+            return;
+        }
+        String vaccineName = tokens[2];
+        try {
+            Reservation reservation = new Reservation.Reserver(session.getCurrentPatient().getUsername(), d, vaccineName).reserve();
+            if (reservation == null) {
+                session.fail("No Caregiver is available!");
+                joinWaitlist(session, d, vaccineName);
+            } else {
+                // a booking made by hand supersedes a queued request for the same date and vaccine
+                Waitlist.getInstance().remove(session.getCurrentPatient().getUsername(), d, vaccineName);
+                session.println("Appointment ID: " + reservation.getAppointmentId() +
+                        ", Caregiver username: " + reservation.getCaregiverUsername());
+            }
+        } catch (IllegalArgumentException e) {
+            session.fail("Not enough available doses!");
+            joinWaitlist(session, d, vaccineName);
+        } catch (SQLException e) {
+            session.fail("Please try again!");
+        }
+    }
+
+    private static void joinWaitlist(Session session, Date d, String vaccineName) {
+        // the request is booked automatically once a caregiver or doses are added
+        try {
+            int position = Waitlist.getInstance().add(session.getCurrentPatient().getUsername(), d, vaccineName);
+            session.println("Added to the waitlist for " + d + " at position " + position);
+        } catch (IllegalArgumentException e) {
+            session.println("Not added to the waitlist: " + e.getMessage());
+        } catch (SQLException e) {
+            session.println("Not added to the waitlist, please try again!");
+        }
+    }
+
+    private static void uploadAvailability(Session session, String[] tokens) {
+        // upload_availability <date>
+        // upload_availability <from> <to> [weekday-mask]
+        if (tokens.length > 2) {
+            uploadAvailabilityRange(session, tokens);
+            return;
+        }
+        String date = tokens[1];
+        try {
+            Date d = Date.valueOf(date);
+            session.getCurrentCaregiver().uploadAvailability(d);
+            session.println("Availability uploaded!");
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.fail("Error occurred when uploading availability");
+        }
+    }
+
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date!");
+            return;
+        }
+        // the mask has one 0/1 flag per weekday starting on Monday, e.g. 1111100 for weekdays only
+        Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+        if (tokens.length == 4) {
+            String mask = tokens[3];
+            if (mask.length() != 7 || !mask.matches("[01]+")) {
+                session.fail("Please enter a weekday mask like 1111100!");
+                return;
+            }
+            weekdays.clear();
+            for (int i = 0; i < 7; i++) {
+                if (mask.charAt(i) == '1') {
+                    weekdays.add(DayOfWeek.of(i + 1));
+                }
+            }
+        }
+        try {
+            Caregiver.UploadResult result = session.getCurrentCaregiver().uploadAvailability(from, to, weekdays);
+            session.println("Availability uploaded! Inserted " + result.getInserted() + ", skipped " +
+                    result.getSkipped() + " already uploaded");
+        } catch (IllegalArgumentException e) {
+            session.fail(e.getMessage());
+        } catch (SQLException e) {
+            session.fail("Error occurred when uploading availability");
+        }
+    }
+
+    private static void cancel(Session session, String[] tokens) {
+        // cancel <appointment_id>
+        int appointmentId;
+        try {
+            appointmentId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            session.fail("Please enter a valid appointment ID!");
+            return;
+        }
+        // patients and caregivers can each cancel only their own appointments
+        boolean caregiver = session.getCurrentCaregiver() != null;
+        String username = caregiver ? session.getCurrentCaregiver().getUsername()
+                : session.getCurrentPatient().getUsername();
+        try {
+            Reservation cancelled = Reservation.cancel(appointmentId, username, caregiver);
+            if (cancelled == null) {
+                session.fail("No appointment " + appointmentId + " found!");
+            } else {
+                session.println("Cancelled appointment " + appointmentId + " on " + cancelled.getDate());
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred when cancelling the appointment");
+        }
+    }
+
+    private static void cancelDay(Session session, String[] tokens) {
+        // cancel_day <date>
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date!");
+            return;
+        }
+        try {
+            CancelDayResult result = session.getCurrentCaregiver().cancelDay(d);
+            for (ReservationRecord moved : result.getRebooked()) {
+                session.println("Appointment ID: " + moved.getReservationId() + " moved to caregiver " +
+                        moved.getCaregiverUsername());
+            }
+            for (ReservationRecord released : result.getReleased()) {
+                session.println("Appointment ID: " + released.getReservationId() + " cancelled");
+            }
+            session.println("Cancelled " + d + ": " + result.getRebooked().size() + " appointments rebooked, " +
+                    result.getReleased().size() + " cancelled");
+        } catch (SQLException e) {
+            session.fail("Error occurred when cancelling the day");
+        }
+    }
+
+    private static void addDoses(Session session, String[] tokens) {
+        // add_doses <vaccine> <number>
+        String vaccineName = tokens[1];
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            doses = -1;
+        }
+        // like the bulk importer, never take doses away through here
+        if (doses < 0) {
+            session.fail("Please enter a valid number of doses, zero or more!");
+            return;
+        }
+        Vaccine vaccine = null;
+        try {
+            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+        } catch (SQLException e) {
+            session.fail("Error occurred when adding doses");
+            return;
+        }
+        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
+        //          table
+        if (vaccine == null) {
+            try {
+                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
+                vaccine.saveToDB();
+            } catch (SQLException e) {
+                session.fail("Error occurred when adding doses");
+                return;
+            }
+        } else if (doses > 0) {
+            // if the vaccine is not null, meaning that the vaccine already exists in our table
+            try {
+                vaccine.increaseAvailableDoses(doses);
+            } catch (SQLException e) {
+                session.fail("Error occurred when adding doses");
+                return;
+            }
+        }
+        session.println("Doses updated!");
+    }
+
+    private static void showAppointments(Session session, String[] tokens) {
+        // show_appointments [--after <id>] [--limit <n>] [--from <date>] [--to <date>] [--archive]
+        boolean caregiver = session.getCurrentCaregiver() != null;
+        String username = caregiver ? session.getCurrentCaregiver().getUsername()
+                : session.getCurrentPatient().getUsername();
+        AppointmentQuery.AppointmentQueryBuilder builder = new AppointmentQuery.AppointmentQueryBuilder(username,
+                caregiver);
+        AppointmentQuery query;
+        try {
+            int i = 1;
+            while (i < tokens.length) {
+                if (tokens[i].equals("--archive")) {
+                    // the only option without a value
+                    builder.archived(true);
+                    i++;
+                    continue;
+                }
+                if (i + 1 >= tokens.length) {
+                    session.fail("Missing value for " + tokens[i]);
+                    return;
+                }
+                switch (tokens[i]) {
+                    case "--after":
+                        builder.after(Integer.parseInt(tokens[i + 1]));
+                        break;
+                    case "--limit":
+                        builder.limit(Integer.parseInt(tokens[i + 1]));
+                        break;
+                    case "--from":
+                        builder.from(Date.valueOf(tokens[i + 1]));
+                        break;
+                    case "--to":
+                        builder.to(Date.valueOf(tokens[i + 1]));
+                        break;
+                    default:
+                        session.fail("Unknown option " + tokens[i]);
+                        return;
+                }
+                i += 2;
+            }
+            query = builder.build();
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException too
+            session.fail("Please enter valid options: " + e.getMessage());
+            return;
+        }
+
+        // rows go through a large buffer instead of one flush per line, and are never collected into a list
+        PrintWriter out = new PrintWriter(new BufferedWriter(session.getOut(), 1 << 16));
+        int[] lastId = {query.getAfterId()};
+        try {
+            int count = StorageEngines.getDefault().streamAppointments(query, reservation -> {
+                out.print(reservation.getReservationId());
+                out.print(' ');
+                out.print(reservation.getVaccineName());
+                out.print(' ');
+                out.print(reservation.getDate());
+                out.print(' ');
+                out.println(caregiver ? reservation.getPatientUsername() : reservation.getCaregiverUsername());
+                lastId[0] = reservation.getReservationId();
+            });
+            if (count == 0) {
+                out.println(query.getAfterId() == 0 ? "No appointments scheduled" : "No more appointments");
+            } else if (count == query.getLimit()) {
+                // the next page starts after the last id shown
+                out.println("More: show_appointments --after " + lastId[0] + pageOptions(query));
+            }
+        } catch (SQLException e) {
+            // after the rows already printed
+            out.flush();
+            session.fail("Please try again!");
+        } finally {
+            out.flush();
+        }
+    }
+
+    private static String pageOptions(AppointmentQuery query) {
+        StringBuilder options = new StringBuilder(" --limit ").append(query.getLimit());
+        if (query.getFrom() != null) {
+            options.append(" --from ").append(query.getFrom());
+        }
+        if (query.getTo() != null) {
+            options.append(" --to ").append(query.getTo());
+        }
+        if (query.isArchived()) {
+            options.append(" --archive");
+        }
+        return options.toString();
+    }
+
+    private static void stats(Session session, String[] tokens) {
+        // stats
+        session.print(statsReport());
+    }
+
+    private static void logout(Session session, String[] tokens) {
+        // logout
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.fail("Please login first.");
+            return;
+        }
+        session.setCurrentCaregiver(null);
+        session.setCurrentPatient(null);
+        session.println("Successfully logged out!");
+    }
+
+    private static void quit(Session session, String[] tokens) {
+        session.println("Bye!");
+        session.end();
+    }
+}
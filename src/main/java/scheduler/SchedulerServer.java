@@ -0,0 +1,178 @@
+package scheduler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Serves the console's line-based command protocol over TCP, one Session per connection.
+ *
+ * Each connection gets its own thread: a virtual thread when the JVM has them (Java 21+), otherwise a pooled
+ * platform thread, so thousands of mostly idle sessions stay cheap where the runtime allows it. Connections past
+ * maxSessions are told to come back later and closed. shutdown() stops accepting, lets every session finish the
+ * command it is running, and then closes the connections.
+ */
+public class SchedulerServer {
+
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    private static final long SHUTDOWN_GRACE_SECONDS = 10;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Semaphore sessionPermits;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    public SchedulerServer(int port, int maxSessions) throws IOException {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("Max sessions must be positive!");
+        }
+        this.serverSocket = new ServerSocket(port);
+        this.executor = newSessionExecutor();
+        this.sessionPermits = new Semaphore(maxSessions);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getActiveSessions() {
+        return connections.size();
+    }
+
+    // accepts connections until shutdown() is called
+    public void serve() throws IOException {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (!running) {
+                    return;
+                }
+                throw e;
+            }
+            if (!sessionPermits.tryAcquire()) {
+                reject(socket);
+                continue;
+            }
+            connections.add(socket);
+            try {
+                executor.execute(() -> handle(socket));
+            } catch (RuntimeException e) {
+                // the executor is already shutting down
+                connections.remove(socket);
+                sessionPermits.release();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // closing the input ends each session after the command it is currently running
+        for (Socket socket : connections) {
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                closeQuietly(socket);
+            }
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                for (Socket socket : connections) {
+                    closeQuietly(socket);
+                }
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
+            Session session = new Session(out);
+            Scheduler.printGreeting(session);
+            while (true) {
+                session.print("> ");
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+                boolean keepGoing = Scheduler.runCommand(session, line);
+                out.flush();
+                if (!keepGoing) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away; nothing to clean up beyond the socket
+        } finally {
+            connections.remove(socket);
+            sessionPermits.release();
+            closeQuietly(socket);
+        }
+    }
+
+    private void reject(Socket socket) {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                StandardCharsets.UTF_8))) {
+            out.println("Server busy, please try again later!");
+        } catch (IOException e) {
+            // the client is gone already
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "scheduler-session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintWriter;
+
+// The state of one connected user: who is logged in and where their output goes
+public class Session {
+    private final PrintWriter out;
+
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in per session at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    private boolean ended = false;
+    // set by fail(), so the command that just ran is audited as failed
+    private boolean failed = false;
+
+    public Session(PrintWriter out) {
+        this.out = out;
+    }
+
+    // a view of the parent's logged-in user that writes somewhere else, for running read-only commands
+    public Session(Session parent, PrintWriter out) {
+        this.out = out;
+        this.currentCaregiver = parent.currentCaregiver;
+        this.currentPatient = parent.currentPatient;
+    }
+
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public void setCurrentCaregiver(Caregiver caregiver) {
+        this.currentCaregiver = caregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public void setCurrentPatient(Patient patient) {
+        this.currentPatient = patient;
+    }
+
+    public boolean isEnded() {
+        return ended;
+    }
+
+    // the session ends after the current command, e.g. on quit
+    public void end() {
+        this.ended = true;
+    }
+
+    public PrintWriter getOut() {
+        return out;
+    }
+
+    public void println(String line) {
+        out.println(line);
+    }
+
+    // prints why the current command did not do what was asked, and marks it failed
+    public void fail(String message) {
+        out.println(message);
+        failed = true;
+    }
+
+    // whether fail() was called since the last call; clears it for the next command
+    public boolean takeFailed() {
+        boolean wasFailed = failed;
+        failed = false;
+        return wasFailed;
+    }
+
+    public void print(String text) {
+        out.print(text);
+        out.flush();
+    }
+}
@@ -0,0 +1,133 @@
+package scheduler.audit;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+// One command as the audit log recorded it: when, who, what they typed and how it ended
+public class AuditEvent {
+
+    public enum Outcome {
+        OK,
+        // the session's role may not run the command
+        DENIED,
+        // the wrong number of arguments
+        BAD_ARGS,
+        // the handler threw
+        FAILED;
+
+        public static Outcome parse(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown outcome: " + name);
+            }
+        }
+    }
+
+    // who was logged in when the command ran
+    public enum Role {
+        NONE,
+        PATIENT,
+        CAREGIVER
+    }
+
+    // fixed width, unlike Instant.toString(), so printed events line up
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    // the binary layout of an event, the same in the ring buffer and in the files; events are at most SIZE bytes
+    static final int SIZE = 256;
+    // epoch millis
+    static final int TIME = 0;
+    static final int ELAPSED_NANOS = 8;
+    static final int OUTCOME = 16;
+    static final int ROLE = 17;
+    // 1 if the command line did not fit
+    static final int TRUNCATED = 18;
+    static final int USER_CHARS = 20;
+    static final int LINE_CHARS = 22;
+    // the user's chars and then the command line's, two bytes each
+    static final int CHARS = 24;
+    static final int MAX_CHARS = (SIZE - CHARS) / 2;
+
+    private final Instant time;
+    private final long elapsedNanos;
+    private final Outcome outcome;
+    private final Role role;
+    private final String user;
+    private final String line;
+    private final boolean truncated;
+
+    private AuditEvent(Instant time, long elapsedNanos, Outcome outcome, Role role, String user, String line,
+                       boolean truncated) {
+        this.time = time;
+        this.elapsedNanos = elapsedNanos;
+        this.outcome = outcome;
+        this.role = role;
+        this.user = user;
+        this.line = line;
+        this.truncated = truncated;
+    }
+
+    // Getters
+    public Instant getTime() {
+        return time;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    // null when nobody was logged in
+    public String getUser() {
+        return user;
+    }
+
+    // the command name and the arguments that are audited, space separated
+    public String getLine() {
+        return line;
+    }
+
+    public String getCommand() {
+        int space = line.indexOf(' ');
+        return space < 0 ? line : line.substring(0, space);
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+        String who = role == Role.NONE ? "-" : role.name().toLowerCase() + ":" + user;
+        return String.format("%s %-8s %10.1f %-24s %s%s", TIME_FORMAT.format(time), outcome.name().toLowerCase(),
+                elapsedNanos / 1e3, who, line, truncated ? " ..." : "");
+    }
+
+    static AuditEvent decode(ByteBuffer event) {
+        int userChars = event.getShort(USER_CHARS);
+        int lineChars = event.getShort(LINE_CHARS);
+        return new AuditEvent(Instant.ofEpochMilli(event.getLong(TIME)), event.getLong(ELAPSED_NANOS),
+                Outcome.values()[event.get(OUTCOME)], Role.values()[event.get(ROLE)],
+                userChars == 0 ? null : chars(event, CHARS, userChars),
+                chars(event, CHARS + 2 * userChars, lineChars), event.get(TRUNCATED) != 0);
+    }
+
+    private static String chars(ByteBuffer event, int at, int count) {
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++) {
+            chars[i] = event.getChar(at + 2 * i);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,117 @@
+package scheduler.audit;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * The audit log on disk: events in memory-mapped segment files, audit-<n>.log, framed like the storage journal's
+ * records as the event's length, the event and a CRC32 of it. Segments are mapped at a fixed size and start out
+ * zeroed, so a zero length marks where the events end. The length is written last, so a reader of a live segment
+ * never sees an event before all of it is there.
+ *
+ * A full segment is forced to disk and the next one started; beyond keepSegments the oldest are deleted. A
+ * reopened log starts a fresh segment after the newest one. Only the audit writer thread appends.
+ */
+class AuditFile {
+
+    private static final String PREFIX = "audit-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int keepSegments;
+    private final CRC32 crc = new CRC32();
+    // oldest first, including the current one
+    private final Deque<Long> segments;
+
+    private MappedByteBuffer segment;
+    // the size of segments, for the stats of other threads
+    private volatile int segmentCount;
+
+    AuditFile(Path dir, int segmentSize, int keepSegments) throws IOException {
+        if (segmentSize < AuditEvent.SIZE + 12) {
+            throw new IllegalArgumentException("Audit segments must hold at least one event");
+        }
+        if (keepSegments < 1) {
+            throw new IllegalArgumentException("Keep at least one audit segment");
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.keepSegments = keepSegments;
+        Files.createDirectories(dir);
+        this.segments = new ArrayDeque<>(segments(dir));
+        open(segments.isEmpty() ? 0 : segments.peekLast() + 1);
+    }
+
+    void append(byte[] event, int offset, int length) throws IOException {
+        // room for the length, the event, the checksum and a zero length after it
+        if (segment.remaining() < length + 12) {
+            roll();
+        }
+        crc.reset();
+        crc.update(event, offset, length);
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.put(event, offset, length);
+        segment.putInt((int) crc.getValue());
+        segment.putInt(start, length);
+    }
+
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    void close() {
+        segment.force();
+    }
+
+    private void roll() throws IOException {
+        segment.force();
+        open(segments.peekLast() + 1);
+        while (segments.size() > keepSegments) {
+            Files.deleteIfExists(pathOf(dir, segments.removeFirst()));
+        }
+        segmentCount = segments.size();
+    }
+
+    private void open(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathOf(dir, number), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segments.addLast(number);
+        segmentCount = segments.size();
+    }
+
+    // the segment numbers in the directory, oldest first
+    static List<Long> segments(Path dir) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return numbers;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    static Path pathOf(Path dir, long number) {
+        return dir.resolve(String.format("%s%09d%s", PREFIX, number, SUFFIX));
+    }
+}
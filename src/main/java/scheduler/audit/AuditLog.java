@@ -0,0 +1,317 @@
+package scheduler.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Records every command that is run, who ran it and how it ended, without writing anything on the command's
+ * thread.
+ *
+ * record() copies the event into a slot of a preallocated ring buffer and returns. A background thread copies
+ * published slots into the files, see AuditFile. Events are fixed-size binary records written in place, so
+ * recording allocates nothing and takes no lock: the caller claims a sequence number with one compare-and-set,
+ * fills that sequence's slot and publishes it with an ordered store of the sequence into the slot's entry of
+ * published. The writer frees slots by moving consumed forward. Any number of threads may record at once.
+ *
+ * When the writer falls a whole ring behind, the policy decides: BLOCK makes the recording thread wait for a
+ * slot, DROP counts the event as dropped and lets the command go on. scheduler.bench.AuditBench measures what
+ * recording costs a command.
+ *
+ * Segments are forced to disk when they fill up and on close. In between, events are in the page cache, so they
+ * survive the process dying but not the machine.
+ */
+public class AuditLog {
+
+    public enum Policy {
+        BLOCK,
+        DROP;
+
+        public static Policy parse(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown audit policy: " + name);
+            }
+        }
+    }
+
+    public static final int DEFAULT_BUFFER_EVENTS = 65536;
+    public static final int DEFAULT_SEGMENT_MB = 16;
+    public static final int DEFAULT_KEEP_SEGMENTS = 64;
+
+    // longer usernames are cut, so the command line keeps most of the event
+    private static final int MAX_USER_CHARS = 32;
+    // how long the writer and blocked recorders spin before they start to park
+    private static final int SPINS = 100;
+
+    private final Policy policy;
+    private final int capacity;
+    private final int mask;
+    private final byte[] slotBytes;
+    private final ByteBuffer slots;
+    // the sequence last published in each slot, -1 before the first
+    private final AtomicLongArray published;
+    // the next sequence to hand out
+    private final AtomicLong claimed = new AtomicLong();
+    // everything before this has been written and its slot may be reused
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final AuditFile file;
+    private final Path dir;
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    private AuditLog(AuditLogBuilder builder) throws IOException {
+        this.policy = builder.policy;
+        this.capacity = builder.bufferEvents;
+        this.mask = capacity - 1;
+        this.slotBytes = new byte[capacity * AuditEvent.SIZE];
+        this.slots = ByteBuffer.wrap(slotBytes);
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.dir = builder.dir;
+        this.file = new AuditFile(builder.dir, builder.segmentSize, builder.keepSegments);
+        this.writer = new Thread(this::drain, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // the process-wide log from the environment, or null when Audit=0 turns auditing off
+    public static AuditLog getDefault() {
+        return DefaultHolder.LOG;
+    }
+
+    // AuditDir, default audit
+    public static Path getDefaultDir() {
+        String dir = System.getenv("AuditDir");
+        return Paths.get(dir == null || dir.isEmpty() ? "audit" : dir);
+    }
+
+    // tokens[0] is the command name; only the first args arguments are recorded, so passwords can be left out
+    public void record(String[] tokens, int args, AuditEvent.Role role, String user, AuditEvent.Outcome outcome,
+                       long elapsedNanos) {
+        long sequence = claim();
+        if (sequence < 0) {
+            dropped.increment();
+            return;
+        }
+        int index = (int) (sequence & mask);
+        int base = index * AuditEvent.SIZE;
+        int at = base + AuditEvent.CHARS;
+        int end = base + AuditEvent.SIZE;
+        int userChars = user == null ? 0 : putChars(user, at, at + 2 * MAX_USER_CHARS);
+        at += 2 * userChars;
+        int lineStart = at;
+        boolean truncated = user != null && userChars < user.length();
+        for (int i = 0; i <= args && i < tokens.length; i++) {
+            if (i > 0) {
+                if (at == end) {
+                    truncated = true;
+                    break;
+                }
+                slots.putChar(at, ' ');
+                at += 2;
+            }
+            int written = putChars(tokens[i], at, end);
+            at += 2 * written;
+            if (written < tokens[i].length()) {
+                truncated = true;
+                break;
+            }
+        }
+        slots.putLong(base + AuditEvent.TIME, System.currentTimeMillis());
+        slots.putLong(base + AuditEvent.ELAPSED_NANOS, elapsedNanos);
+        slots.put(base + AuditEvent.OUTCOME, (byte) outcome.ordinal());
+        slots.put(base + AuditEvent.ROLE, (byte) role.ordinal());
+        slots.put(base + AuditEvent.TRUNCATED, (byte) (truncated ? 1 : 0));
+        slots.putShort(base + AuditEvent.USER_CHARS, (short) userChars);
+        slots.putShort(base + AuditEvent.LINE_CHARS, (short) ((at - lineStart) / 2));
+        published.lazySet(index, sequence);
+    }
+
+    // writes out everything recorded so far and stops the writer; later events are dropped
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getStats() {
+        return String.format("audit: %d recorded, %d written, %d dropped, %d waits for a full buffer, "
+                        + "%d write errors, %d segments in %s", claimed.get(), consumed.get(), dropped.sum(),
+                waits.sum(), writeErrors.sum(), file.getSegmentCount(), dir);
+    }
+
+    // the sequence to fill, or -1 to drop the event
+    private long claim() {
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed.get() >= capacity) {
+                if (policy == Policy.DROP || closed) {
+                    return -1;
+                }
+                awaitSlot(sequence);
+                continue;
+            }
+            if (closed) {
+                return -1;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    private void awaitSlot(long sequence) {
+        waits.increment();
+        int spins = 0;
+        while (sequence - consumed.get() >= capacity && !closed) {
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(10000);
+            }
+        }
+    }
+
+    // copies as much of the string as fits before end, returns how many chars that was
+    private int putChars(String s, int at, int end) {
+        int count = Math.min(s.length(), (end - at) / 2);
+        for (int i = 0; i < count; i++) {
+            slots.putChar(at + 2 * i, s.charAt(i));
+        }
+        return count;
+    }
+
+    // the writer thread: copies published slots to the file in sequence order until closed and drained
+    private void drain() {
+        long next = consumed.get();
+        int idle = 0;
+        while (true) {
+            int index = (int) (next & mask);
+            if (published.get(index) == next) {
+                write(index);
+                consumed.lazySet(++next);
+                idle = 0;
+            } else if (closed && next >= claimed.get()) {
+                break;
+            } else if (++idle < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                // back off to a millisecond once the log has been quiet for a while
+                LockSupport.parkNanos(idle < 10 * SPINS ? 50000 : 1000000);
+            }
+        }
+        file.close();
+    }
+
+    private void write(int index) {
+        int base = index * AuditEvent.SIZE;
+        int length = AuditEvent.CHARS
+                + 2 * (slots.getShort(base + AuditEvent.USER_CHARS) + slots.getShort(base + AuditEvent.LINE_CHARS));
+        try {
+            file.append(slotBytes, base, length);
+        } catch (IOException e) {
+            // e.g. a full disk; report the first one and keep going, so the buffer does not back up
+            writeErrors.increment();
+            if (writeErrors.sum() == 1) {
+                System.out.println("Could not write the audit log to " + dir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Audit=0 turns auditing off. AuditDir (default audit), AuditPolicy (block or drop), AuditBufferEvents,
+    // AuditSegmentMb and AuditKeepSegments
+    private static AuditLog createDefault() {
+        if ("0".equals(System.getenv("Audit"))) {
+            return null;
+        }
+        try {
+            AuditLogBuilder builder = new AuditLogBuilder(getDefaultDir());
+            String policy = System.getenv("AuditPolicy");
+            if (policy != null && !policy.isEmpty()) {
+                builder.policy(Policy.parse(policy));
+            }
+            builder.bufferEvents((int) envLong("AuditBufferEvents", DEFAULT_BUFFER_EVENTS));
+            builder.segmentSize((int) envLong("AuditSegmentMb", DEFAULT_SEGMENT_MB) << 20);
+            builder.keepSegments((int) envLong("AuditKeepSegments", DEFAULT_KEEP_SEGMENTS));
+            AuditLog log = builder.build();
+            Runtime.getRuntime().addShutdownHook(new Thread(log::close, "audit-close"));
+            return log;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Auditing is off, could not open the audit log: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long envLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private static class DefaultHolder {
+        private static final AuditLog LOG = createDefault();
+    }
+
+    public static class AuditLogBuilder {
+        private final Path dir;
+        private Policy policy = Policy.BLOCK;
+        private int bufferEvents = DEFAULT_BUFFER_EVENTS;
+        private int segmentSize = DEFAULT_SEGMENT_MB << 20;
+        private int keepSegments = DEFAULT_KEEP_SEGMENTS;
+
+        public AuditLogBuilder(Path dir) {
+            this.dir = dir;
+        }
+
+        public AuditLogBuilder policy(Policy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        // rounded up to a power of two
+        public AuditLogBuilder bufferEvents(int bufferEvents) {
+            if (bufferEvents < 2 || bufferEvents > (1 << 22)) {
+                throw new IllegalArgumentException("The audit buffer holds 2 to " + (1 << 22) + " events");
+            }
+            this.bufferEvents = Integer.highestOneBit(bufferEvents - 1) << 1;
+            return this;
+        }
+
+        public AuditLogBuilder segmentSize(int bytes) {
+            this.segmentSize = bytes;
+            return this;
+        }
+
+        public AuditLogBuilder keepSegments(int keepSegments) {
+            this.keepSegments = keepSegments;
+            return this;
+        }
+
+        public AuditLog build() throws IOException {
+            return new AuditLog(this);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package scheduler.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+ * Reads the audit log back, oldest event first, keeping the events that match every filter that is set.
+ *
+ * Safe to run against a log that is being written: a segment is read up to its first zero length, and an event
+ * whose checksum does not match ends the segment, as a torn write would after a crash. Segments deleted by the
+ * writer while the reader is on its way are skipped.
+ */
+public class AuditReader {
+
+    private final Path dir;
+    private final String user;
+    private final String command;
+    private final AuditEvent.Outcome outcome;
+    // UTC, from included, to excluded
+    private final Instant from;
+    private final Instant to;
+    private final long limit;
+
+    private AuditReader(AuditReaderBuilder builder) {
+        this.dir = builder.dir;
+        this.user = builder.user;
+        this.command = builder.command;
+        this.outcome = builder.outcome;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.limit = builder.limit;
+    }
+
+    // hands the matching events to the sink, returns how many there were
+    public long read(Consumer<AuditEvent> sink) throws IOException {
+        long count = 0;
+        CRC32 crc = new CRC32();
+        for (long number : AuditFile.segments(dir)) {
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(AuditFile.pathOf(dir, number), StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            while (segment.remaining() >= 4 && count < limit) {
+                int length = segment.getInt();
+                if (length <= 0 || length > AuditEvent.SIZE || length + 4 > segment.remaining()) {
+                    break;
+                }
+                ByteBuffer body = segment.slice();
+                body.limit(length);
+                segment.position(segment.position() + length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if (segment.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+                AuditEvent event = AuditEvent.decode(body);
+                if (matches(event)) {
+                    sink.accept(event);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean matches(AuditEvent event) {
+        return (user == null || user.equals(event.getUser()))
+                && (command == null || command.equals(event.getCommand()))
+                && (outcome == null || outcome == event.getOutcome())
+                && (from == null || !event.getTime().isBefore(from))
+                && (to == null || event.getTime().isBefore(to));
+    }
+
+    public static class AuditReaderBuilder {
+        private final Path dir;
+        private String user = null;
+        private String command = null;
+        private AuditEvent.Outcome outcome = null;
+        private Instant from = null;
+        private Instant to = null;
+        private long limit = Long.MAX_VALUE;
+
+        public AuditReaderBuilder(Path dir) {
+            this.dir = dir;
+        }
+
+        public AuditReaderBuilder user(String user) {
+            this.user = user;
+            return this;
+        }
+
+        public AuditReaderBuilder command(String command) {
+            this.command = command;
+            return this;
+        }
+
+        public AuditReaderBuilder outcome(AuditEvent.Outcome outcome) {
+            this.outcome = outcome;
+            return this;
+        }
+
+        // the first day to read, in UTC
+        public AuditReaderBuilder from(LocalDate from) {
+            this.from = from.atStartOfDay(ZoneOffset.UTC).toInstant();
+            return this;
+        }
+
+        // the last day to read, in UTC
+        public AuditReaderBuilder to(LocalDate to) {
+            this.to = to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            return this;
+        }
+
+        public AuditReaderBuilder limit(long limit) {
+            if (limit < 1) {
+                throw new IllegalArgumentException("The limit must be at least 1");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public AuditReader build() {
+            return new AuditReader(this);
+        }
+    }
+}
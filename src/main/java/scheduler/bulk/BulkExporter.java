@@ -0,0 +1,88 @@
+package scheduler.bulk;
+
+import scheduler.db.StorageEngine;
+import scheduler.db.StorageEngines;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+/*
+ * Streams every reservation or every free availability slot out of the storage engine to a CSV or NDJSON file,
+ * or to stdout for "-". Rows go straight from the engine's cursor to a buffered writer, so memory does not grow
+ * with the size of the table. The availability export has the fields the availability import reads back.
+ */
+public class BulkExporter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public enum Table {
+        RESERVATIONS,
+        AVAILABILITY;
+
+        public static Table parse(String name) {
+            for (Table table : values()) {
+                if (table.name().equalsIgnoreCase(name)) {
+                    return table;
+                }
+            }
+            throw new IllegalArgumentException("Unknown export " + name + ", expected reservations or availability");
+        }
+    }
+
+    private BulkExporter() {
+    }
+
+    // returns how many rows were written
+    public static long export(Table table, String target, Format format) throws IOException, SQLException {
+        boolean stdout = target.equals("-");
+        Writer raw = stdout ? new OutputStreamWriter(System.out) : Files.newBufferedWriter(Path.of(target));
+        BufferedWriter out = new BufferedWriter(raw, BUFFER_SIZE);
+        try {
+            StorageEngine engine = StorageEngines.getDefault();
+            long[] rows = {0};
+            try {
+                if (table == Table.RESERVATIONS) {
+                    RecordWriter writer = new RecordWriter(out, format, "id", "patient", "caregiver", "vaccine",
+                            "date");
+                    engine.streamReservations(reservation -> {
+                        write(writer, Integer.toString(reservation.getReservationId()),
+                                reservation.getPatientUsername(), reservation.getCaregiverUsername(),
+                                reservation.getVaccineName(), reservation.getDate().toString());
+                        rows[0]++;
+                    });
+                } else {
+                    RecordWriter writer = new RecordWriter(out, format, "caregiver", "date");
+                    engine.streamAvailability((caregiver, date) -> {
+                        write(writer, caregiver, date.toString());
+                        rows[0]++;
+                    });
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return rows[0];
+        } finally {
+            // stdout stays open for whatever the caller prints next
+            if (stdout) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+
+    // the engine's sinks cannot throw IOException, so it is carried out unchecked
+    private static void write(RecordWriter writer, String... values) {
+        try {
+            writer.write(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
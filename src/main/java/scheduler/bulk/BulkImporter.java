@@ -0,0 +1,422 @@
+package scheduler.bulk;
+
+import scheduler.db.StorageEngine;
+import scheduler.db.StorageEngines;
+import scheduler.db.StoredCredentials;
+import scheduler.util.CredentialHasher;
+import scheduler.util.CredentialHasher.HashParams;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Streams caregivers, patients, availability or vaccine inventory from a CSV or NDJSON file into the storage
+ * engine, for onboarding a region without one create_* command per row.
+ *
+ * The file is read a chunk of records at a time, so memory does not grow with its size. Each chunk's passwords
+ * are hashed in parallel on a fork-join pool, and the chunk is written with one bulk engine call, which is one
+ * batched transaction on SQLite, for inventory as for the other kinds; the journal engine writes a chunk of
+ * inventory as one record. After every chunk the line it ended on is written to a checkpoint file; if the import
+ * stops part way, running it again with the same checkpoint skips the lines that are already in. The checkpoint
+ * is deleted once the whole file is in.
+ *
+ * Fields, by kind:
+ *   caregivers, patients: username, password
+ *   availability: caregiver, date (yyyy-mm-dd)
+ *   inventory: vaccine, doses
+ *
+ * Users that exist already and slots that were added already are skipped, so re-importing those kinds is
+ * harmless. Inventory adds to the doses there are, so a chunk of inventory that was written just before a
+ * crash, but not checkpointed, is added twice on resume, though never in part. Rows that fail validation are
+ * reported by line number and left out; the rest of the chunk still goes in.
+ */
+public class BulkImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    // rejected rows printed in full; the rest are only counted
+    private static final int REJECTS_SHOWN = 20;
+    private static final int MAX_NAME_LENGTH = 255;
+
+    public enum Kind {
+        CAREGIVERS("username", "password"),
+        PATIENTS("username", "password"),
+        AVAILABILITY("caregiver", "date"),
+        INVENTORY("vaccine", "doses");
+
+        private final String[] fields;
+
+        Kind(String... fields) {
+            this.fields = fields;
+        }
+
+        public static Kind parse(String name) {
+            for (Kind kind : values()) {
+                if (kind.name().equalsIgnoreCase(name)) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("Unknown import kind " + name +
+                    ", expected caregivers, patients, availability or inventory");
+        }
+    }
+
+    private final Kind kind;
+    private final Path source;
+    private final Format format;
+    private final int chunkSize;
+    private final Path checkpoint;
+    private final int parallelism;
+    private final PrintStream out;
+    private final StorageEngine engine = StorageEngines.getDefault();
+
+    private long added = 0;
+    private long skipped = 0;
+    private long rejected = 0;
+
+    private BulkImporter(BulkImporterBuilder builder) {
+        this.kind = builder.kind;
+        this.source = builder.source;
+        this.format = builder.format;
+        this.chunkSize = builder.chunkSize;
+        this.checkpoint = builder.checkpoint;
+        this.parallelism = builder.parallelism;
+        this.out = builder.out;
+    }
+
+    // imports the whole file and prints a summary; a failed chunk leaves the checkpoint at the one before it
+    public void run() throws IOException, SQLException {
+        long resumeAfter = readCheckpoint();
+        if (resumeAfter > 0) {
+            out.println("Resuming after line " + resumeAfter + " from " + checkpoint);
+        }
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (BufferedReader file = Files.newBufferedReader(source);
+             RecordReader reader = RecordReader.open(file, format)) {
+            List<Row> chunk = new ArrayList<>(chunkSize);
+            while (true) {
+                Map<String, String> record;
+                try {
+                    record = reader.next();
+                } catch (IllegalArgumentException e) {
+                    if (reader.getLineNumber() > resumeAfter) {
+                        reject(reader.getLineNumber(), e.getMessage());
+                    }
+                    continue;
+                }
+                if (record == null) {
+                    break;
+                }
+                if (reader.getLineNumber() <= resumeAfter) {
+                    continue;
+                }
+                Row row = validate(reader.getLineNumber(), record);
+                if (row != null) {
+                    chunk.add(row);
+                }
+                if (chunk.size() == chunkSize) {
+                    write(chunk, pool);
+                    writeCheckpoint(reader.getLineNumber());
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                write(chunk, pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Files.deleteIfExists(checkpoint);
+        out.println("Imported " + kind.name().toLowerCase() + " from " + source + " in " +
+                (System.nanoTime() - start) / 1000000 + " ms: " + added + " added, " + skipped +
+                " already there, " + rejected + " rejected");
+    }
+
+    // Getters
+    public long getAdded() {
+        return added;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    private Row validate(long line, Map<String, String> record) {
+        String first = record.get(kind.fields[0]);
+        String second = record.get(kind.fields[1]);
+        if (first == null || first.isEmpty() || second == null || second.isEmpty()) {
+            reject(line, "needs " + kind.fields[0] + " and " + kind.fields[1]);
+            return null;
+        }
+        if (first.length() > MAX_NAME_LENGTH || first.chars().anyMatch(Character::isWhitespace)) {
+            reject(line, kind.fields[0] + " must be at most " + MAX_NAME_LENGTH + " characters with no spaces");
+            return null;
+        }
+        try {
+            switch (kind) {
+                case AVAILABILITY:
+                    return new Row(line, first, Date.valueOf(second));
+                case INVENTORY:
+                    int doses = Integer.parseInt(second);
+                    if (doses < 0) {
+                        reject(line, "doses cannot be negative");
+                        return null;
+                    }
+                    return new Row(line, first, doses);
+                default:
+                    return new Row(line, first, second);
+            }
+        } catch (IllegalArgumentException e) {
+            reject(line, "bad " + kind.fields[1] + " " + second);
+            return null;
+        }
+    }
+
+    private void write(List<Row> chunk, ForkJoinPool pool) throws SQLException {
+        int written;
+        int tried;
+        switch (kind) {
+            case CAREGIVERS:
+            case PATIENTS: {
+                Map<String, StoredCredentials> users = hash(chunk, pool);
+                tried = users.size();
+                written = kind == Kind.CAREGIVERS ? engine.addCaregivers(users) : engine.addPatients(users);
+                break;
+            }
+            case AVAILABILITY: {
+                Map<String, List<Date>> dates = new LinkedHashMap<>();
+                Set<String> unknown = new HashSet<>();
+                tried = 0;
+                for (Row row : chunk) {
+                    if (!dates.containsKey(row.name) && !unknown.contains(row.name)) {
+                        if (engine.caregiverExists(row.name)) {
+                            dates.put(row.name, new ArrayList<>());
+                        } else {
+                            unknown.add(row.name);
+                        }
+                    }
+                    if (unknown.contains(row.name)) {
+                        reject(row.line, "no caregiver " + row.name);
+                        continue;
+                    }
+                    dates.get(row.name).add(row.date);
+                    tried++;
+                }
+                written = engine.addAvailability(dates);
+                break;
+            }
+            default: {
+                // one entry per vaccine, however many rows of the chunk name it
+                Map<String, Integer> doses = new LinkedHashMap<>();
+                for (Row row : chunk) {
+                    doses.merge(row.name, row.doses, Integer::sum);
+                }
+                engine.addDoses(doses);
+                tried = chunk.size();
+                written = chunk.size();
+                break;
+            }
+        }
+        added += written;
+        skipped += tried - written;
+    }
+
+    // Hashes every password in the chunk on the pool. The first row for a username wins; later ones in the same
+    // chunk are skipped, as they would be if they came in a later chunk.
+    private Map<String, StoredCredentials> hash(List<Row> chunk, ForkJoinPool pool) {
+        Map<String, Row> unique = new LinkedHashMap<>();
+        for (Row row : chunk) {
+            if (unique.putIfAbsent(row.name, row) != null) {
+                skipped++;
+            }
+        }
+        List<Row> rows = new ArrayList<>(unique.values());
+        StoredCredentials[] credentials = new StoredCredentials[rows.size()];
+        pool.invoke(new HashTask(rows, credentials, 0, rows.size()));
+        Map<String, StoredCredentials> users = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            users.put(rows.get(i).name, credentials[i]);
+        }
+        return users;
+    }
+
+    private void reject(long line, String reason) {
+        rejected++;
+        if (rejected <= REJECTS_SHOWN) {
+            out.println("line " + line + ": " + reason);
+        } else if (rejected == REJECTS_SHOWN + 1) {
+            out.println("(further rejected lines are only counted)");
+        }
+    }
+
+    // the line to resume after, or 0 to start from the top
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(checkpoint)) {
+            properties.load(in);
+        }
+        if (!source.toAbsolutePath().toString().equals(properties.getProperty("source")) ||
+                !kind.name().equals(properties.getProperty("kind"))) {
+            throw new IllegalStateException("Checkpoint " + checkpoint + " belongs to an import of " +
+                    properties.getProperty("kind") + " from " + properties.getProperty("source"));
+        }
+        added = Long.parseLong(properties.getProperty("added", "0"));
+        skipped = Long.parseLong(properties.getProperty("skipped", "0"));
+        rejected = Long.parseLong(properties.getProperty("rejected", "0"));
+        return Long.parseLong(properties.getProperty("line"));
+    }
+
+    // written to a temporary file and moved into place, so a crash never leaves half a checkpoint
+    private void writeCheckpoint(long line) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("source", source.toAbsolutePath().toString());
+        properties.setProperty("kind", kind.name());
+        properties.setProperty("line", Long.toString(line));
+        properties.setProperty("added", Long.toString(added));
+        properties.setProperty("skipped", Long.toString(skipped));
+        properties.setProperty("rejected", Long.toString(rejected));
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp)) {
+            properties.store(writer, "bulk import checkpoint");
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Row {
+        private final long line;
+        private final String name;
+        private final String password;
+        private final Date date;
+        private final int doses;
+
+        Row(long line, String name, String password) {
+            this(line, name, password, null, 0);
+        }
+
+        Row(long line, String name, Date date) {
+            this(line, name, null, date, 0);
+        }
+
+        Row(long line, String name, int doses) {
+            this(line, name, null, null, doses);
+        }
+
+        private Row(long line, String name, String password, Date date, int doses) {
+            this.line = line;
+            this.name = name;
+            this.password = password;
+            this.date = date;
+            this.doses = doses;
+        }
+    }
+
+    // splits the rows in halves until a piece is small enough to hash on one worker
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int LEAF = 16;
+
+        private final List<Row> rows;
+        private final StoredCredentials[] credentials;
+        private final int from;
+        private final int to;
+
+        HashTask(List<Row> rows, StoredCredentials[] credentials, int from, int to) {
+            this.rows = rows;
+            this.credentials = credentials;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new HashTask(rows, credentials, from, middle), new HashTask(rows, credentials, middle, to));
+                return;
+            }
+            CredentialHasher hasher = CredentialHasher.getInstance();
+            HashParams params = hasher.getDefaultParams();
+            for (int i = from; i < to; i++) {
+                byte[] salt = hasher.generateSalt();
+                credentials[i] = new StoredCredentials(salt, hasher.hashOnCaller(rows.get(i).password, salt, params),
+                        params);
+            }
+        }
+    }
+
+    public static class BulkImporterBuilder {
+        private final Kind kind;
+        private final Path source;
+        private Format format;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private Path checkpoint;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private PrintStream out = System.out;
+
+        public BulkImporterBuilder(Kind kind, Path source) {
+            this.kind = kind;
+            this.source = source;
+            this.format = Format.ofFile(source.toString());
+            this.checkpoint = source.resolveSibling(source.getFileName() + ".checkpoint");
+        }
+
+        public BulkImporterBuilder format(Format format) {
+            this.format = format;
+            return this;
+        }
+
+        public BulkImporterBuilder chunkSize(int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("Chunk size must be at least 1");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public BulkImporterBuilder checkpoint(Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public BulkImporterBuilder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be at least 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public BulkImporterBuilder out(PrintStream out) {
+            this.out = out;
+            return this;
+        }
+
+        public BulkImporter build() {
+            return new BulkImporter(this);
+        }
+    }
+}
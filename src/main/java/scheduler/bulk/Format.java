@@ -0,0 +1,27 @@
+package scheduler.bulk;
+
+/*
+ * The file formats bulk import and export understand.
+ */
+public enum Format {
+    CSV,
+    NDJSON;
+
+    public static Format parse(String name) {
+        switch (name.toLowerCase()) {
+            case "csv":
+                return CSV;
+            case "ndjson":
+            case "jsonl":
+                return NDJSON;
+            default:
+                throw new IllegalArgumentException("Unknown format " + name + ", expected csv or ndjson");
+        }
+    }
+
+    // guesses from the file name, CSV unless it ends in .ndjson or .jsonl
+    public static Format ofFile(String file) {
+        String lower = file.toLowerCase();
+        return lower.endsWith(".ndjson") || lower.endsWith(".jsonl") ? NDJSON : CSV;
+    }
+}
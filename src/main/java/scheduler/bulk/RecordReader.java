@@ -0,0 +1,247 @@
+package scheduler.bulk;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Reads one flat record per line from a CSV file with a header row or from an NDJSON file, a line at a time, so
+ * a file of any size is read in constant memory.
+ *
+ * CSV fields may be quoted, with "" for a quote inside; a record cannot span lines. NDJSON lines must be flat
+ * objects whose values are strings, numbers, booleans or null; every value is handed back as a string, and
+ * null as a missing field. Blank lines are skipped in both.
+ */
+public abstract class RecordReader implements Closeable {
+
+    protected final BufferedReader in;
+    private long lineNumber = 0;
+
+    protected RecordReader(BufferedReader in) {
+        this.in = in;
+    }
+
+    public static RecordReader open(BufferedReader in, Format format) throws IOException {
+        return format == Format.CSV ? new Csv(in) : new Ndjson(in);
+    }
+
+    // the next record, or null at the end of the input; throws IllegalArgumentException for a malformed line
+    public Map<String, String> next() throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.isBlank());
+        return parse(line);
+    }
+
+    // the line the last record came from, counting from 1
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    protected void countHeaderLine() {
+        lineNumber++;
+    }
+
+    protected abstract Map<String, String> parse(String line);
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static class Csv extends RecordReader {
+        private final List<String> header;
+
+        Csv(BufferedReader in) throws IOException {
+            super(in);
+            String line = in.readLine();
+            if (line == null) {
+                throw new IllegalArgumentException("CSV input has no header row");
+            }
+            countHeaderLine();
+            header = split(line);
+        }
+
+        @Override
+        protected Map<String, String> parse(String line) {
+            List<String> fields = split(line);
+            if (fields.size() != header.size()) {
+                throw new IllegalArgumentException("expected " + header.size() + " fields, found " + fields.size());
+            }
+            Map<String, String> record = new LinkedHashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                record.put(header.get(i), fields.get(i));
+            }
+            return record;
+        }
+
+        private static List<String> split(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString().trim());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) {
+                throw new IllegalArgumentException("unterminated quote");
+            }
+            fields.add(field.toString().trim());
+            return fields;
+        }
+    }
+
+    private static class Ndjson extends RecordReader {
+
+        Ndjson(BufferedReader in) {
+            super(in);
+        }
+
+        @Override
+        protected Map<String, String> parse(String line) {
+            Map<String, String> record = new LinkedHashMap<>();
+            int[] pos = {skipSpace(line, 0)};
+            expect(line, pos, '{');
+            if (peek(line, pos) == '}') {
+                pos[0]++;
+            } else {
+                while (true) {
+                    String key = string(line, pos);
+                    expect(line, pos, ':');
+                    String value = value(line, pos);
+                    if (value != null) {
+                        record.put(key, value);
+                    }
+                    char c = peek(line, pos);
+                    pos[0]++;
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw new IllegalArgumentException("expected , or } at column " + pos[0]);
+                    }
+                }
+            }
+            if (skipSpace(line, pos[0]) != line.length()) {
+                throw new IllegalArgumentException("unexpected text after the object");
+            }
+            return record;
+        }
+
+        private static String value(String line, int[] pos) {
+            char c = peek(line, pos);
+            if (c == '"') {
+                return string(line, pos);
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("nested values are not supported");
+            }
+            int start = pos[0];
+            while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+                pos[0]++;
+            }
+            String literal = line.substring(start, pos[0]);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.isEmpty() || !(literal.equals("true") || literal.equals("false")
+                    || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?"))) {
+                throw new IllegalArgumentException("bad value at column " + (start + 1));
+            }
+            return literal;
+        }
+
+        private static String string(String line, int[] pos) {
+            expect(line, pos, '"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (pos[0] >= line.length()) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                char c = line.charAt(pos[0]++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos[0] >= line.length()) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                char escaped = line.charAt(pos[0]++);
+                switch (escaped) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (pos[0] + 4 > line.length()) {
+                            throw new IllegalArgumentException("bad \\u escape");
+                        }
+                        value.append((char) Integer.parseInt(line.substring(pos[0], pos[0] + 4), 16));
+                        pos[0] += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+        }
+
+        private static void expect(String line, int[] pos, char expected) {
+            if (peek(line, pos) != expected) {
+                throw new IllegalArgumentException("expected " + expected + " at column " + (pos[0] + 1));
+            }
+            pos[0]++;
+        }
+
+        // skips white space and returns the next character without consuming it, or 0 at the end of the line
+        private static char peek(String line, int[] pos) {
+            pos[0] = skipSpace(line, pos[0]);
+            return pos[0] < line.length() ? line.charAt(pos[0]) : 0;
+        }
+
+        private static int skipSpace(String line, int pos) {
+            while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package scheduler.bulk;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * Writes flat records one per line as CSV with a header row or as NDJSON, the counterpart of RecordReader.
+ * Every value is written as a string. Nothing is buffered here; hand it a BufferedWriter.
+ */
+public class RecordWriter {
+
+    private final Writer out;
+    private final Format format;
+    private final String[] fields;
+
+    public RecordWriter(Writer out, Format format, String... fields) throws IOException {
+        this.out = out;
+        this.format = format;
+        this.fields = fields;
+        if (format == Format.CSV) {
+            writeCsv(fields);
+        }
+    }
+
+    // values in the order of the fields given to the constructor
+    public void write(String... values) throws IOException {
+        if (values.length != fields.length) {
+            throw new IllegalArgumentException("Expected " + fields.length + " values, got " + values.length);
+        }
+        if (format == Format.CSV) {
+            writeCsv(values);
+            return;
+        }
+        out.write('{');
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeJsonString(fields[i]);
+            out.write(':');
+            writeJsonString(values[i]);
+        }
+        out.write("}\n");
+    }
+
+    private void writeCsv(String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = values[i];
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0 && value.strip().equals(value)) {
+                out.write(value);
+            } else {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            }
+        }
+        out.write('\n');
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,116 @@
+package scheduler.db;
+
+import java.sql.Date;
+
+// One page of a user's appointments: those with ids after a cursor, optionally within a date range, in id order.
+// An archived query reads the appointments the retention sweeper has moved out of the live ones instead.
+public class AppointmentQuery {
+    private final String username;
+    private final boolean caregiver;
+    private final int afterId;
+    private final int limit;
+    private final Date from;
+    private final Date to;
+    private final boolean archived;
+
+    private AppointmentQuery(AppointmentQueryBuilder builder) {
+        this.username = builder.username;
+        this.caregiver = builder.caregiver;
+        this.afterId = builder.afterId;
+        this.limit = builder.limit;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.archived = builder.archived;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    // true for a caregiver's appointments, false for a patient's
+    public boolean isCaregiver() {
+        return caregiver;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    // 0 for no limit
+    public int getLimit() {
+        return limit;
+    }
+
+    // null if the range is open at that end
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public boolean matches(ReservationRecord reservation) {
+        String owner = caregiver ? reservation.getCaregiverUsername() : reservation.getPatientUsername();
+        return owner.equals(username) && reservation.getReservationId() > afterId && inRange(reservation.getDate());
+    }
+
+    public boolean inRange(Date date) {
+        return (from == null || date.compareTo(from) >= 0) && (to == null || date.compareTo(to) <= 0);
+    }
+
+    public static class AppointmentQueryBuilder {
+        private final String username;
+        private final boolean caregiver;
+        private int afterId = 0;
+        private int limit = 0;
+        private Date from = null;
+        private Date to = null;
+        private boolean archived = false;
+
+        public AppointmentQueryBuilder(String username, boolean caregiver) {
+            this.username = username;
+            this.caregiver = caregiver;
+        }
+
+        public AppointmentQueryBuilder after(int afterId) {
+            this.afterId = afterId;
+            return this;
+        }
+
+        public AppointmentQueryBuilder limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("limit must not be negative");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentQueryBuilder from(Date from) {
+            this.from = from;
+            return this;
+        }
+
+        public AppointmentQueryBuilder to(Date to) {
+            this.to = to;
+            return this;
+        }
+
+        public AppointmentQueryBuilder archived(boolean archived) {
+            this.archived = archived;
+            return this;
+        }
+
+        public AppointmentQuery build() {
+            if (from != null && to != null && from.after(to)) {
+                throw new IllegalArgumentException("from must not be after to");
+            }
+            return new AppointmentQuery(this);
+        }
+    }
+}
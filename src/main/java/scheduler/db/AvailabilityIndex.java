@@ -0,0 +1,240 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * In-memory copy of the Availabilities table.
+ *
+ * It is read from the storage engine once, on first use, and then kept up to date by the engine: SqliteEngine
+ * adds uploads once their write has committed and takes a reserved caregiver out from inside the writer's
+ * transaction, and InMemoryEngine keeps no other copy at all. Searches are answered from here without touching
+ * the database, and reserve finds the first free caregiver for a date in O(log n).
+ *
+ * Alongside the sets it keeps a count of free caregivers per date, changed only when a set really gains or loses
+ * a caregiver, so every upload, reservation and cancel keeps it current. A range of dates is counted by walking
+ * those counters rather than sizing each set, which for a ConcurrentSkipListSet means walking the whole set.
+ *
+ * Each caregiver's free dates are a DayBitmap, a few bytes per caregiver-year instead of a skip list node and a
+ * LocalDate per row. A bitmap is replaced, never changed, so readers take one without locking; unions and
+ * intersections across caregivers and the first free day after a date come straight off the bitmaps.
+ *
+ * add and remove change the date's set, the caregiver's bitmap and the date's count inside one compute on the
+ * caregiver's entry, so changes for one caregiver are applied one at a time and the three never disagree about
+ * that caregiver once a change is done.
+ */
+public class AvailabilityIndex {
+
+    private static volatile AvailabilityIndex instance = null;
+
+    // date -> caregivers free on that date, in username order
+    private final ConcurrentSkipListMap<LocalDate, ConcurrentSkipListSet<String>> caregiversByDate =
+            new ConcurrentSkipListMap<>();
+    // caregiver -> dates that caregiver is free; a caregiver with none has no entry
+    private final ConcurrentMap<String, DayBitmap> datesByCaregiver = new ConcurrentHashMap<>();
+    // date -> how many caregivers are free on that date; a reader may see it briefly lag a set mid-change
+    private final ConcurrentSkipListMap<LocalDate, AtomicInteger> freeByDate = new ConcurrentSkipListMap<>();
+
+    public static AvailabilityIndex getInstance() throws SQLException {
+        AvailabilityIndex index = instance;
+        if (index == null) {
+            // an engine that keeps availability only in memory installs its own index when it is created, so get
+            // the engine first, and outside our lock since creating it may need that lock
+            StorageEngine engine = StorageEngines.getDefault();
+            synchronized (AvailabilityIndex.class) {
+                index = instance;
+                if (index == null) {
+                    index = new AvailabilityIndex();
+                    engine.loadAvailability(index::add);
+                    instance = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    // replaces the shared index with an empty one, for engines where the index is the only copy of availability
+    static synchronized AvailabilityIndex installEmpty() {
+        AvailabilityIndex index = new AvailabilityIndex();
+        instance = index;
+        return index;
+    }
+
+    // returns false if the caregiver was already free on the date
+    public boolean add(String caregiver, Date date) {
+        return add(caregiver, date.toLocalDate());
+    }
+
+    public boolean remove(String caregiver, Date date) {
+        return remove(caregiver, date.toLocalDate());
+    }
+
+    public boolean isAvailable(String caregiver, Date date) {
+        ConcurrentSkipListSet<String> caregivers = caregiversByDate.get(date.toLocalDate());
+        return caregivers != null && caregivers.contains(caregiver);
+    }
+
+    // the first free caregiver on the date in username order, or null if there is none
+    public String firstCaregiverOn(Date date) {
+        ConcurrentSkipListSet<String> caregivers = caregiversByDate.get(date.toLocalDate());
+        return caregivers == null ? null : caregivers.ceiling("");
+    }
+
+    // the first free caregiver on the date after the given one in username order, or null
+    public String nextCaregiverOn(Date date, String after) {
+        ConcurrentSkipListSet<String> caregivers = caregiversByDate.get(date.toLocalDate());
+        return caregivers == null ? null : caregivers.higher(after);
+    }
+
+    public SortedSet<String> caregiversOn(Date date) {
+        ConcurrentSkipListSet<String> caregivers = caregiversByDate.get(date.toLocalDate());
+        if (caregivers == null) {
+            return Collections.emptySortedSet();
+        }
+        return Collections.unmodifiableSortedSet(new TreeSet<>(caregivers));
+    }
+
+    public int freeCountOn(Date date) {
+        AtomicInteger free = freeByDate.get(date.toLocalDate());
+        return free == null ? 0 : Math.max(0, free.get());
+    }
+
+    // how many caregivers are free on each date from from to to, both included; dates with none are left out
+    public SortedMap<LocalDate, Integer> freeCountsBetween(Date from, Date to) {
+        SortedMap<LocalDate, Integer> counts = new TreeMap<>();
+        for (Map.Entry<LocalDate, AtomicInteger> day :
+                freeByDate.subMap(from.toLocalDate(), true, to.toLocalDate(), true).entrySet()) {
+            int free = day.getValue().get();
+            if (free > 0) {
+                counts.put(day.getKey(), free);
+            }
+        }
+        return counts;
+    }
+
+    // the first date on or after from with at least min caregivers free, or null if there is none
+    public LocalDate firstDateWith(int min, Date from) {
+        for (Map.Entry<LocalDate, AtomicInteger> day : freeByDate.tailMap(from.toLocalDate(), true).entrySet()) {
+            if (day.getValue().get() >= min) {
+                return day.getKey();
+            }
+        }
+        return null;
+    }
+
+    public SortedSet<Date> datesFor(String caregiver) {
+        SortedSet<Date> result = new TreeSet<>();
+        freeDays(caregiver).forEach(date -> result.add(Date.valueOf(date)));
+        return Collections.unmodifiableSortedSet(result);
+    }
+
+    public DayBitmap freeDays(String caregiver) {
+        return datesByCaregiver.getOrDefault(caregiver, DayBitmap.EMPTY);
+    }
+
+    // the days on which any of the caregivers is free
+    public DayBitmap anyFree(Collection<String> caregivers) {
+        DayBitmap days = DayBitmap.EMPTY;
+        for (String caregiver : caregivers) {
+            days = days.or(freeDays(caregiver));
+        }
+        return days;
+    }
+
+    // the days on which every one of the caregivers is free
+    public DayBitmap allFree(Collection<String> caregivers) {
+        DayBitmap days = null;
+        for (String caregiver : caregivers) {
+            days = days == null ? freeDays(caregiver) : days.and(freeDays(caregiver));
+            if (days.isEmpty()) {
+                break;
+            }
+        }
+        return days == null ? DayBitmap.EMPTY : days;
+    }
+
+    public String getStats() {
+        long caregivers = 0;
+        long days = 0;
+        long bytes = 0;
+        for (DayBitmap bitmap : datesByCaregiver.values()) {
+            caregivers++;
+            days += bitmap.cardinality();
+            bytes += bitmap.sizeInBytes();
+        }
+        return "availability: " + caregivers + " caregivers, " + days + " free days, " + bytes +
+                " bytes of day bitmaps" + (days == 0 ? "" : ", " + bytes * 365 / days + " bytes per 365 free days");
+    }
+
+    // every free caregiver and date, one caregiver at a time
+    public void forEach(BiConsumer<String, LocalDate> consumer) {
+        for (Map.Entry<String, DayBitmap> entry : datesByCaregiver.entrySet()) {
+            entry.getValue().forEach(date -> consumer.accept(entry.getKey(), date));
+        }
+    }
+
+    // up to limit free slots dated before the given date, oldest first, by caregiver
+    public Map<String, List<Date>> slotsBefore(Date before, int limit) {
+        Map<String, List<Date>> slots = new LinkedHashMap<>();
+        int count = 0;
+        for (Map.Entry<LocalDate, ConcurrentSkipListSet<String>> day :
+                caregiversByDate.headMap(before.toLocalDate(), false).entrySet()) {
+            for (String caregiver : day.getValue()) {
+                if (count++ == limit) {
+                    return slots;
+                }
+                slots.computeIfAbsent(caregiver, k -> new ArrayList<>()).add(Date.valueOf(day.getKey()));
+            }
+        }
+        return slots;
+    }
+
+    private boolean add(String caregiver, LocalDate date) {
+        boolean[] added = {false};
+        datesByCaregiver.compute(caregiver, (k, days) -> {
+            added[0] = caregiversByDate.computeIfAbsent(date, d -> new ConcurrentSkipListSet<>()).add(caregiver);
+            if (!added[0]) {
+                return days;
+            }
+            freeByDate.computeIfAbsent(date, d -> new AtomicInteger()).incrementAndGet();
+            return (days == null ? DayBitmap.EMPTY : days).with(date);
+        });
+        return added[0];
+    }
+
+    private boolean remove(String caregiver, LocalDate date) {
+        boolean[] removed = {false};
+        // compute rather than computeIfPresent, so a remove waits for an add of the same caregiver in progress
+        datesByCaregiver.compute(caregiver, (k, days) -> {
+            ConcurrentSkipListSet<String> caregivers = caregiversByDate.get(date);
+            removed[0] = caregivers != null && caregivers.remove(caregiver);
+            if (!removed[0]) {
+                return days;
+            }
+            freeByDate.get(date).decrementAndGet();
+            // a caregiver's last date takes the entry with it
+            DayBitmap left = days.without(date);
+            return left.isEmpty() ? null : left;
+        });
+        // empty sets and zero counts are left in place; removing them would race with a concurrent add for the
+        // same date by another caregiver
+        return removed[0];
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.db;
+
+import java.sql.Date;
+
+// One reserve a storage engine should attempt as part of a batch, see StorageEngine.reserveAll
+public class BookingRequest {
+    private final String patientUsername;
+    private final Date date;
+    private final String vaccineName;
+
+    public BookingRequest(String patientUsername, Date date, String vaccineName) {
+        this.patientUsername = patientUsername;
+        this.date = date;
+        this.vaccineName = vaccineName;
+    }
+
+    // Getters
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+}
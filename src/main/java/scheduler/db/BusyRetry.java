@@ -0,0 +1,55 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Re-runs a unit of database work when SQLite reports the database as busy or locked.
+ *
+ * The work is expected to be a complete transaction that has rolled itself back before the exception escapes,
+ * so running it again is safe. Backoff is exponential with full jitter and the number of attempts is bounded.
+ */
+public class BusyRetry {
+
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long BASE_DELAY_MILLIS = 5;
+    private static final long MAX_DELAY_MILLIS = 200;
+
+    // SQLite primary result codes
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    public interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    public static <T> T run(Work<T> work) throws SQLException {
+        long delay = BASE_DELAY_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.run();
+            } catch (SQLException e) {
+                if (!isBusy(e) || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delay + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while retrying a busy database", e);
+            }
+            delay = Math.min(delay * 2, MAX_DELAY_MILLIS);
+        }
+    }
+
+    public static boolean isBusy(SQLException e) {
+        // extended result codes keep the primary code in the low byte
+        int code = e.getErrorCode() & 0xff;
+        if (code == SQLITE_BUSY || code == SQLITE_LOCKED) {
+            return true;
+        }
+        String message = e.getMessage();
+        return message != null && (message.contains("SQLITE_BUSY") || message.contains("SQLITE_LOCKED"));
+    }
+}
@@ -0,0 +1,282 @@
+package scheduler.db;
+
+import scheduler.util.LookupCache;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+ * Answers user and vaccine lookups from memory in front of an engine whose reads each cost a database round trip.
+ *
+ * Caregivers and patients are cached by username, whether they exist or not, so the existence check before a
+ * create, the login that follows it and every later login are one query between them. Each vaccine's doses are
+ * cached by name, and the list of names once, so the whole inventory is put together from memory. Every write
+ * through this engine updates or drops only what it touches: adding a user stores it, and anything that changes
+ * doses, including reserve and cancel, drops the doses of the vaccines it booked or released, leaving the rest.
+ * Writes made by another process are only seen once an entry's time to live runs out.
+ *
+ * Whether a dose or a slot is really free is still decided by the engine underneath, inside its transaction;
+ * the caches only serve reads.
+ */
+public class CachingEngine implements StorageEngine {
+
+    private static final String ALL = "all";
+
+    private final StorageEngine engine;
+    private final LookupCache<String, StoredCredentials> caregivers;
+    private final LookupCache<String, StoredCredentials> patients;
+    private final LookupCache<String, Integer> doses;
+    private final LookupCache<String, List<String>> vaccineNames;
+
+    public CachingEngine(StorageEngine engine, int maxUsers, long ttlNanos) {
+        this.engine = engine;
+        this.caregivers = new LookupCache<>("caregivers", maxUsers, ttlNanos);
+        this.patients = new LookupCache<>("patients", maxUsers, ttlNanos);
+        this.doses = new LookupCache<>("vaccines", maxUsers, ttlNanos);
+        this.vaccineNames = new LookupCache<>("vaccine_names", 1, ttlNanos);
+    }
+
+    @Override
+    public List<String> migrate() throws SQLException {
+        return engine.migrate();
+    }
+
+    @Override
+    public void addCaregiver(String username, StoredCredentials credentials) throws SQLException {
+        addUser(caregivers, username, credentials, () -> engine.addCaregiver(username, credentials));
+    }
+
+    @Override
+    public StoredCredentials getCaregiver(String username) throws SQLException {
+        return caregivers.get(username, engine::getCaregiver);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        // the whole row, not just a yes or no, so a login right after finds it cached
+        return getCaregiver(username) != null;
+    }
+
+    @Override
+    public void addPatient(String username, StoredCredentials credentials) throws SQLException {
+        addUser(patients, username, credentials, () -> engine.addPatient(username, credentials));
+    }
+
+    @Override
+    public int addCaregivers(Map<String, StoredCredentials> users) throws SQLException {
+        try {
+            return engine.addCaregivers(users);
+        } finally {
+            // users that were there already were skipped and keep their old credentials, so drop rather than store
+            for (String username : users.keySet()) {
+                caregivers.invalidate(username);
+            }
+        }
+    }
+
+    @Override
+    public int addPatients(Map<String, StoredCredentials> users) throws SQLException {
+        try {
+            return engine.addPatients(users);
+        } finally {
+            for (String username : users.keySet()) {
+                patients.invalidate(username);
+            }
+        }
+    }
+
+    @Override
+    public StoredCredentials getPatient(String username) throws SQLException {
+        return patients.get(username, engine::getPatient);
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return getPatient(username) != null;
+    }
+
+    @Override
+    public void addVaccine(String name, int doses) throws SQLException {
+        try {
+            engine.addVaccine(name, doses);
+        } finally {
+            this.doses.invalidate(name);
+            vaccineNames.invalidate(ALL);
+        }
+    }
+
+    @Override
+    public Integer getDoses(String name) throws SQLException {
+        return doses.get(name, engine::getDoses);
+    }
+
+    @Override
+    public SortedMap<String, Integer> getAllDoses() throws SQLException {
+        List<String> names = vaccineNames.get(ALL,
+                k -> Collections.unmodifiableList(new ArrayList<>(engine.getAllDoses().keySet())));
+        SortedMap<String, Integer> all = new TreeMap<>();
+        for (String name : names) {
+            Integer left = getDoses(name);
+            if (left != null) {
+                all.put(name, left);
+            }
+        }
+        return Collections.unmodifiableSortedMap(all);
+    }
+
+    @Override
+    public void increaseDoses(String name, int num) throws SQLException {
+        try {
+            engine.increaseDoses(name, num);
+        } finally {
+            doses.invalidate(name);
+        }
+    }
+
+    @Override
+    public void decreaseDoses(String name, int num) throws SQLException {
+        try {
+            engine.decreaseDoses(name, num);
+        } finally {
+            doses.invalidate(name);
+        }
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> dosesByVaccine) throws SQLException {
+        try {
+            engine.addDoses(dosesByVaccine);
+        } finally {
+            for (String name : dosesByVaccine.keySet()) {
+                doses.invalidate(name);
+            }
+            vaccineNames.invalidate(ALL);
+        }
+    }
+
+    @Override
+    public void loadAvailability(BiConsumer<String, LocalDate> sink) throws SQLException {
+        engine.loadAvailability(sink);
+    }
+
+    @Override
+    public void addAvailability(String caregiver, Date date) throws SQLException {
+        engine.addAvailability(caregiver, date);
+    }
+
+    @Override
+    public List<Date> addAvailability(String caregiver, List<Date> dates) throws SQLException {
+        return engine.addAvailability(caregiver, dates);
+    }
+
+    @Override
+    public int addAvailability(Map<String, List<Date>> datesByCaregiver) throws SQLException {
+        return engine.addAvailability(datesByCaregiver);
+    }
+
+    @Override
+    public void streamAvailability(BiConsumer<String, LocalDate> sink) throws SQLException {
+        engine.streamAvailability(sink);
+    }
+
+    @Override
+    public ReservationRecord reserve(String patient, Date date, String vaccine) throws SQLException {
+        try {
+            return engine.reserve(patient, date, vaccine);
+        } finally {
+            doses.invalidate(vaccine);
+        }
+    }
+
+    @Override
+    public List<ReservationRecord> reserveAll(List<BookingRequest> requests) throws SQLException {
+        try {
+            return engine.reserveAll(requests);
+        } finally {
+            for (BookingRequest request : requests) {
+                doses.invalidate(request.getVaccineName());
+            }
+        }
+    }
+
+    @Override
+    public ReservationRecord cancel(int reservationId, String username, boolean caregiver) throws SQLException {
+        ReservationRecord cancelled;
+        try {
+            cancelled = engine.cancel(reservationId, username, caregiver);
+        } catch (SQLException | RuntimeException e) {
+            // which vaccine the appointment was for is not known here; if a dose went back, it was one of these
+            doses.invalidateAll();
+            throw e;
+        }
+        if (cancelled != null) {
+            doses.invalidate(cancelled.getVaccineName());
+        }
+        return cancelled;
+    }
+
+    @Override
+    public CancelDayResult cancelDay(String caregiver, Date date) throws SQLException {
+        CancelDayResult result;
+        try {
+            result = engine.cancelDay(caregiver, date);
+        } catch (SQLException | RuntimeException e) {
+            doses.invalidateAll();
+            throw e;
+        }
+        // rebooked appointments keep their dose and released ones give it back; drop both kinds of vaccine
+        for (ReservationRecord reservation : result.getRebooked()) {
+            doses.invalidate(reservation.getVaccineName());
+        }
+        for (ReservationRecord reservation : result.getReleased()) {
+            doses.invalidate(reservation.getVaccineName());
+        }
+        return result;
+    }
+
+    @Override
+    public int streamAppointments(AppointmentQuery query, Consumer<ReservationRecord> sink) throws SQLException {
+        return engine.streamAppointments(query, sink);
+    }
+
+    @Override
+    public void streamReservations(Consumer<ReservationRecord> sink) throws SQLException {
+        engine.streamReservations(sink);
+    }
+
+    @Override
+    public int archiveReservations(Date before, int limit) throws SQLException {
+        // archived appointments keep their doses, so the cached doses stay right
+        return engine.archiveReservations(before, limit);
+    }
+
+    @Override
+    public int purgeAvailability(Date before, int limit) throws SQLException {
+        return engine.purgeAvailability(before, limit);
+    }
+
+    private interface Write {
+        void run() throws SQLException;
+    }
+
+    // a user that was added is stored as is; if the add failed, what is cached for the name may be wrong
+    private static void addUser(LookupCache<String, StoredCredentials> cache, String username,
+                                StoredCredentials credentials, Write add) throws SQLException {
+        try {
+            add.run();
+        } catch (SQLException | RuntimeException e) {
+            cache.invalidate(username);
+            throw e;
+        }
+        cache.put(username, credentials);
+    }
+}
@@ -0,0 +1,25 @@
+package scheduler.db;
+
+import java.util.List;
+
+// What cancel_day did with a caregiver's appointments on the date
+public class CancelDayResult {
+    private final List<ReservationRecord> rebooked;
+    private final List<ReservationRecord> released;
+
+    public CancelDayResult(List<ReservationRecord> rebooked, List<ReservationRecord> released) {
+        this.rebooked = rebooked;
+        this.released = released;
+    }
+
+    // Getters
+    // the appointments moved to another caregiver on the same date, each with its new caregiver and its old id
+    public List<ReservationRecord> getRebooked() {
+        return rebooked;
+    }
+
+    // the appointments cancelled outright, whose doses went back to the inventory
+    public List<ReservationRecord> getReleased() {
+        return released;
+    }
+}
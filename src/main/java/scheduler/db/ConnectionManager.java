@@ -0,0 +1,142 @@
+package scheduler.db;
+
+import scheduler.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class ConnectionManager {
+
+    private static final String driverName = "org.sqlite.JDBC";
+    // a DBPath system property set before the first connection wins over the environment, so a forked benchmark
+    // JVM can point itself at its own database
+    private static final String connectionUrl = "jdbc:sqlite:" + System.getProperty("DBPath", System.getenv("DBPath"));
+
+    // pool settings, overridable through the environment like DBPath
+    private static final int poolSize = intFromEnv("DBPoolSize", 8);
+    private static final long idleTimeoutMillis = intFromEnv("DBPoolIdleTimeoutMs", 5 * 60 * 1000);
+    private static final long validationIntervalMillis = intFromEnv("DBPoolValidationIntervalMs", 30 * 1000);
+    private static final long acquireTimeoutMillis = intFromEnv("DBPoolAcquireTimeoutMs", 30 * 1000);
+    private static final int statementCacheSize = intFromEnv("DBStatementCacheSize", 32);
+
+    // group commit settings for DatabaseWriter
+    private static final int writeBatchSize = intFromEnv("DBWriteBatchSize", 64);
+    private static final int writeMaxDelayMicros = intFromEnv("DBWriteMaxDelayUs", 1000);
+
+    private static volatile ConnectionPool defaultPool = null;
+
+    static {
+        try {
+            Class.forName(driverName);
+        } catch (ClassNotFoundException e) {
+            System.out.println(e.toString());
+        }
+    }
+
+    private final ConnectionPool pool;
+    private ConnectionPool.Lease lease = null;
+
+    public ConnectionManager() {
+        this(getDefaultPool());
+    }
+
+    public ConnectionManager(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    // leases a pooled connection; it stays with this manager until closeConnection() is called
+    public Connection createConnection() {
+        try {
+            if (lease == null) {
+                lease = pool.acquire();
+            }
+            return lease.getConnection();
+        } catch (SQLException e) {
+            Metrics.countError(e);
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // returns a cached prepared statement on the leased connection, do not close it
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        if (lease == null) {
+            createConnection();
+        }
+        if (lease == null) {
+            throw new SQLException("No database connection available");
+        }
+        return lease.prepareStatement(sql);
+    }
+
+    // closes the cursors left open on the leased connection, for a manager that keeps its lease across transactions;
+    // a connection that cannot be cleaned up goes back to the pool, which discards it
+    public void closeCursors() {
+        if (lease == null) {
+            return;
+        }
+        try {
+            lease.closeCursors();
+        } catch (SQLException e) {
+            Metrics.countError(e);
+            closeConnection();
+        }
+    }
+
+    // hands the connection back to the pool
+    public void closeConnection() {
+        if (lease != null) {
+            lease.release();
+            lease = null;
+        }
+    }
+
+    public static ConnectionPool getDefaultPool() {
+        ConnectionPool pool = defaultPool;
+        if (pool == null) {
+            synchronized (ConnectionManager.class) {
+                pool = defaultPool;
+                if (pool == null) {
+                    pool = newReadPool(connectionUrl);
+                    defaultPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    // a reader pool with the DBPool* settings, for another database file such as a shard
+    public static ConnectionPool newReadPool(String connectionUrl) {
+        ConnectionPool pool = new ConnectionPool(connectionUrl, poolSize, idleTimeoutMillis, validationIntervalMillis,
+                acquireTimeoutMillis, statementCacheSize);
+        // all writes go through DatabaseWriter, so the pool only hands out read-only WAL readers
+        pool.setInitStatements("PRAGMA journal_mode=WAL", "PRAGMA query_only=1");
+        return pool;
+    }
+
+    public static ConnectionPool.Stats getPoolStats() {
+        return getDefaultPool().getStats();
+    }
+
+    public static int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public static int getWriteMaxDelayMicros() {
+        return writeMaxDelayMicros;
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
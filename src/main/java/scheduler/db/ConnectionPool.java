@@ -0,0 +1,420 @@
+package scheduler.db;
+
+import scheduler.util.Histogram;
+import scheduler.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A small bounded pool of JDBC connections.
+ *
+ * At most maxSize connections are ever open. A caller leases one with acquire() and hands it back with
+ * Lease.release(); idle connections are kept most-recently-used first so the hot ones stay warm, and the
+ * ones left at the tail past the idle timeout are closed. Each pooled connection keeps its own LRU cache
+ * of prepared statements, so repeated commands skip SQL parsing as well as connection setup.
+ */
+public class ConnectionPool {
+
+    private final String connectionUrl;
+    private final Properties connectionProperties;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final long validationIntervalNanos;
+    private final long acquireTimeoutMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private volatile List<String> initStatements = new ArrayList<>();
+
+    // acquire-wait metrics
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final Histogram acquireTimes = Metrics.histogram("db.acquire");
+    private final Histogram openTimes = Metrics.histogram("db.open");
+
+    public ConnectionPool(String connectionUrl, int maxSize, long idleTimeoutMillis, long validationIntervalMillis,
+                          long acquireTimeoutMillis, int statementCacheSize) {
+        this(connectionUrl, new Properties(), maxSize, idleTimeoutMillis, validationIntervalMillis,
+                acquireTimeoutMillis, statementCacheSize);
+    }
+
+    public ConnectionPool(String connectionUrl, Properties connectionProperties, int maxSize, long idleTimeoutMillis,
+                          long validationIntervalMillis, long acquireTimeoutMillis, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive!");
+        }
+        this.connectionUrl = connectionUrl;
+        this.connectionProperties = connectionProperties;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public String getConnectionUrl() {
+        return connectionUrl;
+    }
+
+    // statements run once on every newly opened connection, e.g. PRAGMAs
+    public void setInitStatements(String... sql) {
+        this.initStatements = new ArrayList<>(Arrays.asList(sql));
+    }
+
+    public Lease acquire() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pc;
+            while ((pc = pollIdle()) != null) {
+                if (isUsable(pc)) {
+                    acquireTimes.record(System.nanoTime() - start);
+                    return new Lease(pc);
+                }
+                pc.close();
+            }
+            Lease lease = new Lease(open());
+            acquireTimes.record(System.nanoTime() - start);
+            return lease;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // closes every idle connection; leased connections are closed as they come back
+    public void close() {
+        List<PooledConnection> drained;
+        synchronized (idle) {
+            drained = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pc : drained) {
+            pc.close();
+        }
+    }
+
+    public Stats getStats() {
+        int idleCount;
+        synchronized (idle) {
+            idleCount = idle.size();
+        }
+        return new Stats(maxSize, maxSize - permits.availablePermits(), idleCount, acquisitions.sum(),
+                totalWaitNanos.sum(), maxWaitNanos.get(), timeouts.sum(), opened.sum(), evicted.sum(),
+                validationFailures.sum(), statementHits.sum(), statementMisses.sum());
+    }
+
+    private PooledConnection pollIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        long idleFor = System.nanoTime() - pc.lastUsedNanos;
+        if (idleFor > idleTimeoutNanos) {
+            evicted.increment();
+            return false;
+        }
+        if (idleFor > validationIntervalNanos) {
+            try {
+                if (!pc.con.isValid(1)) {
+                    validationFailures.increment();
+                    return false;
+                }
+            } catch (SQLException e) {
+                validationFailures.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private PooledConnection open() throws SQLException {
+        long start = System.nanoTime();
+        Connection con = DriverManager.getConnection(connectionUrl, connectionProperties);
+        try (Statement statement = con.createStatement()) {
+            for (String sql : initStatements) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+        opened.increment();
+        openTimes.record(System.nanoTime() - start);
+        return new PooledConnection(con);
+    }
+
+    private void giveBack(PooledConnection pc) {
+        try {
+            if (pc.reset()) {
+                pc.lastUsedNanos = System.nanoTime();
+                List<PooledConnection> expired = new ArrayList<>();
+                synchronized (idle) {
+                    idle.addFirst(pc);
+                    // the tail holds the connections that have been idle longest
+                    Iterator<PooledConnection> it = idle.descendingIterator();
+                    while (it.hasNext()) {
+                        PooledConnection tail = it.next();
+                        if (pc.lastUsedNanos - tail.lastUsedNanos <= idleTimeoutNanos) {
+                            break;
+                        }
+                        it.remove();
+                        expired.add(tail);
+                    }
+                }
+                for (PooledConnection e : expired) {
+                    evicted.increment();
+                    e.close();
+                }
+            } else {
+                pc.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        acquisitions.increment();
+        totalWaitNanos.add(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private class PooledConnection {
+        private final Connection con;
+        private final Map<String, PreparedStatement> statements;
+        // the statements handed out since the last reset, each once however often it was prepared
+        private final Set<PreparedStatement> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long lastUsedNanos = System.nanoTime();
+
+        PooledConnection(Connection con) {
+            this.con = con;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        PreparedStatement prepareStatement(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statementMisses.increment();
+                statement = TimedStatement.wrap(con.prepareStatement(sql), sql);
+                statements.put(sql, statement);
+            } else {
+                statementHits.increment();
+                statement.clearParameters();
+            }
+            used.add(statement);
+            return statement;
+        }
+
+        // an open cursor keeps SQLite's read lock, so close whatever the caller left behind
+        void closeCursors() throws SQLException {
+            for (PreparedStatement statement : used) {
+                TimedStatement.closeResult(statement);
+            }
+            used.clear();
+        }
+
+        // puts the connection back into a clean state, returns false if it should be discarded instead
+        boolean reset() {
+            try {
+                closeCursors();
+                if (con.isClosed()) {
+                    return false;
+                }
+                if (!con.getAutoCommit()) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                con.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // A lease on one pooled connection; release() may safely be called more than once
+    public class Lease {
+        private PooledConnection pc;
+
+        private Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        public Connection getConnection() {
+            checkActive();
+            return pc.con;
+        }
+
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            checkActive();
+            return pc.prepareStatement(sql);
+        }
+
+        // closes the cursors left open on the connection, for a lease that is held across transactions
+        public void closeCursors() throws SQLException {
+            checkActive();
+            pc.closeCursors();
+        }
+
+        public void release() {
+            if (pc != null) {
+                PooledConnection released = pc;
+                pc = null;
+                giveBack(released);
+            }
+        }
+
+        private void checkActive() {
+            if (pc == null) {
+                throw new IllegalStateException("Connection lease already released!");
+            }
+        }
+    }
+
+    public static class Stats {
+        private final int maxSize;
+        private final int leased;
+        private final int idle;
+        private final long acquisitions;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long timeouts;
+        private final long opened;
+        private final long evicted;
+        private final long validationFailures;
+        private final long statementHits;
+        private final long statementMisses;
+
+        private Stats(int maxSize, int leased, int idle, long acquisitions, long totalWaitNanos, long maxWaitNanos,
+                      long timeouts, long opened, long evicted, long validationFailures, long statementHits,
+                      long statementMisses) {
+            this.maxSize = maxSize;
+            this.leased = leased;
+            this.idle = idle;
+            this.acquisitions = acquisitions;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.opened = opened;
+            this.evicted = evicted;
+            this.validationFailures = validationFailures;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        public int getLeased() {
+            return leased;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getMeanWaitNanos() {
+            return acquisitions == 0 ? 0 : totalWaitNanos / acquisitions;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getOpened() {
+            return opened;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionPool{" +
+                    "leased=" + leased + "/" + maxSize +
+                    ", idle=" + idle +
+                    ", acquisitions=" + acquisitions +
+                    ", meanWaitMicros=" + getMeanWaitNanos() / 1000 +
+                    ", maxWaitMicros=" + maxWaitNanos / 1000 +
+                    ", timeouts=" + timeouts +
+                    ", opened=" + opened +
+                    ", evicted=" + evicted +
+                    ", validationFailures=" + validationFailures +
+                    ", statementHits=" + statementHits +
+                    ", statementMisses=" + statementMisses +
+                    '}';
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // nothing useful to do with a statement we are discarding anyway
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package scheduler.db;
+
+import scheduler.util.Histogram;
+import scheduler.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The one thread that writes to the database.
+ *
+ * SQLite only ever lets one connection write, so instead of every caller opening its own transaction and
+ * fighting over the lock, callers submit WriteOperations here and get a future back. The writer thread takes
+ * whatever has queued up (at most maxBatchSize operations, waiting at most maxDelay for more to arrive) and
+ * applies the whole group inside a single BEGIN IMMEDIATE ... COMMIT, so a group pays for one fsync.
+ *
+ * Every operation runs inside its own savepoint: an operation that throws is rolled back on its own and its
+ * future fails, without affecting the rest of the group. Futures complete only after the group has committed.
+ * Operations must only touch the database, since a busy database makes the writer re-run the whole group.
+ */
+public class DatabaseWriter {
+
+    public interface WriteOperation<T> {
+        T apply(ConnectionManager cm) throws SQLException;
+    }
+
+    private static volatile DatabaseWriter defaultWriter = null;
+
+    private final ConnectionPool pool;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    // written under lifecycle, so a submit that saw it true has queued its write before close() can stop the writer
+    private final Object lifecycle = new Object();
+    private volatile boolean running = true;
+    private final Histogram groupTimes = Metrics.histogram("db.write_group");
+    private final Histogram commitTimes = Metrics.histogram("db.commit");
+
+    public DatabaseWriter(String connectionUrl, int maxBatchSize, long maxDelayMicros) {
+        this(connectionUrl, maxBatchSize, maxDelayMicros, "database-writer");
+    }
+
+    public DatabaseWriter(String connectionUrl, int maxBatchSize, long maxDelayMicros, String threadName) {
+        this.pool = new ConnectionPool(connectionUrl, 1, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2,
+                30 * 1000, 64);
+        this.pool.setInitStatements("PRAGMA journal_mode=WAL", "PRAGMA busy_timeout=5000");
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public static DatabaseWriter getDefault() {
+        DatabaseWriter writer = defaultWriter;
+        if (writer == null) {
+            synchronized (DatabaseWriter.class) {
+                writer = defaultWriter;
+                if (writer == null) {
+                    writer = new DatabaseWriter(ConnectionManager.getDefaultPool().getConnectionUrl(),
+                            ConnectionManager.getWriteBatchSize(), ConnectionManager.getWriteMaxDelayMicros());
+                    defaultWriter = writer;
+                }
+            }
+        }
+        return writer;
+    }
+
+    public <T> CompletableFuture<T> submit(WriteOperation<T> operation) {
+        PendingWrite<T> pending = new PendingWrite<>(operation);
+        synchronized (lifecycle) {
+            if (running) {
+                queue.add(pending);
+                return pending.future;
+            }
+        }
+        pending.future.completeExceptionally(new SQLException("Database writer is closed"));
+        return pending.future;
+    }
+
+    // submits the operation and waits for its group to commit
+    public <T> T execute(WriteOperation<T> operation) throws SQLException {
+        try {
+            return submit(operation).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a write", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    // stops taking new work, finishes what is queued and closes the connection
+    public void close() {
+        synchronized (lifecycle) {
+            running = false;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // nothing is queued after running went false; fail whatever the writer did not get to, e.g. if it died,
+        // rather than leave its caller waiting forever
+        List<PendingWrite<?>> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (PendingWrite<?> pending : left) {
+            pending.future.completeExceptionally(new SQLException("Database writer is closed"));
+        }
+        pool.close();
+    }
+
+    private void run() {
+        ConnectionManager cm = new ConnectionManager(pool);
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                // close() interrupts us; drain whatever is left without waiting
+                queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                BusyRetry.run(() -> applyBatch(cm, batch));
+                groupTimes.record(System.nanoTime() - start);
+                for (PendingWrite<?> pending : batch) {
+                    pending.complete();
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (e instanceof SQLException) {
+                    Metrics.countError((SQLException) e);
+                }
+                for (PendingWrite<?> pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+                // a broken connection is discarded by the pool and a fresh one leased for the next group
+                cm.closeConnection();
+            }
+            // the writer keeps its lease for good, so the pool never resets it; clean up after every group instead
+            cm.closeCursors();
+            batch.clear();
+        }
+        cm.closeConnection();
+    }
+
+    private void collect(List<PendingWrite<?>> batch) throws InterruptedException {
+        PendingWrite<?> first = queue.take();
+        batch.add(first);
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            PendingWrite<?> next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+            }
+            batch.add(next);
+        }
+    }
+
+    private Void applyBatch(ConnectionManager cm, List<PendingWrite<?>> batch) throws SQLException {
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException("No database connection available");
+        }
+        try (Statement control = con.createStatement()) {
+            control.execute("BEGIN IMMEDIATE");
+            try {
+                for (PendingWrite<?> pending : batch) {
+                    control.execute("SAVEPOINT write_op");
+                    try {
+                        pending.apply(cm);
+                        control.execute("RELEASE write_op");
+                    } catch (SQLException | RuntimeException e) {
+                        control.execute("ROLLBACK TO write_op");
+                        control.execute("RELEASE write_op");
+                        pending.fail(e);
+                    }
+                }
+                long commitStart = System.nanoTime();
+                control.execute("COMMIT");
+                commitTimes.record(System.nanoTime() - commitStart);
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    control.execute("ROLLBACK");
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                for (PendingWrite<?> pending : batch) {
+                    pending.reset();
+                }
+                throw e;
+            }
+        }
+        return null;
+    }
+
+    private static class PendingWrite<T> {
+        private final WriteOperation<T> operation;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private Throwable error;
+
+        PendingWrite(WriteOperation<T> operation) {
+            this.operation = operation;
+        }
+
+        void apply(ConnectionManager cm) throws SQLException {
+            result = operation.apply(cm);
+        }
+
+        void fail(Throwable e) {
+            error = e;
+        }
+
+        void reset() {
+            result = null;
+            error = null;
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package scheduler.db;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*
+ * An immutable set of days, one bit per day counted from the epoch.
+ *
+ * The bits are kept in 64-day words, and only words with a bit set are stored, next to a sorted array of which
+ * words they are. That is the Roaring idea at a 64-day grain: a caregiver free most days of a year costs six
+ * words and six keys, about 72 bytes, and years with nothing free cost nothing. Union and intersection merge
+ * the two key arrays word by word, counting is a popcount per word, and the first day at or after a date is one
+ * binary search and a trailing-zero count.
+ *
+ * Changes return a new bitmap, so readers can use one without locks while a writer replaces it.
+ */
+public final class DayBitmap {
+
+    public static final DayBitmap EMPTY = new DayBitmap(new int[0], new long[0]);
+
+    // which 64-day word each entry of words is, as epoch day >> 6, ascending
+    private final int[] keys;
+    // never zero
+    private final long[] words;
+
+    private DayBitmap(int[] keys, long[] words) {
+        this.keys = keys;
+        this.words = words;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public boolean contains(LocalDate day) {
+        long epochDay = day.toEpochDay();
+        int i = Arrays.binarySearch(keys, key(epochDay));
+        return i >= 0 && (words[i] & bit(epochDay)) != 0;
+    }
+
+    public DayBitmap with(LocalDate day) {
+        long epochDay = day.toEpochDay();
+        int i = Arrays.binarySearch(keys, key(epochDay));
+        if (i >= 0) {
+            if ((words[i] & bit(epochDay)) != 0) {
+                return this;
+            }
+            long[] changed = words.clone();
+            changed[i] |= bit(epochDay);
+            return new DayBitmap(keys, changed);
+        }
+        int at = -i - 1;
+        int[] newKeys = new int[keys.length + 1];
+        long[] newWords = new long[words.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, at);
+        System.arraycopy(words, 0, newWords, 0, at);
+        newKeys[at] = key(epochDay);
+        newWords[at] = bit(epochDay);
+        System.arraycopy(keys, at, newKeys, at + 1, keys.length - at);
+        System.arraycopy(words, at, newWords, at + 1, words.length - at);
+        return new DayBitmap(newKeys, newWords);
+    }
+
+    public DayBitmap without(LocalDate day) {
+        long epochDay = day.toEpochDay();
+        int i = Arrays.binarySearch(keys, key(epochDay));
+        if (i < 0 || (words[i] & bit(epochDay)) == 0) {
+            return this;
+        }
+        long word = words[i] & ~bit(epochDay);
+        if (word != 0) {
+            long[] changed = words.clone();
+            changed[i] = word;
+            return new DayBitmap(keys, changed);
+        }
+        // the word is empty now, so it goes
+        int[] newKeys = new int[keys.length - 1];
+        long[] newWords = new long[words.length - 1];
+        System.arraycopy(keys, 0, newKeys, 0, i);
+        System.arraycopy(words, 0, newWords, 0, i);
+        System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+        System.arraycopy(words, i + 1, newWords, i, words.length - i - 1);
+        return new DayBitmap(newKeys, newWords);
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // days set from from to to, both included
+    public int cardinality(LocalDate from, LocalDate to) {
+        long first = from.toEpochDay();
+        long last = to.toEpochDay();
+        if (last < first) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = startIndex(key(first)); i < keys.length && keys[i] <= key(last); i++) {
+            long word = words[i];
+            if (keys[i] == key(first)) {
+                word &= -1L << (first & 63);
+            }
+            if (keys[i] == key(last)) {
+                word &= -1L >>> (63 - (last & 63));
+            }
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // the first day set at or after from, or null
+    public LocalDate nextSetDay(LocalDate from) {
+        long epochDay = from.toEpochDay();
+        for (int i = startIndex(key(epochDay)); i < keys.length; i++) {
+            long word = words[i];
+            if (keys[i] == key(epochDay)) {
+                word &= -1L << (epochDay & 63);
+            }
+            if (word != 0) {
+                return LocalDate.ofEpochDay(((long) keys[i] << 6) + Long.numberOfTrailingZeros(word));
+            }
+        }
+        return null;
+    }
+
+    public DayBitmap or(DayBitmap other) {
+        int[] newKeys = new int[keys.length + other.keys.length];
+        long[] newWords = new long[newKeys.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                newKeys[n] = keys[i];
+                newWords[n++] = words[i++];
+            } else if (i == keys.length || other.keys[j] < keys[i]) {
+                newKeys[n] = other.keys[j];
+                newWords[n++] = other.words[j++];
+            } else {
+                newKeys[n] = keys[i];
+                newWords[n++] = words[i++] | other.words[j++];
+            }
+        }
+        return new DayBitmap(Arrays.copyOf(newKeys, n), Arrays.copyOf(newWords, n));
+    }
+
+    public DayBitmap and(DayBitmap other) {
+        int[] newKeys = new int[Math.min(keys.length, other.keys.length)];
+        long[] newWords = new long[newKeys.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                long word = words[i++] & other.words[j++];
+                if (word != 0) {
+                    newKeys[n] = keys[i - 1];
+                    newWords[n++] = word;
+                }
+            }
+        }
+        return new DayBitmap(Arrays.copyOf(newKeys, n), Arrays.copyOf(newWords, n));
+    }
+
+    // every day set, in order
+    public void forEach(Consumer<LocalDate> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                consumer.accept(LocalDate.ofEpochDay(((long) keys[i] << 6) + Long.numberOfTrailingZeros(word)));
+                word &= word - 1;
+            }
+        }
+    }
+
+    // roughly what this bitmap takes on the heap: the object and both arrays with their headers
+    public long sizeInBytes() {
+        return 16 + 2 * 16 + keys.length * 4L + words.length * 8L;
+    }
+
+    // the index of the first word at or after key
+    private int startIndex(int key) {
+        int i = Arrays.binarySearch(keys, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private static int key(long epochDay) {
+        return (int) (epochDay >> 6);
+    }
+
+    private static long bit(long epochDay) {
+        return 1L << (epochDay & 63);
+    }
+}
@@ -0,0 +1,106 @@
+package scheduler.db;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * One vaccine's dose count split over several counters, so concurrent reserves do not all compare-and-set the
+ * same word.
+ *
+ * A take starts at a random shard and moves on to the next ones when a shard runs dry; it only fails once it has
+ * found every shard short. Adds spread the doses evenly, starting at a random shard so remainders do not pile up
+ * on the first one. The total is the sum of the shards. Each counter sits on its own cache line.
+ *
+ * Taking more than one dose may have to draw from several shards; if they turn out to hold too few in total
+ * the partial take is put back. Until it is, a concurrent take may see those doses as gone and fail, but no
+ * take can ever succeed on doses that are not there.
+ */
+class DoseShards {
+
+    // ints per cache line, so neighbouring shards never share one
+    private static final int STRIDE = 16;
+
+    private final int shards;
+    private final AtomicIntegerArray counts;
+
+    DoseShards(int shards, int doses) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("A vaccine needs at least one dose shard");
+        }
+        this.shards = shards;
+        this.counts = new AtomicIntegerArray(shards * STRIDE);
+        add(doses);
+    }
+
+    int getShardCount() {
+        return shards;
+    }
+
+    int sum() {
+        int total = 0;
+        for (int i = 0; i < shards; i++) {
+            total += counts.get(i * STRIDE);
+        }
+        return total;
+    }
+
+    void add(int num) {
+        if (num < 0) {
+            throw new IllegalArgumentException("Cannot add a negative number of doses");
+        }
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        int each = num / shards;
+        int remainder = num % shards;
+        for (int i = 0; i < shards; i++) {
+            int share = each + (i < remainder ? 1 : 0);
+            if (share > 0) {
+                counts.addAndGet(((start + i) % shards) * STRIDE, share);
+            }
+        }
+    }
+
+    // takes num doses unless fewer are left, in which case nothing changes
+    boolean take(int num) {
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        int needed = num;
+        int[] taken = null;
+        for (int i = 0; i < shards && needed > 0; i++) {
+            int shard = (start + i) % shards;
+            int got = takeUpTo(shard, needed);
+            if (got > 0 && got < num && taken == null) {
+                taken = new int[shards];
+            }
+            if (taken != null) {
+                taken[shard] += got;
+            }
+            needed -= got;
+        }
+        if (needed == 0) {
+            return true;
+        }
+        // not enough in total; give back what was taken
+        if (taken != null) {
+            for (int shard = 0; shard < shards; shard++) {
+                if (taken[shard] > 0) {
+                    counts.addAndGet(shard * STRIDE, taken[shard]);
+                }
+            }
+        }
+        return false;
+    }
+
+    // takes as many as it can from one shard, up to max, and returns how many
+    private int takeUpTo(int shard, int max) {
+        int index = shard * STRIDE;
+        while (true) {
+            int current = counts.get(index);
+            if (current <= 0) {
+                return 0;
+            }
+            int got = Math.min(current, max);
+            if (counts.compareAndSet(index, current, current - got)) {
+                return got;
+            }
+        }
+    }
+}
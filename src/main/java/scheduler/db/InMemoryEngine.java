@@ -0,0 +1,735 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+ * A storage engine that keeps everything in memory and loses it on exit; for load tests, staging and tests.
+ *
+ * Users and vaccines live in concurrent maps. Each vaccine's doses are split over DoseShards, counters that are
+ * only ever decremented by compare-and-set, so doses cannot be oversold and reserves for one popular vaccine do
+ * not all contend on one counter. Availability lives in the AvailabilityIndex itself. Reservations are stored in
+ * a dense array indexed by reservation id.
+ *
+ * A reservation touches a dose count, a caregiver's slot and the reservation array, so reserve holds a lock for
+ * its date while it does all three: two reservations for the same date cannot both take the same caregiver,
+ * while reservations for different dates, which can never share a slot, run in parallel. cancel and cancel_day
+ * take the same lock for their date. Each patient and
+ * caregiver also has a sorted list of their reservation ids, so show_appointments never walks other users' rows.
+ * Archived reservations are kept apart the same way, in a map by id with their own per-user id lists.
+ */
+public class InMemoryEngine implements StorageEngine {
+
+    private static final int DATE_LOCKS = 64;
+    public static final int DEFAULT_DOSE_SHARDS = 8;
+    // reservations copied out per lock while streaming appointments
+    private static final int APPOINTMENT_PAGE = 256;
+
+    private final ConcurrentMap<String, StoredCredentials> caregivers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StoredCredentials> patients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DoseShards> doses = new ConcurrentHashMap<>();
+    private final int doseShards;
+    private final Object[] dateLocks = new Object[DATE_LOCKS];
+    private final AvailabilityIndex index = AvailabilityIndex.installEmpty();
+
+    // reservation id n is stored at index n - 1
+    private final AtomicInteger lastReservationId = new AtomicInteger();
+    private ReservationRecord[] reservations = new ReservationRecord[1024];
+    // username -> ids of that user's reservations; guarded by this, like reservations
+    private final Map<String, IdList> reservationsByPatient = new HashMap<>();
+    private final Map<String, IdList> reservationsByCaregiver = new HashMap<>();
+    // reservations the retention sweeper moved out of the array above; guarded by this too
+    private final Map<Integer, ReservationRecord> archived = new HashMap<>();
+    private final Map<String, IdList> archivedByPatient = new HashMap<>();
+    private final Map<String, IdList> archivedByCaregiver = new HashMap<>();
+    // where the next archive scan of the array starts, so a sweep walks it about once rather than once a chunk
+    private int archiveCursor = 0;
+
+    public InMemoryEngine() {
+        this(DEFAULT_DOSE_SHARDS);
+    }
+
+    public InMemoryEngine(int doseShards) {
+        if (doseShards < 1) {
+            throw new IllegalArgumentException("doseShards must be at least 1");
+        }
+        this.doseShards = doseShards;
+        for (int i = 0; i < DATE_LOCKS; i++) {
+            dateLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public List<String> migrate() {
+        // nothing is persisted, so there is no schema to bring up to date
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void addCaregiver(String username, StoredCredentials credentials) throws SQLException {
+        if (caregivers.putIfAbsent(username, credentials) != null) {
+            throw duplicate("Caregiver", username);
+        }
+    }
+
+    @Override
+    public StoredCredentials getCaregiver(String username) {
+        return caregivers.get(username);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) {
+        return caregivers.containsKey(username);
+    }
+
+    @Override
+    public void addPatient(String username, StoredCredentials credentials) throws SQLException {
+        if (patients.putIfAbsent(username, credentials) != null) {
+            throw duplicate("Patient", username);
+        }
+    }
+
+    @Override
+    public int addCaregivers(Map<String, StoredCredentials> caregivers) {
+        return addUsers(this.caregivers, caregivers);
+    }
+
+    @Override
+    public int addPatients(Map<String, StoredCredentials> patients) {
+        return addUsers(this.patients, patients);
+    }
+
+    @Override
+    public StoredCredentials getPatient(String username) {
+        return patients.get(username);
+    }
+
+    @Override
+    public boolean patientExists(String username) {
+        return patients.containsKey(username);
+    }
+
+    @Override
+    public void addVaccine(String name, int count) throws SQLException {
+        if (doses.putIfAbsent(name, new DoseShards(doseShards, count)) != null) {
+            throw duplicate("Vaccine", name);
+        }
+    }
+
+    @Override
+    public Integer getDoses(String name) {
+        DoseShards count = doses.get(name);
+        return count == null ? null : count.sum();
+    }
+
+    @Override
+    public SortedMap<String, Integer> getAllDoses() {
+        SortedMap<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<String, DoseShards> entry : doses.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public void increaseDoses(String name, int num) {
+        DoseShards count = doses.get(name);
+        if (count != null) {
+            count.add(num);
+        }
+    }
+
+    @Override
+    public void decreaseDoses(String name, int num) {
+        DoseShards count = doses.get(name);
+        if (count == null || !count.take(num)) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> dosesByVaccine) {
+        for (Map.Entry<String, Integer> vaccine : dosesByVaccine.entrySet()) {
+            DoseShards count = doses.putIfAbsent(vaccine.getKey(), new DoseShards(doseShards, vaccine.getValue()));
+            if (count != null) {
+                count.add(vaccine.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void loadAvailability(BiConsumer<String, LocalDate> sink) {
+        // the index is the only copy, so there is nothing to load into it
+    }
+
+    @Override
+    public void addAvailability(String caregiver, Date date) throws SQLException {
+        if (!index.add(caregiver, date)) {
+            throw duplicate("Availability", caregiver + " " + date);
+        }
+    }
+
+    @Override
+    public List<Date> addAvailability(String caregiver, List<Date> dates) {
+        List<Date> added = new ArrayList<>();
+        for (Date date : dates) {
+            if (index.add(caregiver, date)) {
+                added.add(date);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public int addAvailability(Map<String, List<Date>> datesByCaregiver) {
+        int added = 0;
+        for (Map.Entry<String, List<Date>> caregiver : datesByCaregiver.entrySet()) {
+            added += addAvailability(caregiver.getKey(), caregiver.getValue()).size();
+        }
+        return added;
+    }
+
+    @Override
+    public void streamAvailability(BiConsumer<String, LocalDate> sink) {
+        index.forEach(sink);
+    }
+
+    @Override
+    public ReservationRecord reserve(String patient, Date date, String vaccine) {
+        synchronized (lockFor(date)) {
+            String caregiver = index.firstCaregiverOn(date);
+            if (caregiver == null) {
+                return null;
+            }
+            DoseShards count = doses.get(vaccine);
+            if (count == null || !count.take(1)) {
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+            // only reserve removes availability, and it holds this date's lock, so the caregiver is still free
+            index.remove(caregiver, date);
+            ReservationRecord reservation = new ReservationRecord(lastReservationId.incrementAndGet(), patient,
+                    caregiver, vaccine, date);
+            store(reservation);
+            return reservation;
+        }
+    }
+
+    @Override
+    public List<ReservationRecord> reserveAll(List<BookingRequest> requests) {
+        // every reserve is already atomic on its own and there is no commit to share
+        List<ReservationRecord> booked = new ArrayList<>(requests.size());
+        for (BookingRequest request : requests) {
+            try {
+                booked.add(reserve(request.getPatientUsername(), request.getDate(), request.getVaccineName()));
+            } catch (IllegalArgumentException e) {
+                booked.add(null);
+            }
+        }
+        return booked;
+    }
+
+    @Override
+    public ReservationRecord cancel(int reservationId, String username, boolean caregiver) {
+        ReservationRecord reservation = getReservation(reservationId);
+        if (reservation == null) {
+            return null;
+        }
+        String owner = caregiver ? reservation.getCaregiverUsername() : reservation.getPatientUsername();
+        if (!owner.equals(username)) {
+            return null;
+        }
+        return cancel(reservation) ? reservation : null;
+    }
+
+    @Override
+    public CancelDayResult cancelDay(String caregiver, Date date) {
+        synchronized (lockFor(date)) {
+            index.remove(caregiver, date);
+            List<ReservationRecord> rebooked = new ArrayList<>();
+            List<ReservationRecord> released = new ArrayList<>();
+            Map<String, Integer> returned = new TreeMap<>();
+            for (ReservationRecord reservation : reservationsOn(caregiver, date)) {
+                // this date's lock is held, so the caregiver found here is still free
+                String other = index.firstCaregiverOn(date);
+                if (other != null) {
+                    index.remove(other, date);
+                    ReservationRecord moved = new ReservationRecord(reservation.getReservationId(),
+                            reservation.getPatientUsername(), other, reservation.getVaccineName(), date);
+                    replace(reservation, moved);
+                    rebooked.add(moved);
+                } else {
+                    unstore(reservation);
+                    released.add(reservation);
+                    returned.merge(reservation.getVaccineName(), 1, Integer::sum);
+                }
+            }
+            for (Map.Entry<String, Integer> vaccine : returned.entrySet()) {
+                increaseDoses(vaccine.getKey(), vaccine.getValue());
+            }
+            return new CancelDayResult(rebooked, released);
+        }
+    }
+
+    @Override
+    public int streamAppointments(AppointmentQuery query, Consumer<ReservationRecord> sink) {
+        Map<String, IdList> byUser = query.isArchived()
+                ? (query.isCaregiver() ? archivedByCaregiver : archivedByPatient)
+                : (query.isCaregiver() ? reservationsByCaregiver : reservationsByPatient);
+        int limit = query.getLimit() == 0 ? Integer.MAX_VALUE : query.getLimit();
+        List<ReservationRecord> page = new ArrayList<>(APPOINTMENT_PAGE);
+        int cursor = query.getAfterId();
+        int count = 0;
+        while (count < limit) {
+            // copy a page under the lock and hand it to the sink outside it, so a slow reader never blocks reserve
+            page.clear();
+            boolean more = false;
+            synchronized (this) {
+                IdList ids = byUser.get(query.getUsername());
+                if (ids != null) {
+                    for (int i = ids.indexAfter(cursor); i < ids.size && page.size() < APPOINTMENT_PAGE; i++) {
+                        cursor = ids.ids[i];
+                        more = true;
+                        ReservationRecord reservation = query.isArchived() ? archived.get(cursor)
+                                : reservations[cursor - 1];
+                        if (reservation != null && query.inRange(reservation.getDate())) {
+                            page.add(reservation);
+                        }
+                    }
+                }
+            }
+            if (!more) {
+                break;
+            }
+            for (ReservationRecord reservation : page) {
+                if (count == limit) {
+                    break;
+                }
+                sink.accept(reservation);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void streamReservations(Consumer<ReservationRecord> sink) {
+        List<ReservationRecord> page = new ArrayList<>(APPOINTMENT_PAGE);
+        int next = 0;
+        while (true) {
+            // copy a page under the lock and hand it over outside it, as streamAppointments does
+            page.clear();
+            synchronized (this) {
+                int last = Math.min(lastReservationId.get(), reservations.length);
+                for (; next < last && page.size() < APPOINTMENT_PAGE; next++) {
+                    if (reservations[next] != null) {
+                        page.add(reservations[next]);
+                    }
+                }
+            }
+            if (page.isEmpty()) {
+                return;
+            }
+            for (ReservationRecord reservation : page) {
+                sink.accept(reservation);
+            }
+        }
+    }
+
+    @Override
+    public int archiveReservations(Date before, int limit) {
+        return archiveDue(before, limit).size();
+    }
+
+    @Override
+    public int purgeAvailability(Date before, int limit) {
+        int count = 0;
+        for (List<Date> dates : purgeSlots(before, limit).values()) {
+            count += dates.size();
+        }
+        return count;
+    }
+
+    // copies everything into the SQLite database at dbPath, replacing what is there, in one transaction
+    public void exportToSqlite(String dbPath) throws SQLException {
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:" + dbPath)) {
+            new MigrationRunner("sqlite/migrations").migrate(con);
+            con.setAutoCommit(false);
+            try {
+                try (Statement statement = con.createStatement()) {
+                    // children first, so the foreign keys hold throughout
+                    statement.executeUpdate("DELETE FROM ArchivedReservations");
+                    statement.executeUpdate("DELETE FROM Reservations");
+                    statement.executeUpdate("DELETE FROM Availabilities");
+                    statement.executeUpdate("DELETE FROM Vaccines");
+                    statement.executeUpdate("DELETE FROM Patients");
+                    statement.executeUpdate("DELETE FROM Caregivers");
+                }
+                exportUsers(con, "INSERT INTO Caregivers (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)",
+                        caregivers);
+                exportUsers(con, "INSERT INTO Patients (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)",
+                        patients);
+                try (PreparedStatement statement = con.prepareStatement("INSERT INTO Vaccines VALUES (?, ?)")) {
+                    for (Map.Entry<String, Integer> vaccine : getAllDoses().entrySet()) {
+                        statement.setString(1, vaccine.getKey());
+                        statement.setInt(2, vaccine.getValue());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+                try (PreparedStatement statement = con.prepareStatement(
+                        "INSERT INTO Availabilities (caregiver_username, available_date) VALUES (?, ?)")) {
+                    SQLException[] failure = new SQLException[1];
+                    index.forEach((caregiver, date) -> {
+                        try {
+                            statement.setString(1, caregiver);
+                            statement.setString(2, date.toString());
+                            statement.addBatch();
+                        } catch (SQLException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) {
+                        throw failure[0];
+                    }
+                    statement.executeBatch();
+                }
+                String addReservation = "INSERT INTO Reservations (reservation_id, patient_username, " +
+                        "caregiver_username, vaccine_name, appointment_date) VALUES (?, ?, ?, ?, ?)";
+                exportReservations(con, addReservation, getReservations());
+                exportReservations(con, addReservation.replace("INTO Reservations", "INTO ArchivedReservations"),
+                        getArchivedReservations());
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // The methods below let JournaledEngine replay its journal and write snapshots
+
+    AvailabilityIndex getIndex() {
+        return index;
+    }
+
+    Map<String, StoredCredentials> getCaregivers() {
+        return Collections.unmodifiableMap(caregivers);
+    }
+
+    Map<String, StoredCredentials> getPatients() {
+        return Collections.unmodifiableMap(patients);
+    }
+
+    // every stored reservation in id order
+    synchronized List<ReservationRecord> getReservations() {
+        List<ReservationRecord> result = new ArrayList<>();
+        for (int i = 0; i < lastReservationId.get() && i < reservations.length; i++) {
+            if (reservations[i] != null) {
+                result.add(reservations[i]);
+            }
+        }
+        return result;
+    }
+
+    int getLastReservationId() {
+        return lastReservationId.get();
+    }
+
+    // applies a reservation exactly as it was first made, taking its dose and slot
+    void replayReservation(ReservationRecord reservation) {
+        DoseShards count = doses.get(reservation.getVaccineName());
+        if (count != null) {
+            count.take(1);
+        }
+        index.remove(reservation.getCaregiverUsername(), reservation.getDate());
+        restoreReservation(reservation);
+    }
+
+    // puts back a reservation whose dose and slot are already accounted for, as in a snapshot
+    void restoreReservation(ReservationRecord reservation) {
+        lastReservationId.accumulateAndGet(reservation.getReservationId(), Math::max);
+        store(reservation);
+    }
+
+    // cancels an appointment whoever it belongs to; null if there is no such appointment
+    ReservationRecord cancel(int reservationId) {
+        ReservationRecord reservation = getReservation(reservationId);
+        return reservation != null && cancel(reservation) ? reservation : null;
+    }
+
+    // applies a cancel_day exactly as it was first done: rebooked maps reservation ids to their new caregivers
+    void replayCancelDay(String caregiver, Date date, Map<Integer, String> rebooked, List<Integer> released) {
+        synchronized (lockFor(date)) {
+            index.remove(caregiver, date);
+            for (Map.Entry<Integer, String> move : rebooked.entrySet()) {
+                ReservationRecord reservation = getReservation(move.getKey());
+                index.remove(move.getValue(), date);
+                replace(reservation, new ReservationRecord(reservation.getReservationId(),
+                        reservation.getPatientUsername(), move.getValue(), reservation.getVaccineName(), date));
+            }
+            for (int id : released) {
+                ReservationRecord reservation = getReservation(id);
+                unstore(reservation);
+                increaseDoses(reservation.getVaccineName(), 1);
+            }
+        }
+    }
+
+    // every archived reservation in id order
+    synchronized List<ReservationRecord> getArchivedReservations() {
+        List<ReservationRecord> result = new ArrayList<>(archived.values());
+        result.sort((a, b) -> Integer.compare(a.getReservationId(), b.getReservationId()));
+        return result;
+    }
+
+    // Archives up to limit reservations dated before the given date, returns them. Each scan goes on from where
+    // the last one stopped and covers the array at most once, so the chunks of a sweep walk it about once.
+    List<ReservationRecord> archiveDue(Date before, int limit) {
+        List<ReservationRecord> due = new ArrayList<>();
+        synchronized (this) {
+            int last = Math.min(lastReservationId.get(), reservations.length);
+            for (int scanned = 0; scanned < last && due.size() < limit; scanned++) {
+                if (archiveCursor >= last) {
+                    archiveCursor = 0;
+                }
+                ReservationRecord reservation = reservations[archiveCursor++];
+                if (reservation != null && reservation.getDate().before(before)) {
+                    due.add(reservation);
+                }
+            }
+        }
+        List<ReservationRecord> moved = new ArrayList<>(due.size());
+        for (ReservationRecord reservation : due) {
+            if (archive(reservation)) {
+                moved.add(reservation);
+            }
+        }
+        return moved;
+    }
+
+    // archives the reservations with these ids, as a journaled archive did
+    void replayArchive(List<Integer> ids) {
+        for (int id : ids) {
+            ReservationRecord reservation = getReservation(id);
+            if (reservation != null) {
+                archive(reservation);
+            }
+        }
+    }
+
+    // puts back an archived reservation, as in a snapshot
+    synchronized void restoreArchived(ReservationRecord reservation) {
+        lastReservationId.accumulateAndGet(reservation.getReservationId(), Math::max);
+        storeArchived(reservation);
+    }
+
+    // Removes up to limit free slots dated before the given date, returns the ones it removed. Each takes its
+    // date's lock, since reserve counts on only itself taking slots away while it holds it.
+    Map<String, List<Date>> purgeSlots(Date before, int limit) {
+        return removeSlots(index.slotsBefore(before, limit));
+    }
+
+    Map<String, List<Date>> removeSlots(Map<String, List<Date>> slots) {
+        Map<String, List<Date>> removed = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Date>> caregiver : slots.entrySet()) {
+            for (Date date : caregiver.getValue()) {
+                synchronized (lockFor(date)) {
+                    if (index.remove(caregiver.getKey(), date)) {
+                        removed.computeIfAbsent(caregiver.getKey(), k -> new ArrayList<>()).add(date);
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    void restoreLastReservationId(int id) {
+        lastReservationId.accumulateAndGet(id, Math::max);
+    }
+
+    private static int addUsers(ConcurrentMap<String, StoredCredentials> target, Map<String, StoredCredentials> users) {
+        int added = 0;
+        for (Map.Entry<String, StoredCredentials> user : users.entrySet()) {
+            if (target.putIfAbsent(user.getKey(), user.getValue()) == null) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private static void exportUsers(Connection con, String sql, Map<String, StoredCredentials> users)
+            throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (Map.Entry<String, StoredCredentials> user : users.entrySet()) {
+                statement.setString(1, user.getKey());
+                statement.setBytes(2, user.getValue().getSalt());
+                statement.setBytes(3, user.getValue().getHash());
+                statement.setString(4, user.getValue().getHashParams().encode());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static void exportReservations(Connection con, String sql, List<ReservationRecord> reservations)
+            throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (ReservationRecord reservation : reservations) {
+                statement.setInt(1, reservation.getReservationId());
+                statement.setString(2, reservation.getPatientUsername());
+                statement.setString(3, reservation.getCaregiverUsername());
+                statement.setString(4, reservation.getVaccineName());
+                statement.setString(5, reservation.getDate().toString());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    // false if the reservation was cancelled or moved in the meantime
+    private boolean cancel(ReservationRecord reservation) {
+        synchronized (lockFor(reservation.getDate())) {
+            synchronized (this) {
+                if (reservations[reservation.getReservationId() - 1] != reservation) {
+                    return false;
+                }
+                unstore(reservation);
+            }
+            increaseDoses(reservation.getVaccineName(), 1);
+            index.add(reservation.getCaregiverUsername(), reservation.getDate());
+            return true;
+        }
+    }
+
+    private synchronized ReservationRecord getReservation(int reservationId) {
+        if (reservationId < 1 || reservationId > reservations.length) {
+            return null;
+        }
+        return reservations[reservationId - 1];
+    }
+
+    // the caregiver's appointments on the date
+    private synchronized List<ReservationRecord> reservationsOn(String caregiver, Date date) {
+        List<ReservationRecord> result = new ArrayList<>();
+        IdList ids = reservationsByCaregiver.get(caregiver);
+        if (ids != null) {
+            for (int i = 0; i < ids.size; i++) {
+                ReservationRecord reservation = reservations[ids.ids[i] - 1];
+                if (reservation != null && reservation.getDate().equals(date)) {
+                    result.add(reservation);
+                }
+            }
+        }
+        return result;
+    }
+
+    // swaps in the same reservation with another caregiver
+    private synchronized void replace(ReservationRecord reservation, ReservationRecord moved) {
+        reservations[reservation.getReservationId() - 1] = moved;
+        reservationsByCaregiver.get(reservation.getCaregiverUsername()).remove(reservation.getReservationId());
+        reservationsByCaregiver.computeIfAbsent(moved.getCaregiverUsername(), k -> new IdList())
+                .add(moved.getReservationId());
+    }
+
+    private synchronized void unstore(ReservationRecord reservation) {
+        reservations[reservation.getReservationId() - 1] = null;
+        reservationsByPatient.get(reservation.getPatientUsername()).remove(reservation.getReservationId());
+        reservationsByCaregiver.get(reservation.getCaregiverUsername()).remove(reservation.getReservationId());
+    }
+
+    // false if the reservation was cancelled or moved in the meantime; takes the locks in cancel's order
+    private boolean archive(ReservationRecord reservation) {
+        synchronized (lockFor(reservation.getDate())) {
+            synchronized (this) {
+                if (reservations[reservation.getReservationId() - 1] != reservation) {
+                    return false;
+                }
+                unstore(reservation);
+                storeArchived(reservation);
+                return true;
+            }
+        }
+    }
+
+    private synchronized void storeArchived(ReservationRecord reservation) {
+        archived.put(reservation.getReservationId(), reservation);
+        archivedByPatient.computeIfAbsent(reservation.getPatientUsername(), k -> new IdList())
+                .add(reservation.getReservationId());
+        archivedByCaregiver.computeIfAbsent(reservation.getCaregiverUsername(), k -> new IdList())
+                .add(reservation.getReservationId());
+    }
+
+    private synchronized void store(ReservationRecord reservation) {
+        int slot = reservation.getReservationId() - 1;
+        if (slot >= reservations.length) {
+            reservations = Arrays.copyOf(reservations, Math.max(slot + 1, reservations.length * 2));
+        }
+        reservations[slot] = reservation;
+        reservationsByPatient.computeIfAbsent(reservation.getPatientUsername(), k -> new IdList())
+                .add(reservation.getReservationId());
+        reservationsByCaregiver.computeIfAbsent(reservation.getCaregiverUsername(), k -> new IdList())
+                .add(reservation.getReservationId());
+    }
+
+    private Object lockFor(Date date) {
+        return dateLocks[Math.floorMod(date.toLocalDate().hashCode(), DATE_LOCKS)];
+    }
+
+    private static SQLException duplicate(String what, String key) {
+        return new SQLIntegrityConstraintViolationException(what + " already exists: " + key, "23000");
+    }
+
+    // A growable sorted array of reservation ids. Ids are handed out in order but stored by threads holding
+    // different date locks, so one can arrive slightly out of order; add keeps the array sorted.
+    private static class IdList {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            int i = size;
+            while (i > 0 && ids[i - 1] > id) {
+                ids[i] = ids[i - 1];
+                i--;
+            }
+            ids[i] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+
+        // the index of the first id greater than the given one
+        int indexAfter(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package scheduler.db;
+
+import scheduler.util.Histogram;
+import scheduler.util.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/*
+ * An append-only log of binary records in memory-mapped segment files, journal-<n>.log.
+ *
+ * A record is its body's length, the body and a CRC32 of the body. Segments are mapped at a fixed size and
+ * start out zeroed, so a zero length marks where a segment ends. Appending only copies into the mapping;
+ * awaitDurable() forces it to disk. Whichever waiting thread gets there first forces everything appended so
+ * far, and the threads that queued up behind it find their records already durable, so one fsync covers a
+ * whole group of writers.
+ *
+ * A crash can leave a torn record at the end of the last segment. Replay stops reading a segment at the first
+ * record whose length or checksum is wrong, and a reopened journal always starts a fresh segment, so a torn tail
+ * is never appended to.
+ */
+class Journal {
+
+    interface RecordHandler {
+        void apply(ByteBuffer body) throws SQLException;
+    }
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final boolean sync;
+    private final CRC32 crc = new CRC32();
+    private final Object flushLock = new Object();
+    private final AtomicLong durable = new AtomicLong();
+    private final Histogram fsyncTimes = Metrics.histogram("journal.fsync");
+
+    private long segmentNumber;
+    private MappedByteBuffer segment;
+    // where the part of the current segment that has not been forced yet starts
+    private int unflushedFrom;
+    // bytes appended since the journal was opened
+    private long appended;
+
+    Journal(Path dir, long firstSegment, int segmentSize, boolean sync) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.segmentNumber = firstSegment;
+        open(firstSegment);
+    }
+
+    // copies the record into the journal, returns the position to pass to awaitDurable()
+    synchronized long append(ByteBuffer body) throws IOException {
+        int length = body.remaining();
+        // room for the length, the body, the checksum and a zero length after it
+        if (length + 12 > segmentSize) {
+            throw new IllegalArgumentException("Journal record too large: " + length + " bytes");
+        }
+        if (segment.remaining() < length + 12) {
+            roll();
+        }
+        crc.reset();
+        crc.update(body.duplicate());
+        segment.putInt(length);
+        segment.put(body);
+        segment.putInt((int) crc.getValue());
+        appended += length + 8;
+        return appended;
+    }
+
+    // blocks until everything up to the position is on disk
+    void awaitDurable(long position) {
+        if (!sync || durable.get() >= position) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (durable.get() >= position) {
+                return;
+            }
+            MappedByteBuffer target;
+            int from;
+            int to;
+            long upTo;
+            synchronized (this) {
+                target = segment;
+                from = unflushedFrom;
+                to = segment.position();
+                upTo = appended;
+                unflushedFrom = to;
+            }
+            long start = System.nanoTime();
+            target.force(from, to - from);
+            fsyncTimes.record(System.nanoTime() - start);
+            durable.accumulateAndGet(upTo, Math::max);
+        }
+    }
+
+    // finishes the current segment and starts the next one, returns the new segment's number
+    synchronized long roll() throws IOException {
+        // everything in the old segment is durable before anything lands in the new one
+        segment.force();
+        durable.accumulateAndGet(appended, Math::max);
+        segmentNumber++;
+        open(segmentNumber);
+        return segmentNumber;
+    }
+
+    synchronized void close() {
+        segment.force();
+        durable.accumulateAndGet(appended, Math::max);
+    }
+
+    private void open(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathOf(dir, number), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        unflushedFrom = 0;
+    }
+
+    // hands every record in segment firstSegment and later to the handler, returns the last segment's number,
+    // or firstSegment - 1 if there is none
+    static long replay(Path dir, long firstSegment, RecordHandler handler) throws IOException, SQLException {
+        long last = firstSegment - 1;
+        CRC32 crc = new CRC32();
+        for (long number : segments(dir)) {
+            if (number < firstSegment) {
+                continue;
+            }
+            last = number;
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(pathOf(dir, number), StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            while (segment.remaining() >= 4) {
+                int length = segment.getInt();
+                if (length <= 0 || length + 4 > segment.remaining()) {
+                    break;
+                }
+                ByteBuffer body = segment.slice();
+                body.limit(length);
+                segment.position(segment.position() + length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if (segment.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+                handler.apply(body);
+            }
+        }
+        return last;
+    }
+
+    // deletes the segments before the given one, once a snapshot covers them
+    static void deleteBefore(Path dir, long number) throws IOException {
+        for (long segment : segments(dir)) {
+            if (segment < number) {
+                Files.deleteIfExists(pathOf(dir, segment));
+            }
+        }
+    }
+
+    private static List<Long> segments(Path dir) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static Path pathOf(Path dir, long number) {
+        return dir.resolve(String.format("%s%09d%s", PREFIX, number, SUFFIX));
+    }
+}
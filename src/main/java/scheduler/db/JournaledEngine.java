@@ -0,0 +1,883 @@
+package scheduler.db;
+
+import scheduler.util.CredentialHasher.HashParams;
+import scheduler.util.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/*
+ * An in-memory engine made durable by a journal instead of per-row SQL.
+ *
+ * All state lives in an InMemoryEngine. Every change is applied to it and then appended to the Journal as one
+ * compact binary record while holding the journal's lock, so the journal order is the order the changes were
+ * made in; the caller then waits for its record to be forced to disk outside the lock, together with whoever
+ * else is waiting. A reservation is journaled with its outcome (id and caregiver), so replay never has to
+ * decide anything again, and so is a cancel_day, with where each appointment went.
+ *
+ * If a record cannot be appended or forced to disk, the change it describes is already in memory but may not
+ * survive a restart. The engine then stops: from that point every read and write throws and no snapshot is
+ * written, so nobody is ever shown or builds on a change the journal does not have. Reopening it recovers
+ * the state the journal does hold.
+ *
+ * Every snapshotEvery records the whole state is written to snapshot.bin and the segments it covers are
+ * deleted. Opening the engine loads the snapshot and replays the journal from there. Writers wait while a
+ * snapshot is written.
+ */
+public class JournaledEngine implements StorageEngine {
+
+    private static final byte CAREGIVER = 1;
+    private static final byte PATIENT = 2;
+    private static final byte VACCINE = 3;
+    private static final byte DOSES = 4;
+    private static final byte AVAILABILITY = 5;
+    private static final byte RESERVATION = 6;
+    private static final byte CANCEL = 7;
+    private static final byte CANCEL_DAY = 8;
+    private static final byte ARCHIVE = 9;
+    private static final byte PURGE = 10;
+    private static final byte INVENTORY = 11;
+
+    private static final int MAX_DATES_PER_RECORD = 8192;
+    private static final int MAX_IDS_PER_RECORD = 8192;
+    // each slot may name a different caregiver, so fewer of them fit in a record
+    private static final int MAX_SLOTS_PER_RECORD = 64;
+    private static final int MAX_VACCINES_PER_RECORD = 48;
+
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x5343484a;
+    // version 2 added archived reservations; version 1 snapshots still load
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private interface Encoder {
+        void encode(ByteBuffer buffer);
+    }
+
+    private final Path dir;
+    private final long snapshotEvery;
+    private final InMemoryEngine state;
+    private final Journal journal;
+    // record bodies are built here while holding the journal's lock
+    private final ByteBuffer scratch = ByteBuffer.allocate(1 << 16);
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "journal-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the first journal write that failed; once set, every read and write throws, see fail()
+    private volatile SQLException failure = null;
+    private long recordsSinceSnapshot = 0;
+    private long recoveredRecords = 0;
+    private final long recoveryNanos;
+
+    public JournaledEngine(Path dir, int segmentSize, boolean sync, long snapshotEvery)
+            throws IOException, SQLException {
+        this(dir, segmentSize, sync, snapshotEvery, InMemoryEngine.DEFAULT_DOSE_SHARDS);
+    }
+
+    public JournaledEngine(Path dir, int segmentSize, boolean sync, long snapshotEvery, int doseShards)
+            throws IOException, SQLException {
+        this.dir = dir;
+        this.state = new InMemoryEngine(doseShards);
+        this.snapshotEvery = snapshotEvery;
+        Files.createDirectories(dir);
+
+        long start = System.nanoTime();
+        long firstSegment = loadSnapshot();
+        long lastSegment = Journal.replay(dir, firstSegment, this::replay);
+        this.recoveryNanos = System.nanoTime() - start;
+        Metrics.record("journal.recovery", recoveryNanos);
+
+        this.journal = new Journal(dir, Math.max(firstSegment, lastSegment + 1), segmentSize, sync);
+        this.recordsSinceSnapshot = recoveredRecords;
+    }
+
+    @Override
+    public List<String> migrate() {
+        // the journal has no schema; recovery already happened when the engine was opened
+        return new ArrayList<>();
+    }
+
+    @Override
+    public void addCaregiver(String username, StoredCredentials credentials) throws SQLException {
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            state.addCaregiver(username, credentials);
+            position = append(CAREGIVER, b -> {
+                putString(b, username);
+                putCredentials(b, credentials);
+            });
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public StoredCredentials getCaregiver(String username) throws SQLException {
+        checkOpen();
+        return state.getCaregiver(username);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        checkOpen();
+        return state.caregiverExists(username);
+    }
+
+    @Override
+    public void addPatient(String username, StoredCredentials credentials) throws SQLException {
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            state.addPatient(username, credentials);
+            position = append(PATIENT, b -> {
+                putString(b, username);
+                putCredentials(b, credentials);
+            });
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public int addCaregivers(Map<String, StoredCredentials> caregivers) throws SQLException {
+        return addUsers(CAREGIVER, caregivers);
+    }
+
+    @Override
+    public int addPatients(Map<String, StoredCredentials> patients) throws SQLException {
+        return addUsers(PATIENT, patients);
+    }
+
+    @Override
+    public StoredCredentials getPatient(String username) throws SQLException {
+        checkOpen();
+        return state.getPatient(username);
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        checkOpen();
+        return state.patientExists(username);
+    }
+
+    @Override
+    public void addVaccine(String name, int doses) throws SQLException {
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            state.addVaccine(name, doses);
+            position = append(VACCINE, b -> {
+                putString(b, name);
+                b.putInt(doses);
+            });
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public Integer getDoses(String name) throws SQLException {
+        checkOpen();
+        return state.getDoses(name);
+    }
+
+    @Override
+    public SortedMap<String, Integer> getAllDoses() throws SQLException {
+        checkOpen();
+        return state.getAllDoses();
+    }
+
+    @Override
+    public void increaseDoses(String name, int num) throws SQLException {
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            if (state.getDoses(name) == null) {
+                return;
+            }
+            state.increaseDoses(name, num);
+            position = appendDoses(name, num);
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void decreaseDoses(String name, int num) throws SQLException {
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            state.decreaseDoses(name, num);
+            position = appendDoses(name, -num);
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void loadAvailability(BiConsumer<String, LocalDate> sink) {
+        // the in-memory state installed its own index, which recovery already filled
+    }
+
+    @Override
+    public void addAvailability(String caregiver, Date date) throws SQLException {
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            state.addAvailability(caregiver, date);
+            position = appendAvailability(caregiver, List.of(date));
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public List<Date> addAvailability(String caregiver, List<Date> dates) throws SQLException {
+        List<Date> added;
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            added = state.addAvailability(caregiver, dates);
+            if (added.isEmpty()) {
+                return added;
+            }
+            position = appendAvailability(caregiver, added);
+        }
+        awaitDurable(position);
+        return added;
+    }
+
+    @Override
+    public int addAvailability(Map<String, List<Date>> datesByCaregiver) throws SQLException {
+        int count = 0;
+        long position = 0;
+        synchronized (journal) {
+            checkOpen();
+            for (Map.Entry<String, List<Date>> caregiver : datesByCaregiver.entrySet()) {
+                List<Date> added = state.addAvailability(caregiver.getKey(), caregiver.getValue());
+                if (!added.isEmpty()) {
+                    position = appendAvailability(caregiver.getKey(), added);
+                    count += added.size();
+                }
+            }
+        }
+        // one fsync for the whole batch
+        if (position > 0) {
+            awaitDurable(position);
+        }
+        return count;
+    }
+
+    @Override
+    public void streamAvailability(BiConsumer<String, LocalDate> sink) throws SQLException {
+        checkOpen();
+        state.streamAvailability(sink);
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> dosesByVaccine) throws SQLException {
+        if (dosesByVaccine.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Integer>> vaccines = new ArrayList<>(dosesByVaccine.entrySet());
+        long position = 0;
+        synchronized (journal) {
+            checkOpen();
+            state.addDoses(dosesByVaccine);
+            // one record per import chunk, unless it names more vaccines than fit in one
+            for (int from = 0; from < vaccines.size(); from += MAX_VACCINES_PER_RECORD) {
+                List<Map.Entry<String, Integer>> part =
+                        vaccines.subList(from, Math.min(vaccines.size(), from + MAX_VACCINES_PER_RECORD));
+                position = append(INVENTORY, b -> {
+                    b.putInt(part.size());
+                    for (Map.Entry<String, Integer> vaccine : part) {
+                        putString(b, vaccine.getKey());
+                        b.putInt(vaccine.getValue());
+                    }
+                });
+            }
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public ReservationRecord reserve(String patient, Date date, String vaccine) throws SQLException {
+        ReservationRecord reservation;
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            reservation = state.reserve(patient, date, vaccine);
+            if (reservation == null) {
+                return null;
+            }
+            position = append(RESERVATION, b -> putReservation(b, reservation));
+        }
+        awaitDurable(position);
+        return reservation;
+    }
+
+    @Override
+    public List<ReservationRecord> reserveAll(List<BookingRequest> requests) throws SQLException {
+        List<ReservationRecord> booked = new ArrayList<>(requests.size());
+        long position = 0;
+        synchronized (journal) {
+            checkOpen();
+            for (BookingRequest request : requests) {
+                ReservationRecord reservation = state.reserveAll(List.of(request)).get(0);
+                booked.add(reservation);
+                if (reservation != null) {
+                    position = append(RESERVATION, b -> putReservation(b, reservation));
+                }
+            }
+        }
+        // one fsync for the whole batch
+        if (position > 0) {
+            awaitDurable(position);
+        }
+        return booked;
+    }
+
+    @Override
+    public ReservationRecord cancel(int reservationId, String username, boolean caregiver) throws SQLException {
+        ReservationRecord cancelled;
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            cancelled = state.cancel(reservationId, username, caregiver);
+            if (cancelled == null) {
+                return null;
+            }
+            position = append(CANCEL, b -> b.putInt(reservationId));
+        }
+        awaitDurable(position);
+        return cancelled;
+    }
+
+    @Override
+    public CancelDayResult cancelDay(String caregiver, Date date) throws SQLException {
+        CancelDayResult result;
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            result = state.cancelDay(caregiver, date);
+            position = append(CANCEL_DAY, b -> {
+                putString(b, caregiver);
+                b.putInt((int) date.toLocalDate().toEpochDay());
+                b.putInt(result.getRebooked().size());
+                for (ReservationRecord moved : result.getRebooked()) {
+                    b.putInt(moved.getReservationId());
+                    putString(b, moved.getCaregiverUsername());
+                }
+                b.putInt(result.getReleased().size());
+                for (ReservationRecord released : result.getReleased()) {
+                    b.putInt(released.getReservationId());
+                }
+            });
+        }
+        awaitDurable(position);
+        return result;
+    }
+
+    @Override
+    public int streamAppointments(AppointmentQuery query, Consumer<ReservationRecord> sink) throws SQLException {
+        checkOpen();
+        // reads never touch the journal
+        return state.streamAppointments(query, sink);
+    }
+
+    @Override
+    public void streamReservations(Consumer<ReservationRecord> sink) throws SQLException {
+        checkOpen();
+        state.streamReservations(sink);
+    }
+
+    @Override
+    public int archiveReservations(Date before, int limit) throws SQLException {
+        List<ReservationRecord> moved;
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            moved = state.archiveDue(before, Math.min(limit, MAX_IDS_PER_RECORD));
+            if (moved.isEmpty()) {
+                return 0;
+            }
+            position = append(ARCHIVE, b -> {
+                b.putInt(moved.size());
+                for (ReservationRecord reservation : moved) {
+                    b.putInt(reservation.getReservationId());
+                }
+            });
+        }
+        awaitDurable(position);
+        return moved.size();
+    }
+
+    @Override
+    public int purgeAvailability(Date before, int limit) throws SQLException {
+        Map<String, List<Date>> purged;
+        long position;
+        synchronized (journal) {
+            checkOpen();
+            purged = state.purgeSlots(before, Math.min(limit, MAX_SLOTS_PER_RECORD));
+            if (purged.isEmpty()) {
+                return 0;
+            }
+            position = append(PURGE, b -> {
+                b.putInt(purged.size());
+                for (Map.Entry<String, List<Date>> caregiver : purged.entrySet()) {
+                    putString(b, caregiver.getKey());
+                    b.putShort((short) caregiver.getValue().size());
+                    for (Date d : caregiver.getValue()) {
+                        b.putInt((int) d.toLocalDate().toEpochDay());
+                    }
+                }
+            });
+        }
+        awaitDurable(position);
+        int count = 0;
+        for (List<Date> dates : purged.values()) {
+            count += dates.size();
+        }
+        return count;
+    }
+
+    // writes the whole state to a new snapshot and deletes the journal segments it covers
+    public void snapshot() throws IOException {
+        long start = System.nanoTime();
+        long firstSegment;
+        synchronized (journal) {
+            if (failure != null) {
+                // the state may hold a change the journal does not; it must never reach a snapshot
+                throw new IOException("Not writing a snapshot after a failed journal write", failure);
+            }
+            // everything in the segments before the new one is in the state written below
+            firstSegment = journal.roll();
+            writeSnapshot(firstSegment);
+            recordsSinceSnapshot = 0;
+        }
+        Journal.deleteBefore(dir, firstSegment);
+        Metrics.record("journal.snapshot", System.nanoTime() - start);
+    }
+
+    // copies the current state into the SQLite database at dbPath, for reporting
+    public void exportToSqlite(String dbPath) throws SQLException {
+        synchronized (journal) {
+            checkOpen();
+            state.exportToSqlite(dbPath);
+        }
+    }
+
+    public void close() {
+        snapshotter.shutdown();
+        synchronized (journal) {
+            journal.close();
+        }
+    }
+
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    private long append(byte type, Encoder encoder) throws SQLException {
+        scratch.clear();
+        scratch.put(type);
+        encoder.encode(scratch);
+        scratch.flip();
+        long position;
+        try {
+            position = journal.append(scratch);
+        } catch (IOException | RuntimeException e) {
+            // the change is already in memory; without its record the process must not carry on as if durable
+            throw fail("Could not write to the journal", e);
+        }
+        if (snapshotEvery > 0 && ++recordsSinceSnapshot >= snapshotEvery && snapshotting.compareAndSet(false, true)) {
+            snapshotter.execute(() -> {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    System.out.println("Could not write a journal snapshot: " + e.getMessage());
+                } finally {
+                    snapshotting.set(false);
+                }
+            });
+        }
+        return position;
+    }
+
+    private void awaitDurable(long position) throws SQLException {
+        try {
+            journal.awaitDurable(position);
+        } catch (UncheckedIOException e) {
+            throw fail("Could not force the journal to disk", e);
+        }
+    }
+
+    // stops the engine for good: the state may now hold a change the journal does not, so nothing may read it,
+    // change it further or snapshot it; a restart recovers what the journal has
+    private SQLException fail(String message, Exception cause) {
+        SQLException e = new SQLException(message, cause);
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        Metrics.countError(e);
+        return e;
+    }
+
+    private void checkOpen() throws SQLException {
+        SQLException cause = failure;
+        if (cause != null) {
+            throw new SQLException("The journal engine stopped after a failed journal write; restart to recover",
+                    cause);
+        }
+    }
+
+    private int addUsers(byte type, Map<String, StoredCredentials> users) throws SQLException {
+        int count = 0;
+        long position = 0;
+        synchronized (journal) {
+            checkOpen();
+            for (Map.Entry<String, StoredCredentials> user : users.entrySet()) {
+                boolean exists = type == CAREGIVER ? state.caregiverExists(user.getKey())
+                        : state.patientExists(user.getKey());
+                if (exists) {
+                    continue;
+                }
+                // every change goes through the journal's lock, so nobody can add the user in between
+                if (type == CAREGIVER) {
+                    state.addCaregiver(user.getKey(), user.getValue());
+                } else {
+                    state.addPatient(user.getKey(), user.getValue());
+                }
+                position = append(type, b -> {
+                    putString(b, user.getKey());
+                    putCredentials(b, user.getValue());
+                });
+                count++;
+            }
+        }
+        if (position > 0) {
+            awaitDurable(position);
+        }
+        return count;
+    }
+
+    private long appendDoses(String name, int delta) throws SQLException {
+        return append(DOSES, b -> {
+            putString(b, name);
+            b.putInt(delta);
+        });
+    }
+
+    private long appendAvailability(String caregiver, List<Date> dates) throws SQLException {
+        long position = 0;
+        // the count is a short and the record has to fit the scratch buffer, so long lists take several records
+        for (int from = 0; from < dates.size(); from += MAX_DATES_PER_RECORD) {
+            List<Date> part = dates.subList(from, Math.min(dates.size(), from + MAX_DATES_PER_RECORD));
+            position = append(AVAILABILITY, b -> {
+                putString(b, caregiver);
+                b.putShort((short) part.size());
+                for (Date date : part) {
+                    b.putInt((int) date.toLocalDate().toEpochDay());
+                }
+            });
+        }
+        return position;
+    }
+
+    private void replay(ByteBuffer b) throws SQLException {
+        recoveredRecords++;
+        byte type = b.get();
+        switch (type) {
+            case CAREGIVER:
+                state.addCaregiver(getString(b), getCredentials(b));
+                break;
+            case PATIENT:
+                state.addPatient(getString(b), getCredentials(b));
+                break;
+            case VACCINE:
+                state.addVaccine(getString(b), b.getInt());
+                break;
+            case DOSES: {
+                String name = getString(b);
+                int delta = b.getInt();
+                if (delta >= 0) {
+                    state.increaseDoses(name, delta);
+                } else {
+                    // it succeeded when it was journaled, so the doses are there
+                    state.decreaseDoses(name, -delta);
+                }
+                break;
+            }
+            case AVAILABILITY: {
+                String caregiver = getString(b);
+                int count = b.getShort();
+                List<Date> dates = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    dates.add(getDate(b));
+                }
+                state.addAvailability(caregiver, dates);
+                break;
+            }
+            case RESERVATION:
+                state.replayReservation(getReservation(b));
+                break;
+            case CANCEL:
+                state.cancel(b.getInt());
+                break;
+            case CANCEL_DAY: {
+                String caregiver = getString(b);
+                Date date = getDate(b);
+                Map<Integer, String> rebooked = new LinkedHashMap<>();
+                for (int count = b.getInt(); count > 0; count--) {
+                    rebooked.put(b.getInt(), getString(b));
+                }
+                List<Integer> released = new ArrayList<>();
+                for (int count = b.getInt(); count > 0; count--) {
+                    released.add(b.getInt());
+                }
+                state.replayCancelDay(caregiver, date, rebooked, released);
+                break;
+            }
+            case ARCHIVE: {
+                List<Integer> ids = new ArrayList<>();
+                for (int count = b.getInt(); count > 0; count--) {
+                    ids.add(b.getInt());
+                }
+                state.replayArchive(ids);
+                break;
+            }
+            case PURGE: {
+                Map<String, List<Date>> slots = new LinkedHashMap<>();
+                for (int caregivers = b.getInt(); caregivers > 0; caregivers--) {
+                    List<Date> dates = slots.computeIfAbsent(getString(b), k -> new ArrayList<>());
+                    for (int count = b.getShort(); count > 0; count--) {
+                        dates.add(getDate(b));
+                    }
+                }
+                state.removeSlots(slots);
+                break;
+            }
+            case INVENTORY: {
+                Map<String, Integer> doses = new LinkedHashMap<>();
+                for (int count = b.getInt(); count > 0; count--) {
+                    doses.put(getString(b), b.getInt());
+                }
+                state.addDoses(doses);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    // returns the first journal segment the snapshot does not cover, 1 if there is no snapshot
+    private long loadSnapshot() throws IOException, SQLException {
+        Path file = dir.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return 1;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(raw), crc))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a journal snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version < 1 || version > SNAPSHOT_VERSION) {
+                throw new IOException("Unknown journal snapshot version " + version + ": " + file);
+            }
+            long firstSegment = in.readLong();
+            state.restoreLastReservationId(in.readInt());
+            while (in.readBoolean()) {
+                state.addCaregiver(in.readUTF(), readCredentials(in));
+            }
+            while (in.readBoolean()) {
+                state.addPatient(in.readUTF(), readCredentials(in));
+            }
+            while (in.readBoolean()) {
+                state.addVaccine(in.readUTF(), in.readInt());
+            }
+            List<Date> dates = new ArrayList<>();
+            while (in.readBoolean()) {
+                String caregiver = in.readUTF();
+                dates.clear();
+                for (int count = in.readInt(); count > 0; count--) {
+                    dates.add(Date.valueOf(LocalDate.ofEpochDay(in.readInt())));
+                }
+                state.addAvailability(caregiver, dates);
+            }
+            while (in.readBoolean()) {
+                state.restoreReservation(readReservation(in));
+            }
+            while (version >= 2 && in.readBoolean()) {
+                state.restoreArchived(readReservation(in));
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Journal snapshot is corrupt: " + file);
+            }
+            return firstSegment;
+        }
+    }
+
+    private void writeSnapshot(long firstSegment) throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream raw = new FileOutputStream(tmp.toFile())) {
+            DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(raw, 1 << 16), crc));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(firstSegment);
+            out.writeInt(state.getLastReservationId());
+            writeUsers(out, state.getCaregivers());
+            writeUsers(out, state.getPatients());
+            for (Map.Entry<String, Integer> vaccine : state.getAllDoses().entrySet()) {
+                out.writeBoolean(true);
+                out.writeUTF(vaccine.getKey());
+                out.writeInt(vaccine.getValue());
+            }
+            out.writeBoolean(false);
+            for (Map.Entry<String, List<Integer>> caregiver : availabilityByCaregiver().entrySet()) {
+                out.writeBoolean(true);
+                out.writeUTF(caregiver.getKey());
+                out.writeInt(caregiver.getValue().size());
+                for (int day : caregiver.getValue()) {
+                    out.writeInt(day);
+                }
+            }
+            out.writeBoolean(false);
+            writeReservations(out, state.getReservations());
+            writeReservations(out, state.getArchivedReservations());
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            raw.getFD().sync();
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Map<String, List<Integer>> availabilityByCaregiver() {
+        Map<String, List<Integer>> result = new HashMap<>();
+        state.getIndex().forEach((caregiver, date) ->
+                result.computeIfAbsent(caregiver, k -> new ArrayList<>()).add((int) date.toEpochDay()));
+        return result;
+    }
+
+    private static void writeUsers(DataOutputStream out, Map<String, StoredCredentials> users) throws IOException {
+        for (Map.Entry<String, StoredCredentials> user : users.entrySet()) {
+            out.writeBoolean(true);
+            out.writeUTF(user.getKey());
+            StoredCredentials credentials = user.getValue();
+            out.writeShort(credentials.getSalt().length);
+            out.write(credentials.getSalt());
+            out.writeShort(credentials.getHash().length);
+            out.write(credentials.getHash());
+            out.writeUTF(credentials.getHashParams().encode());
+        }
+        out.writeBoolean(false);
+    }
+
+    private static void writeReservations(DataOutputStream out, List<ReservationRecord> reservations)
+            throws IOException {
+        for (ReservationRecord reservation : reservations) {
+            out.writeBoolean(true);
+            out.writeInt(reservation.getReservationId());
+            out.writeUTF(reservation.getPatientUsername());
+            out.writeUTF(reservation.getCaregiverUsername());
+            out.writeUTF(reservation.getVaccineName());
+            out.writeInt((int) reservation.getDate().toLocalDate().toEpochDay());
+        }
+        out.writeBoolean(false);
+    }
+
+    private static ReservationRecord readReservation(DataInputStream in) throws IOException {
+        return new ReservationRecord(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF(),
+                Date.valueOf(LocalDate.ofEpochDay(in.readInt())));
+    }
+
+    private static StoredCredentials readCredentials(DataInputStream in) throws IOException {
+        byte[] salt = new byte[in.readShort()];
+        in.readFully(salt);
+        byte[] hash = new byte[in.readShort()];
+        in.readFully(hash);
+        return new StoredCredentials(salt, hash, HashParams.decode(in.readUTF()));
+    }
+
+    private static void putReservation(ByteBuffer b, ReservationRecord reservation) {
+        b.putInt(reservation.getReservationId());
+        putString(b, reservation.getPatientUsername());
+        putString(b, reservation.getCaregiverUsername());
+        putString(b, reservation.getVaccineName());
+        b.putInt((int) reservation.getDate().toLocalDate().toEpochDay());
+    }
+
+    private static ReservationRecord getReservation(ByteBuffer b) {
+        return new ReservationRecord(b.getInt(), getString(b), getString(b), getString(b), getDate(b));
+    }
+
+    private static void putCredentials(ByteBuffer b, StoredCredentials credentials) {
+        putBytes(b, credentials.getSalt());
+        putBytes(b, credentials.getHash());
+        putString(b, credentials.getHashParams().encode());
+    }
+
+    private static StoredCredentials getCredentials(ByteBuffer b) {
+        return new StoredCredentials(getBytes(b), getBytes(b), HashParams.decode(getString(b)));
+    }
+
+    private static void putString(ByteBuffer b, String value) {
+        putBytes(b, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String getString(ByteBuffer b) {
+        return new String(getBytes(b), StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer b, byte[] value) {
+        b.putShort((short) value.length);
+        b.put(value);
+    }
+
+    private static byte[] getBytes(ByteBuffer b) {
+        byte[] value = new byte[b.getShort() & 0xffff];
+        b.get(value);
+        return value;
+    }
+
+    private static Date getDate(ByteBuffer b) {
+        return Date.valueOf(LocalDate.ofEpochDay(b.getInt()));
+    }
+}
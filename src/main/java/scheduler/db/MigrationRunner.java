@@ -0,0 +1,230 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Applies the schema migrations under one location, e.g. sqlite/migrations, in order.
+ *
+ * The location holds an index.txt naming the migration files, one per line, each called V<version>__<name>.sql.
+ * Every applied migration is recorded in schema_migrations with a SHA-256 checksum of its text; a migration
+ * that was edited after it was applied stops the run, since the database no longer matches the file. Each
+ * migration runs in its own transaction, which starts by claiming the migration's row, so two processes
+ * starting at once cannot both apply it.
+ *
+ * SQLite has no ALTER TABLE ... ADD COLUMN IF NOT EXISTS, so the runner checks for the column itself and leaves
+ * out the ALTER when it is already there. That lets a migration add a column that some databases have and others
+ * lack, in either dialect.
+ *
+ * Files are read from the classpath, falling back to src/main/resources when running from the source tree.
+ */
+public class MigrationRunner {
+
+    private static final String SOURCE_ROOT = "src/main/resources";
+    private static final Pattern ADD_COLUMN_IF_NOT_EXISTS = Pattern.compile(
+            "ALTER\\s+TABLE\\s+(\\w+)\\s+ADD\\s+COLUMN\\s+IF\\s+NOT\\s+EXISTS\\s+(\\w+)(.*)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final String location;
+
+    public MigrationRunner(String location) {
+        this.location = location.endsWith("/") ? location.substring(0, location.length() - 1) : location;
+    }
+
+    // applies every pending migration, returns the names of the ones applied
+    public List<String> migrate(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                    "version INTEGER PRIMARY KEY, " +
+                    "name varchar(255) NOT NULL, " +
+                    "checksum varchar(64) NOT NULL, " +
+                    "applied_at varchar(32) NOT NULL)");
+        }
+        Map<Integer, String> applied = loadApplied(con);
+
+        List<String> ran = new ArrayList<>();
+        for (String name : readLines(location + "/index.txt")) {
+            int version = versionOf(name);
+            String sql = read(location + "/" + name);
+            String checksum = checksum(sql);
+            String appliedChecksum = applied.get(version);
+            if (appliedChecksum != null) {
+                if (!appliedChecksum.equals(checksum)) {
+                    throw new IllegalStateException("Migration " + name + " was changed after it was applied!");
+                }
+                continue;
+            }
+            if (apply(con, version, name, sql, checksum)) {
+                ran.add(name);
+            }
+        }
+        return ran;
+    }
+
+    private boolean apply(Connection con, int version, String name, String sql, String checksum)
+            throws SQLException {
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            String claim = "INSERT INTO schema_migrations (version, name, checksum, applied_at) VALUES (?, ?, ?, ?)";
+            try (PreparedStatement statement = con.prepareStatement(claim)) {
+                statement.setInt(1, version);
+                statement.setString(2, name);
+                statement.setString(3, checksum);
+                statement.setString(4, Instant.now().toString());
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                // somebody else applied it first; their checksum is verified on the next run
+                con.rollback();
+                if (loadApplied(con).containsKey(version)) {
+                    return false;
+                }
+                throw e;
+            }
+            try (Statement statement = con.createStatement()) {
+                for (String part : splitStatements(sql)) {
+                    execute(statement, part);
+                }
+            }
+            con.commit();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void execute(Statement statement, String sql) throws SQLException {
+        Matcher addColumn = ADD_COLUMN_IF_NOT_EXISTS.matcher(sql);
+        if (!addColumn.matches()) {
+            statement.execute(sql);
+            return;
+        }
+        String table = addColumn.group(1);
+        String column = addColumn.group(2);
+        if (!hasColumn(statement, table, column)) {
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN " + column + addColumn.group(3));
+        }
+    }
+
+    // asks the table itself rather than the catalog, which names and cases its tables differently in each dialect
+    private static boolean hasColumn(Statement statement, String table, String column) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (metaData.getColumnName(i).equalsIgnoreCase(column)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Map<Integer, String> loadApplied(Connection con) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement statement = con.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt(1), resultSet.getString(2));
+            }
+        }
+        return applied;
+    }
+
+    // splits a script on the semicolons ending its statements, dropping -- comment lines
+    public static List<String> splitStatements(String sql) {
+        StringBuilder current = new StringBuilder();
+        List<String> statements = new ArrayList<>();
+        for (String line : sql.split("\n")) {
+            if (line.trim().startsWith("--")) {
+                continue;
+            }
+            current.append(line).append('\n');
+            if (line.trim().endsWith(";")) {
+                addStatement(statements, current);
+            }
+        }
+        addStatement(statements, current);
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, StringBuilder current) {
+        String statement = current.toString().trim();
+        if (statement.endsWith(";")) {
+            statement = statement.substring(0, statement.length() - 1).trim();
+        }
+        if (!statement.isEmpty()) {
+            statements.add(statement);
+        }
+        current.setLength(0);
+    }
+
+    private static int versionOf(String name) {
+        int end = name.indexOf("__");
+        if (!name.startsWith("V") || end < 2) {
+            throw new IllegalStateException("Migration file names look like V001__name.sql: " + name);
+        }
+        return Integer.parseInt(name.substring(1, end));
+    }
+
+    private static String checksum(String sql) {
+        try {
+            // line endings depend on the checkout, not on the migration
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(sql.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> readLines(String resource) {
+        List<String> lines = new ArrayList<>();
+        for (String line : read(resource).split("\n")) {
+            if (!line.trim().isEmpty() && !line.trim().startsWith("#")) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = MigrationRunner.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in != null) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            Path path = Paths.get(SOURCE_ROOT, resource);
+            if (Files.exists(path)) {
+                return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read migration " + resource, e);
+        }
+        throw new IllegalStateException("Migration not found: " + resource);
+    }
+}
@@ -0,0 +1,96 @@
+package scheduler.db;
+
+import java.io.PrintWriter;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Prints SQLite's query plan for each hot statement and flags the ones that scan a whole table.
+ *
+ * The statements are the lookups the scheduler runs per command; keep them in step with the model classes.
+ * Run it with Scheduler --check-plans after changing a query or an index.
+ */
+public class QueryPlans {
+
+    private static final Map<String, String> HOT_STATEMENTS = new LinkedHashMap<>();
+
+    static {
+        HOT_STATEMENTS.put("caregiver login",
+                "SELECT Salt, Hash, HashParams FROM Caregivers WHERE Username = ?");
+        HOT_STATEMENTS.put("patient login",
+                "SELECT Salt, Hash, HashParams FROM Patients WHERE Username = ?");
+        HOT_STATEMENTS.put("vaccine lookup",
+                "SELECT Name, Doses FROM Vaccines WHERE Name = ?");
+        HOT_STATEMENTS.put("search by date",
+                "SELECT caregiver_username FROM Availabilities WHERE available_date = ? ORDER BY caregiver_username");
+        HOT_STATEMENTS.put("claim availability",
+                "DELETE FROM Availabilities WHERE caregiver_username = ? AND available_date = ?");
+        HOT_STATEMENTS.put("take dose",
+                "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0");
+        HOT_STATEMENTS.put("appointments by patient",
+                "SELECT reservation_id, patient_username, caregiver_username, vaccine_name, appointment_date " +
+                        "FROM Reservations WHERE patient_username = ? AND reservation_id > ? " +
+                        "ORDER BY reservation_id LIMIT ?");
+        HOT_STATEMENTS.put("appointments by caregiver",
+                "SELECT reservation_id, patient_username, caregiver_username, vaccine_name, appointment_date " +
+                        "FROM Reservations WHERE caregiver_username = ? AND reservation_id > ? " +
+                        "ORDER BY reservation_id LIMIT ?");
+        HOT_STATEMENTS.put("cancel day",
+                "SELECT reservation_id, patient_username, vaccine_name FROM Reservations " +
+                        "WHERE caregiver_username = ? AND appointment_date = ? ORDER BY reservation_id");
+        HOT_STATEMENTS.put("archived appointments by patient",
+                "SELECT reservation_id, patient_username, caregiver_username, vaccine_name, appointment_date " +
+                        "FROM ArchivedReservations WHERE patient_username = ? AND reservation_id > ? " +
+                        "ORDER BY reservation_id LIMIT ?");
+        HOT_STATEMENTS.put("archived appointments by caregiver",
+                "SELECT reservation_id, patient_username, caregiver_username, vaccine_name, appointment_date " +
+                        "FROM ArchivedReservations WHERE caregiver_username = ? AND reservation_id > ? " +
+                        "ORDER BY reservation_id LIMIT ?");
+        HOT_STATEMENTS.put("sweep appointments",
+                "SELECT reservation_id FROM Reservations WHERE appointment_date < ? " +
+                        "ORDER BY appointment_date, reservation_id LIMIT ?");
+        HOT_STATEMENTS.put("sweep availability",
+                "SELECT caregiver_username, available_date FROM Availabilities WHERE available_date < ? " +
+                        "ORDER BY available_date, caregiver_username LIMIT ?");
+    }
+
+    // returns the number of statements that scan a whole table
+    public static int check(PrintWriter out) throws SQLException {
+        int scans = 0;
+        ConnectionManager cm = new ConnectionManager();
+        try {
+            for (Map.Entry<String, String> entry : HOT_STATEMENTS.entrySet()) {
+                PreparedStatement statement = cm.prepareStatement("EXPLAIN QUERY PLAN " + entry.getValue());
+                // EXPLAIN never runs the statement, so the parameters only need to be bound
+                int parameters = entry.getValue().length() - entry.getValue().replace("?", "").length();
+                for (int i = 1; i <= parameters; i++) {
+                    statement.setString(i, "");
+                }
+                StringBuilder plan = new StringBuilder();
+                boolean scan = false;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String detail = resultSet.getString("detail");
+                        plan.append("    ").append(detail).append(System.lineSeparator());
+                        // SEARCH uses an index to find the rows; SCAN walks every row of a table or index
+                        if (detail.startsWith("SCAN")) {
+                            scan = true;
+                        }
+                    }
+                }
+                if (scan) {
+                    scans++;
+                }
+                out.println((scan ? "SCAN  " : "OK    ") + entry.getKey() + ": " + entry.getValue());
+                out.print(plan);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        out.flush();
+        return scans;
+    }
+}
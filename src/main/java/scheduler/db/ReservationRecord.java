@@ -0,0 +1,42 @@
+package scheduler.db;
+
+import java.sql.Date;
+
+// One row of Reservations, as a storage engine hands it back
+public class ReservationRecord {
+    private final int reservationId;
+    private final String patientUsername;
+    private final String caregiverUsername;
+    private final String vaccineName;
+    private final Date date;
+
+    public ReservationRecord(int reservationId, String patientUsername, String caregiverUsername, String vaccineName,
+                             Date date) {
+        this.reservationId = reservationId;
+        this.patientUsername = patientUsername;
+        this.caregiverUsername = caregiverUsername;
+        this.vaccineName = vaccineName;
+        this.date = date;
+    }
+
+    // Getters
+    public int getReservationId() {
+        return reservationId;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+}
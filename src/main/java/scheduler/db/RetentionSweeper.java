@@ -0,0 +1,146 @@
+package scheduler.db;
+
+import scheduler.util.Histogram;
+import scheduler.util.Metrics;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Keeps the hot tables to what is still ahead: appointments more than retentionDays in the past move to the
+ * archive, where show_appointments --archive still finds them, and free slots whose day has passed are deleted.
+ *
+ * A sweep works in chunks of at most chunk rows, oldest first, each its own transaction on the engine's writer, so
+ * reserves and uploads queue behind one small chunk at a time rather than behind the whole backlog. It stops when
+ * a chunk comes back empty. Each sweep's time goes to the retention.sweep histogram and its rows to the
+ * retention.archived and retention.purged counters.
+ */
+public class RetentionSweeper {
+
+    public static final int DEFAULT_RETENTION_DAYS = 365;
+    public static final int DEFAULT_CHUNK = 500;
+    public static final int DEFAULT_SWEEP_MINUTES = 60;
+
+    private final StorageEngine engine;
+    private final int retentionDays;
+    private final int chunk;
+    private final Histogram sweeps = Metrics.histogram("retention.sweep");
+
+    private ScheduledExecutorService scheduler = null;
+
+    private RetentionSweeper(RetentionSweeperBuilder builder) {
+        this.engine = builder.engine;
+        this.retentionDays = builder.retentionDays;
+        this.chunk = builder.chunk;
+    }
+
+    // RetentionDays (default 365) and RetentionChunk (default 500)
+    public static RetentionSweeper fromEnvironment(StorageEngine engine) {
+        return new RetentionSweeperBuilder(engine)
+                .retentionDays(envInt("RetentionDays", DEFAULT_RETENTION_DAYS))
+                .chunk(envInt("RetentionChunk", DEFAULT_CHUNK))
+                .build();
+    }
+
+    // RetentionSweepMinutes, default 60; 0 turns the background sweep off
+    public static int getSweepMinutes() {
+        return envInt("RetentionSweepMinutes", DEFAULT_SWEEP_MINUTES);
+    }
+
+    // one sweep as of today; returns a line saying what it did
+    public String sweep() throws SQLException {
+        LocalDate today = LocalDate.now();
+        Date archiveBefore = Date.valueOf(today.minusDays(retentionDays));
+        Date purgeBefore = Date.valueOf(today);
+        long start = System.nanoTime();
+        long archived = 0;
+        long purged = 0;
+        int moved;
+        while ((moved = engine.archiveReservations(archiveBefore, chunk)) > 0) {
+            archived += moved;
+        }
+        while ((moved = engine.purgeAvailability(purgeBefore, chunk)) > 0) {
+            purged += moved;
+        }
+        long elapsed = System.nanoTime() - start;
+        sweeps.record(elapsed);
+        Metrics.add("retention.archived", archived);
+        Metrics.add("retention.purged", purged);
+        return String.format("Retention sweep: archived %d appointments before %s, purged %d slots before %s "
+                + "in %d ms", archived, archiveBefore, purged, purgeBefore, elapsed / 1000000);
+    }
+
+    // sweeps now and then every intervalMinutes, on a daemon thread
+    public synchronized void start(int intervalMinutes) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "retention-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // fixed delay, so a slow sweep never overlaps the next one
+        scheduler.scheduleWithFixedDelay(this::sweepAndReport, 0, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    private void sweepAndReport() {
+        try {
+            System.out.println(sweep());
+        } catch (SQLException e) {
+            Metrics.countError(e);
+            System.out.println("Retention sweep failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // an exception would cancel the schedule; report it and try again next time
+            System.out.println("Retention sweep failed: " + e);
+        }
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static class RetentionSweeperBuilder {
+        private final StorageEngine engine;
+        private int retentionDays = DEFAULT_RETENTION_DAYS;
+        private int chunk = DEFAULT_CHUNK;
+
+        public RetentionSweeperBuilder(StorageEngine engine) {
+            this.engine = engine;
+        }
+
+        // appointments dated more than this many days ago are archived; 0 archives every past appointment
+        public RetentionSweeperBuilder retentionDays(int retentionDays) {
+            if (retentionDays < 0) {
+                throw new IllegalArgumentException("RetentionDays must not be negative");
+            }
+            this.retentionDays = retentionDays;
+            return this;
+        }
+
+        public RetentionSweeperBuilder chunk(int chunk) {
+            if (chunk < 1) {
+                throw new IllegalArgumentException("RetentionChunk must be at least 1");
+            }
+            this.chunk = chunk;
+            return this;
+        }
+
+        public RetentionSweeper build() {
+            return new RetentionSweeper(this);
+        }
+    }
+}
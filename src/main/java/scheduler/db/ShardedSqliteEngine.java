@@ -0,0 +1,465 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+ * SQLite split over several database files, so writes for different dates do not queue behind one write lock.
+ *
+ * The file at DBPath is the catalog: users and vaccines, with every dose count. Availabilities and Reservations
+ * live in the shards, DBPath.shard0 to DBPath.shard<n-1>, each with its own reader pool and writer thread.
+ * Calendar months are dealt to the shards in turn, so a date always lives in the shard of its month, a date
+ * range only touches the shards of the months it spans, and the months being booked now are spread over every
+ * shard instead of all landing in the newest one.
+ *
+ * A reservation takes its dose in the catalog first and then books the slot in its shard; if the slot cannot be
+ * booked, the dose is given back. Cancels free the slot first and then return the dose. Either way a crash
+ * between the two writes can leave a dose unused but can never hand one out twice.
+ *
+ * Reservation ids are unique across shards: a shard's own id times the shard count, plus the shard's number.
+ * show_appointments and exports ask every shard involved for a page in id order and merge them, so paging by id
+ * works as it does on one file. The shard count is recorded in every file on first start and cannot change
+ * afterwards.
+ */
+public class ShardedSqliteEngine implements StorageEngine {
+
+    // rows asked of each shard at a time while merging
+    private static final int MERGE_PAGE = 256;
+    private static final int CATALOG = -1;
+
+    private final SqliteEngine catalog;
+    private final DatabaseWriter catalogWriter;
+    private final List<SqliteEngine> shards = new ArrayList<>();
+    private final List<DatabaseWriter> shardWriters = new ArrayList<>();
+
+    public ShardedSqliteEngine(ConnectionPool catalogPool, DatabaseWriter catalogWriter, int shardCount) {
+        if (shardCount < 2) {
+            throw new IllegalArgumentException("A sharded database needs at least two shards");
+        }
+        this.catalog = new SqliteEngine(catalogPool, catalogWriter);
+        this.catalogWriter = catalogWriter;
+        for (int i = 0; i < shardCount; i++) {
+            String url = catalogPool.getConnectionUrl() + ".shard" + i;
+            DatabaseWriter writer = new DatabaseWriter(url, ConnectionManager.getWriteBatchSize(),
+                    ConnectionManager.getWriteMaxDelayMicros(), "database-writer-shard" + i);
+            shardWriters.add(writer);
+            shards.add(new SqliteEngine(ConnectionManager.newReadPool(url), writer, false));
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    @Override
+    public List<String> migrate() throws SQLException {
+        List<String> applied = new ArrayList<>(catalog.migrate(false));
+        checkLayout(catalogWriter, CATALOG);
+        for (int i = 0; i < shards.size(); i++) {
+            for (String migration : shards.get(i).migrate(false)) {
+                applied.add(migration + " (shard " + i + ")");
+            }
+            checkLayout(shardWriters.get(i), i);
+        }
+        return applied;
+    }
+
+    @Override
+    public void addCaregiver(String username, StoredCredentials credentials) throws SQLException {
+        catalog.addCaregiver(username, credentials);
+    }
+
+    @Override
+    public StoredCredentials getCaregiver(String username) throws SQLException {
+        return catalog.getCaregiver(username);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return catalog.caregiverExists(username);
+    }
+
+    @Override
+    public void addPatient(String username, StoredCredentials credentials) throws SQLException {
+        catalog.addPatient(username, credentials);
+    }
+
+    @Override
+    public int addCaregivers(Map<String, StoredCredentials> caregivers) throws SQLException {
+        return catalog.addCaregivers(caregivers);
+    }
+
+    @Override
+    public int addPatients(Map<String, StoredCredentials> patients) throws SQLException {
+        return catalog.addPatients(patients);
+    }
+
+    @Override
+    public StoredCredentials getPatient(String username) throws SQLException {
+        return catalog.getPatient(username);
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return catalog.patientExists(username);
+    }
+
+    @Override
+    public void addVaccine(String name, int doses) throws SQLException {
+        catalog.addVaccine(name, doses);
+    }
+
+    @Override
+    public Integer getDoses(String name) throws SQLException {
+        return catalog.getDoses(name);
+    }
+
+    @Override
+    public SortedMap<String, Integer> getAllDoses() throws SQLException {
+        return catalog.getAllDoses();
+    }
+
+    @Override
+    public void increaseDoses(String name, int num) throws SQLException {
+        catalog.increaseDoses(name, num);
+    }
+
+    @Override
+    public void decreaseDoses(String name, int num) throws SQLException {
+        catalog.decreaseDoses(name, num);
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> dosesByVaccine) throws SQLException {
+        catalog.addDoses(dosesByVaccine);
+    }
+
+    @Override
+    public void loadAvailability(BiConsumer<String, LocalDate> sink) throws SQLException {
+        for (SqliteEngine shard : shards) {
+            shard.loadAvailability(sink);
+        }
+    }
+
+    @Override
+    public void addAvailability(String caregiver, Date date) throws SQLException {
+        shardFor(date).addAvailability(caregiver, date);
+    }
+
+    @Override
+    public List<Date> addAvailability(String caregiver, List<Date> dates) throws SQLException {
+        Map<Integer, List<Date>> byShard = new LinkedHashMap<>();
+        for (Date date : dates) {
+            byShard.computeIfAbsent(shardOf(date), k -> new ArrayList<>()).add(date);
+        }
+        List<Date> added = new ArrayList<>();
+        for (Map.Entry<Integer, List<Date>> shard : byShard.entrySet()) {
+            added.addAll(shards.get(shard.getKey()).addAvailability(caregiver, shard.getValue()));
+        }
+        Collections.sort(added);
+        return added;
+    }
+
+    @Override
+    public int addAvailability(Map<String, List<Date>> datesByCaregiver) throws SQLException {
+        Map<Integer, Map<String, List<Date>>> byShard = new TreeMap<>();
+        for (Map.Entry<String, List<Date>> caregiver : datesByCaregiver.entrySet()) {
+            for (Date date : caregiver.getValue()) {
+                byShard.computeIfAbsent(shardOf(date), k -> new LinkedHashMap<>())
+                        .computeIfAbsent(caregiver.getKey(), k -> new ArrayList<>()).add(date);
+            }
+        }
+        // one transaction per shard; a failure part way leaves the shards before it written
+        int added = 0;
+        for (Map.Entry<Integer, Map<String, List<Date>>> shard : byShard.entrySet()) {
+            added += shards.get(shard.getKey()).addAvailability(shard.getValue());
+        }
+        return added;
+    }
+
+    @Override
+    public void streamAvailability(BiConsumer<String, LocalDate> sink) throws SQLException {
+        loadAvailability(sink);
+    }
+
+    @Override
+    public ReservationRecord reserve(String patient, Date date, String vaccine) throws SQLException {
+        if (AvailabilityIndex.getInstance().firstCaregiverOn(date) == null) {
+            return null;
+        }
+        // throws if the vaccine has no doses left
+        catalog.decreaseDoses(vaccine, 1);
+        int shard = shardOf(date);
+        ReservationRecord booked;
+        try {
+            booked = shards.get(shard).reserve(patient, date, vaccine);
+        } catch (SQLException | RuntimeException e) {
+            catalog.increaseDoses(vaccine, 1);
+            throw e;
+        }
+        if (booked == null) {
+            catalog.increaseDoses(vaccine, 1);
+            return null;
+        }
+        return globalize(booked, shard);
+    }
+
+    @Override
+    public List<ReservationRecord> reserveAll(List<BookingRequest> requests) throws SQLException {
+        List<String> vaccines = new ArrayList<>(requests.size());
+        for (BookingRequest request : requests) {
+            vaccines.add(request.getVaccineName());
+        }
+        // every dose in one catalog transaction, then one transaction per shard for the requests that got one
+        boolean[] dosed = catalog.takeDoses(vaccines);
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (dosed[i]) {
+                byShard.computeIfAbsent(shardOf(requests.get(i).getDate()), k -> new ArrayList<>()).add(i);
+            }
+        }
+        List<ReservationRecord> booked = new ArrayList<>(Collections.nCopies(requests.size(), null));
+        try {
+            for (Map.Entry<Integer, List<Integer>> shard : byShard.entrySet()) {
+                List<BookingRequest> batch = new ArrayList<>(shard.getValue().size());
+                for (int i : shard.getValue()) {
+                    batch.add(requests.get(i));
+                }
+                List<ReservationRecord> results = shards.get(shard.getKey()).reserveAll(batch);
+                for (int j = 0; j < results.size(); j++) {
+                    if (results.get(j) != null) {
+                        booked.set(shard.getValue().get(j), globalize(results.get(j), shard.getKey()));
+                    }
+                }
+            }
+        } finally {
+            // give back every dose that did not end up in a reservation, including after a failure
+            Map<String, Integer> unused = new TreeMap<>();
+            for (int i = 0; i < requests.size(); i++) {
+                if (dosed[i] && booked.get(i) == null) {
+                    unused.merge(vaccines.get(i), 1, Integer::sum);
+                }
+            }
+            catalog.returnDoses(unused);
+        }
+        return booked;
+    }
+
+    @Override
+    public ReservationRecord cancel(int reservationId, String username, boolean caregiver) throws SQLException {
+        if (reservationId <= 0) {
+            return null;
+        }
+        int shard = reservationId % shards.size();
+        ReservationRecord cancelled = shards.get(shard).cancel(reservationId / shards.size(), username, caregiver);
+        if (cancelled == null) {
+            return null;
+        }
+        catalog.increaseDoses(cancelled.getVaccineName(), 1);
+        return globalize(cancelled, shard);
+    }
+
+    @Override
+    public CancelDayResult cancelDay(String caregiver, Date date) throws SQLException {
+        int shard = shardOf(date);
+        CancelDayResult result = shards.get(shard).cancelDay(caregiver, date);
+        Map<String, Integer> returned = new TreeMap<>();
+        List<ReservationRecord> released = new ArrayList<>(result.getReleased().size());
+        for (ReservationRecord reservation : result.getReleased()) {
+            returned.merge(reservation.getVaccineName(), 1, Integer::sum);
+            released.add(globalize(reservation, shard));
+        }
+        catalog.returnDoses(returned);
+        List<ReservationRecord> rebooked = new ArrayList<>(result.getRebooked().size());
+        for (ReservationRecord reservation : result.getRebooked()) {
+            rebooked.add(globalize(reservation, shard));
+        }
+        return new CancelDayResult(rebooked, released);
+    }
+
+    @Override
+    public int streamAppointments(AppointmentQuery query, Consumer<ReservationRecord> sink) throws SQLException {
+        return merge(shardsBetween(query.getFrom(), query.getTo()), query.getAfterId(), query.getLimit(),
+                (shard, afterId, limit, page) -> shards.get(shard).streamAppointments(
+                        new AppointmentQuery.AppointmentQueryBuilder(query.getUsername(), query.isCaregiver())
+                                .after(afterId).limit(limit).from(query.getFrom()).to(query.getTo())
+                                .archived(query.isArchived()).build(), page),
+                sink);
+    }
+
+    @Override
+    public void streamReservations(Consumer<ReservationRecord> sink) throws SQLException {
+        merge(shardsBetween(null, null), 0, 0,
+                (shard, afterId, limit, page) -> shards.get(shard).streamReservations(afterId, limit, page), sink);
+    }
+
+    @Override
+    public int archiveReservations(Date before, int limit) throws SQLException {
+        // each shard archives into its own ArchivedReservations, so archived ids stay shard-local like live ones
+        int moved = 0;
+        for (SqliteEngine shard : shards) {
+            if (moved == limit) {
+                break;
+            }
+            moved += shard.archiveReservations(before, limit - moved);
+        }
+        return moved;
+    }
+
+    @Override
+    public int purgeAvailability(Date before, int limit) throws SQLException {
+        int purged = 0;
+        for (SqliteEngine shard : shards) {
+            if (purged == limit) {
+                break;
+            }
+            purged += shard.purgeAvailability(before, limit - purged);
+        }
+        return purged;
+    }
+
+    private interface PageReader {
+        // hands the shard's reservations with local ids after afterId to page, in id order, at most limit of them
+        int read(int shard, int afterId, int limit, Consumer<ReservationRecord> page) throws SQLException;
+    }
+
+    // Scatter-gather: reads a page at a time from each shard and hands their reservations on in global id order,
+    // until limit have gone (0 for no limit) or every shard has run out; returns how many went.
+    private int merge(List<Integer> shardNumbers, int afterId, int limit, PageReader reader,
+                      Consumer<ReservationRecord> sink) throws SQLException {
+        int pageSize = limit == 0 ? MERGE_PAGE : Math.min(limit, MERGE_PAGE);
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(
+                (a, b) -> Integer.compare(a.page.peek().getReservationId(), b.page.peek().getReservationId()));
+        for (int shard : shardNumbers) {
+            // local id l has global id l * n + shard, which is after afterId exactly when l is after this
+            Cursor cursor = new Cursor(shard, Math.floorDiv(afterId - shard, shards.size()));
+            if (cursor.fill(reader, pageSize)) {
+                cursors.add(cursor);
+            }
+        }
+        int count = 0;
+        while (!cursors.isEmpty() && (limit == 0 || count < limit)) {
+            Cursor cursor = cursors.poll();
+            sink.accept(cursor.page.poll());
+            count++;
+            if (cursor.fill(reader, pageSize)) {
+                cursors.add(cursor);
+            }
+        }
+        return count;
+    }
+
+    // one shard's place in a merge: the rest of its current page, already with global ids
+    private class Cursor {
+        private final int shard;
+        private final ArrayDeque<ReservationRecord> page = new ArrayDeque<>();
+        private int lastLocalId;
+        private boolean exhausted = false;
+
+        Cursor(int shard, int afterLocalId) {
+            this.shard = shard;
+            this.lastLocalId = afterLocalId;
+        }
+
+        // reads the next page if this one is used up; returns false once the shard has nothing more
+        boolean fill(PageReader reader, int pageSize) throws SQLException {
+            if (page.isEmpty() && !exhausted) {
+                int read = reader.read(shard, lastLocalId, pageSize, reservation -> {
+                    lastLocalId = reservation.getReservationId();
+                    page.add(globalize(reservation, shard));
+                });
+                exhausted = read < pageSize;
+            }
+            return !page.isEmpty();
+        }
+    }
+
+    private SqliteEngine shardFor(Date date) {
+        return shards.get(shardOf(date));
+    }
+
+    private int shardOf(Date date) {
+        LocalDate day = date.toLocalDate();
+        return Math.floorMod(day.getYear() * 12 + day.getMonthValue() - 1, shards.size());
+    }
+
+    // the shards holding any month from from to to, every shard if either end is open
+    private List<Integer> shardsBetween(Date from, Date to) {
+        TreeSet<Integer> wanted = new TreeSet<>();
+        if (from != null && to != null) {
+            LocalDate month = from.toLocalDate().withDayOfMonth(1);
+            LocalDate last = to.toLocalDate();
+            while (!month.isAfter(last) && wanted.size() < shards.size()) {
+                wanted.add(shardOf(Date.valueOf(month)));
+                month = month.plusMonths(1);
+            }
+            return new ArrayList<>(wanted);
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            wanted.add(i);
+        }
+        return new ArrayList<>(wanted);
+    }
+
+    private ReservationRecord globalize(ReservationRecord reservation, int shard) {
+        long id = (long) reservation.getReservationId() * shards.size() + shard;
+        if (id > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Reservation id " + reservation.getReservationId() + " in shard " +
+                    shard + " is too large to number across " + shards.size() + " shards");
+        }
+        return new ReservationRecord((int) id, reservation.getPatientUsername(),
+                reservation.getCaregiverUsername(), reservation.getVaccineName(), reservation.getDate());
+    }
+
+    private static boolean hasRows(ConnectionManager cm, String table) throws SQLException {
+        try (ResultSet resultSet = cm.prepareStatement("SELECT 1 FROM " + table + " LIMIT 1").executeQuery()) {
+            return resultSet.next();
+        }
+    }
+
+    // records which part of the layout the file is on first start, and refuses a file from another layout
+    private void checkLayout(DatabaseWriter writer, int index) throws SQLException {
+        int count = shards.size();
+        String getLayout = "SELECT shard_count, shard_index FROM ShardLayout";
+        String setLayout = "INSERT INTO ShardLayout (shard_count, shard_index) VALUES (?, ?)";
+        int[] found = writer.execute(cm -> {
+            try (ResultSet resultSet = cm.prepareStatement(getLayout).executeQuery()) {
+                if (resultSet.next()) {
+                    return new int[]{resultSet.getInt("shard_count"), resultSet.getInt("shard_index")};
+                }
+            }
+            if (index == CATALOG && (hasRows(cm, "Availabilities") || hasRows(cm, "Reservations")
+                    || hasRows(cm, "ArchivedReservations"))) {
+                // an unsharded database being opened sharded; its slots and appointments would vanish from view
+                throw new IllegalStateException("DBPath already holds availability or reservations; shard a new " +
+                        "database, or leave DBShards unset for this one");
+            }
+            PreparedStatement statement = cm.prepareStatement(setLayout);
+            statement.setInt(1, count);
+            statement.setInt(2, index);
+            statement.executeUpdate();
+            return new int[]{count, index};
+        });
+        if (found[0] != count || found[1] != index) {
+            String expected = index == CATALOG ? "the catalog" : "shard " + index;
+            String actual = found[1] == CATALOG ? "the catalog" : "shard " + found[1];
+            throw new IllegalStateException("Expected " + expected + " of " + count + " shards but found " + actual +
+                    " of " + found[0] + "; DBShards cannot change once a database is sharded");
+        }
+    }
+}
@@ -0,0 +1,888 @@
+package scheduler.db;
+
+import scheduler.util.CredentialHasher.HashParams;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+ * The SQLite storage engine.
+ *
+ * Reads lease a connection from the pool; every write goes through the DatabaseWriter, so it is applied by the
+ * single writer thread inside a group commit. Availability is mirrored in the AvailabilityIndex, which this
+ * engine keeps in step with the Availabilities table.
+ *
+ * As one shard of a ShardedSqliteEngine it keeps no doses: Vaccines lives in the catalog, and reserve and cancel
+ * here only book and free the slot, leaving the dose to the caller.
+ */
+public class SqliteEngine implements StorageEngine {
+
+    // rows the driver reads ahead while streaming appointments, availability or an export
+    private static final int STREAM_FETCH_SIZE = 256;
+    private static final String CLAIM_AVAILABILITY =
+            "DELETE FROM Availabilities WHERE caregiver_username = ? AND available_date = ?";
+
+    private final ConnectionPool pool;
+    private final DatabaseWriter writer;
+    // false for a shard, whose reservations take their doses from the catalog instead
+    private final boolean tracksDoses;
+
+    public SqliteEngine(ConnectionPool pool, DatabaseWriter writer) {
+        this(pool, writer, true);
+    }
+
+    SqliteEngine(ConnectionPool pool, DatabaseWriter writer, boolean tracksDoses) {
+        this.pool = pool;
+        this.writer = writer;
+        this.tracksDoses = tracksDoses;
+    }
+
+    @Override
+    public List<String> migrate() throws SQLException {
+        return migrate(true);
+    }
+
+    // a ShardedSqliteEngine migrates its files with unsharded false and checks their layout itself
+    List<String> migrate(boolean unsharded) throws SQLException {
+        // the pooled connections are read-only, so this gets a connection of its own
+        try (Connection con = DriverManager.getConnection(pool.getConnectionUrl())) {
+            try (Statement statement = con.createStatement()) {
+                statement.execute("PRAGMA busy_timeout=5000");
+            }
+            List<String> applied = new MigrationRunner("sqlite/migrations").migrate(con);
+            if (unsharded) {
+                checkUnsharded(con);
+            }
+            return applied;
+        }
+    }
+
+    // refuses a file that belongs to a sharded database; read on its own, a catalog has no availability or
+    // appointments and a shard has no users or doses
+    private static void checkUnsharded(Connection con) throws SQLException {
+        String getLayout = "SELECT shard_count, shard_index FROM ShardLayout";
+        try (Statement statement = con.createStatement();
+             ResultSet resultSet = statement.executeQuery(getLayout)) {
+            if (!resultSet.next()) {
+                return;
+            }
+            int count = resultSet.getInt("shard_count");
+            int index = resultSet.getInt("shard_index");
+            String part = index < 0 ? "the catalog" : "shard " + index;
+            throw new IllegalStateException("DBPath is " + part + " of a database sharded " + count + " ways; " +
+                    (index < 0 ? "set DBShards=" + count + " to open it" : "open its catalog instead"));
+        }
+    }
+
+    @Override
+    public void addCaregiver(String username, StoredCredentials credentials) throws SQLException {
+        String addCaregiver = "INSERT INTO Caregivers (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)";
+        addUser(addCaregiver, username, credentials);
+    }
+
+    @Override
+    public StoredCredentials getCaregiver(String username) throws SQLException {
+        String getCaregiver = "SELECT Salt, Hash, HashParams FROM Caregivers WHERE Username = ?";
+        return getUser(getCaregiver, username);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return exists("SELECT 1 FROM Caregivers WHERE Username = ? LIMIT 1", username);
+    }
+
+    @Override
+    public void addPatient(String username, StoredCredentials credentials) throws SQLException {
+        String addPatient = "INSERT INTO Patients (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)";
+        addUser(addPatient, username, credentials);
+    }
+
+    @Override
+    public int addCaregivers(Map<String, StoredCredentials> caregivers) throws SQLException {
+        return addUsers("INSERT OR IGNORE INTO Caregivers (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)",
+                caregivers);
+    }
+
+    @Override
+    public int addPatients(Map<String, StoredCredentials> patients) throws SQLException {
+        return addUsers("INSERT OR IGNORE INTO Patients (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)",
+                patients);
+    }
+
+    @Override
+    public StoredCredentials getPatient(String username) throws SQLException {
+        String getPatient = "SELECT Salt, Hash, HashParams FROM Patients WHERE Username = ?";
+        return getUser(getPatient, username);
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return exists("SELECT 1 FROM Patients WHERE Username = ? LIMIT 1", username);
+    }
+
+    @Override
+    public void addVaccine(String name, int doses) throws SQLException {
+        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
+        writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(addDoses);
+            statement.setString(1, name);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+            return null;
+        });
+    }
+
+    @Override
+    public Integer getDoses(String name) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(pool);
+        String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+        try {
+            PreparedStatement statement = cm.prepareStatement(getVaccine);
+            statement.setString(1, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return resultSet.getInt("Doses");
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public SortedMap<String, Integer> getAllDoses() throws SQLException {
+        ConnectionManager cm = new ConnectionManager(pool);
+        String getVaccines = "SELECT Name, Doses FROM Vaccines ORDER BY Name";
+        SortedMap<String, Integer> doses = new TreeMap<>();
+        try {
+            PreparedStatement statement = cm.prepareStatement(getVaccines);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    doses.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return doses;
+    }
+
+    @Override
+    public void increaseDoses(String name, int num) throws SQLException {
+        // adjust the stored count in place so concurrent updates are never lost
+        String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+        writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(addDoses);
+            statement.setInt(1, num);
+            statement.setString(2, name);
+            statement.executeUpdate();
+            return null;
+        });
+    }
+
+    @Override
+    public void decreaseDoses(String name, int num) throws SQLException {
+        // the WHERE clause makes the check and the decrement one atomic step, so doses can never be oversold
+        String removeDoses = "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?";
+        writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(removeDoses);
+            statement.setInt(1, num);
+            statement.setString(2, name);
+            statement.setInt(3, num);
+            if (statement.executeUpdate() == 0) {
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> dosesByVaccine) throws SQLException {
+        String addDoses = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?) " +
+                "ON CONFLICT (Name) DO UPDATE SET Doses = Doses + excluded.Doses";
+        writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(addDoses);
+            for (Map.Entry<String, Integer> vaccine : dosesByVaccine.entrySet()) {
+                statement.setString(1, vaccine.getKey());
+                statement.setInt(2, vaccine.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            return null;
+        });
+    }
+
+    @Override
+    public void loadAvailability(BiConsumer<String, LocalDate> sink) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(pool);
+        String getAvailabilities = "SELECT caregiver_username, available_date FROM Availabilities";
+        try {
+            PreparedStatement statement = cm.prepareStatement(getAvailabilities);
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    sink.accept(resultSet.getString("caregiver_username"),
+                            LocalDate.parse(resultSet.getString("available_date")));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addAvailability(String caregiver, Date date) throws SQLException {
+        String addAvailability = "INSERT INTO Availabilities (caregiver_username, available_date) VALUES (?, ?)";
+        writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
+            statement.setString(1, caregiver);
+            statement.setString(2, date.toString());
+            statement.executeUpdate();
+            return null;
+        });
+        AvailabilityIndex.getInstance().add(caregiver, date);
+    }
+
+    @Override
+    public List<Date> addAvailability(String caregiver, List<Date> dates) throws SQLException {
+        String addAvailability = "INSERT OR IGNORE INTO Availabilities (caregiver_username, available_date) " +
+                "VALUES (?, ?)";
+        List<Date> inserted = writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
+            for (Date d : dates) {
+                statement.setString(1, caregiver);
+                statement.setString(2, d.toString());
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            List<Date> added = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                // an ignored duplicate reports zero changed rows
+                if (counts[i] > 0) {
+                    added.add(dates.get(i));
+                }
+            }
+            return added;
+        });
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        for (Date d : inserted) {
+            index.add(caregiver, d);
+        }
+        return inserted;
+    }
+
+    @Override
+    public int addAvailability(Map<String, List<Date>> datesByCaregiver) throws SQLException {
+        String addAvailability = "INSERT OR IGNORE INTO Availabilities (caregiver_username, available_date) " +
+                "VALUES (?, ?)";
+        Map<String, List<Date>> inserted = writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(addAvailability);
+            for (Map.Entry<String, List<Date>> caregiver : datesByCaregiver.entrySet()) {
+                for (Date d : caregiver.getValue()) {
+                    statement.setString(1, caregiver.getKey());
+                    statement.setString(2, d.toString());
+                    statement.addBatch();
+                }
+            }
+            int[] counts = statement.executeBatch();
+            Map<String, List<Date>> added = new LinkedHashMap<>();
+            int i = 0;
+            for (Map.Entry<String, List<Date>> caregiver : datesByCaregiver.entrySet()) {
+                for (Date d : caregiver.getValue()) {
+                    if (counts[i++] > 0) {
+                        added.computeIfAbsent(caregiver.getKey(), k -> new ArrayList<>()).add(d);
+                    }
+                }
+            }
+            return added;
+        });
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        int count = 0;
+        for (Map.Entry<String, List<Date>> caregiver : inserted.entrySet()) {
+            for (Date d : caregiver.getValue()) {
+                index.add(caregiver.getKey(), d);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void streamAvailability(BiConsumer<String, LocalDate> sink) throws SQLException {
+        loadAvailability(sink);
+    }
+
+    @Override
+    public ReservationRecord reserve(String patient, Date date, String vaccine) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        Booking booking = new Booking(patient, date, vaccine, index, tracksDoses);
+        try {
+            return writer.execute(booking::book);
+        } catch (NoCaregiverException e) {
+            return null;
+        } catch (SQLException | RuntimeException e) {
+            booking.releaseClaim();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<ReservationRecord> reserveAll(List<BookingRequest> requests) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        List<Booking> bookings = new ArrayList<>(requests.size());
+        for (BookingRequest request : requests) {
+            bookings.add(new Booking(request.getPatientUsername(), request.getDate(), request.getVaccineName(),
+                    index, tracksDoses));
+        }
+        try {
+            // one write operation, so all of it lands in one transaction however many requests there are
+            return writer.execute(cm -> {
+                List<ReservationRecord> booked = new ArrayList<>(bookings.size());
+                for (Booking booking : bookings) {
+                    cm.prepareStatement("SAVEPOINT batch_booking").execute();
+                    try {
+                        booked.add(booking.book(cm));
+                        cm.prepareStatement("RELEASE batch_booking").execute();
+                    } catch (NoCaregiverException | IllegalArgumentException e) {
+                        // undo this request's dose and claim, keep the ones before it
+                        cm.prepareStatement("ROLLBACK TO batch_booking").execute();
+                        cm.prepareStatement("RELEASE batch_booking").execute();
+                        booking.releaseClaim();
+                        booked.add(null);
+                    }
+                }
+                return booked;
+            });
+        } catch (SQLException | RuntimeException e) {
+            for (Booking booking : bookings) {
+                booking.releaseClaim();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public ReservationRecord cancel(int reservationId, String username, boolean caregiver) throws SQLException {
+        String getReservation = "SELECT patient_username, caregiver_username, vaccine_name, appointment_date " +
+                "FROM Reservations WHERE reservation_id = ?";
+        String deleteReservation = "DELETE FROM Reservations WHERE reservation_id = ?";
+        String returnDose = "UPDATE Vaccines SET Doses = Doses + 1 WHERE Name = ?";
+        String freeSlot = "INSERT OR IGNORE INTO Availabilities (caregiver_username, available_date) VALUES (?, ?)";
+        ReservationRecord cancelled = writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(getReservation);
+            statement.setInt(1, reservationId);
+            ReservationRecord reservation;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                reservation = new ReservationRecord(reservationId, resultSet.getString("patient_username"),
+                        resultSet.getString("caregiver_username"), resultSet.getString("vaccine_name"),
+                        Date.valueOf(resultSet.getString("appointment_date")));
+            }
+            String owner = caregiver ? reservation.getCaregiverUsername() : reservation.getPatientUsername();
+            if (!owner.equals(username)) {
+                return null;
+            }
+
+            statement = cm.prepareStatement(deleteReservation);
+            statement.setInt(1, reservationId);
+            statement.executeUpdate();
+
+            if (tracksDoses) {
+                statement = cm.prepareStatement(returnDose);
+                statement.setString(1, reservation.getVaccineName());
+                statement.executeUpdate();
+            }
+
+            statement = cm.prepareStatement(freeSlot);
+            statement.setString(1, reservation.getCaregiverUsername());
+            statement.setString(2, reservation.getDate().toString());
+            statement.executeUpdate();
+            return reservation;
+        });
+        if (cancelled != null) {
+            // like an upload, the freed slot only becomes searchable once its row has committed
+            AvailabilityIndex.getInstance().add(cancelled.getCaregiverUsername(), cancelled.getDate());
+        }
+        return cancelled;
+    }
+
+    @Override
+    public CancelDayResult cancelDay(String caregiver, Date date) throws SQLException {
+        DayCancellation cancellation = new DayCancellation(caregiver, date, AvailabilityIndex.getInstance(),
+                tracksDoses);
+        try {
+            return writer.execute(cancellation::apply);
+        } catch (SQLException | RuntimeException e) {
+            cancellation.undo();
+            throw e;
+        }
+    }
+
+    @Override
+    public int streamAppointments(AppointmentQuery query, Consumer<ReservationRecord> sink) throws SQLException {
+        // keyset pagination: the cursor is the last id the user saw, so every page is an index range scan
+        StringBuilder sql = new StringBuilder("SELECT reservation_id, patient_username, caregiver_username, " +
+                "vaccine_name, appointment_date FROM ");
+        sql.append(query.isArchived() ? "ArchivedReservations" : "Reservations").append(" WHERE ");
+        sql.append(query.isCaregiver() ? "caregiver_username" : "patient_username");
+        sql.append(" = ? AND reservation_id > ?");
+        if (query.getFrom() != null) {
+            sql.append(" AND appointment_date >= ?");
+        }
+        if (query.getTo() != null) {
+            sql.append(" AND appointment_date <= ?");
+        }
+        sql.append(" ORDER BY reservation_id LIMIT ?");
+
+        ConnectionManager cm = new ConnectionManager(pool);
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql.toString());
+            int parameter = 1;
+            statement.setString(parameter++, query.getUsername());
+            statement.setInt(parameter++, query.getAfterId());
+            if (query.getFrom() != null) {
+                statement.setString(parameter++, query.getFrom().toString());
+            }
+            if (query.getTo() != null) {
+                statement.setString(parameter++, query.getTo().toString());
+            }
+            // a negative LIMIT means no limit in SQLite
+            statement.setInt(parameter, query.getLimit() == 0 ? -1 : query.getLimit());
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            return streamReservations(statement, sink);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void streamReservations(Consumer<ReservationRecord> sink) throws SQLException {
+        String getReservations = "SELECT reservation_id, patient_username, caregiver_username, vaccine_name, " +
+                "appointment_date FROM Reservations ORDER BY reservation_id";
+        ConnectionManager cm = new ConnectionManager(pool);
+        try {
+            PreparedStatement statement = cm.prepareStatement(getReservations);
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            streamReservations(statement, sink);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int archiveReservations(Date before, int limit) throws SQLException {
+        // the oldest first, through reservations_by_date, so a chunk never scans the live table
+        String getDue = "SELECT reservation_id FROM Reservations WHERE appointment_date < ? " +
+                "ORDER BY appointment_date, reservation_id LIMIT ?";
+        String archive = "INSERT INTO ArchivedReservations (reservation_id, patient_username, caregiver_username, " +
+                "vaccine_name, appointment_date) SELECT reservation_id, patient_username, caregiver_username, " +
+                "vaccine_name, appointment_date FROM Reservations WHERE reservation_id = ?";
+        String deleteReservation = "DELETE FROM Reservations WHERE reservation_id = ?";
+        return writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(getDue);
+            statement.setString(1, before.toString());
+            statement.setInt(2, limit);
+            List<Integer> due = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    due.add(resultSet.getInt("reservation_id"));
+                }
+            }
+            if (due.isEmpty()) {
+                return 0;
+            }
+            PreparedStatement copy = cm.prepareStatement(archive);
+            PreparedStatement delete = cm.prepareStatement(deleteReservation);
+            for (int id : due) {
+                copy.setInt(1, id);
+                copy.addBatch();
+                delete.setInt(1, id);
+                delete.addBatch();
+            }
+            copy.executeBatch();
+            delete.executeBatch();
+            return due.size();
+        });
+    }
+
+    @Override
+    public int purgeAvailability(Date before, int limit) throws SQLException {
+        String getDue = "SELECT caregiver_username, available_date FROM Availabilities WHERE available_date < ? " +
+                "ORDER BY available_date, caregiver_username LIMIT ?";
+        Map<String, List<Date>> purged = writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(getDue);
+            statement.setString(1, before.toString());
+            statement.setInt(2, limit);
+            Map<String, List<Date>> due = new LinkedHashMap<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    due.computeIfAbsent(resultSet.getString("caregiver_username"), k -> new ArrayList<>())
+                            .add(Date.valueOf(resultSet.getString("available_date")));
+                }
+            }
+            PreparedStatement delete = cm.prepareStatement(CLAIM_AVAILABILITY);
+            for (Map.Entry<String, List<Date>> caregiver : due.entrySet()) {
+                for (Date d : caregiver.getValue()) {
+                    delete.setString(1, caregiver.getKey());
+                    delete.setString(2, d.toString());
+                    delete.addBatch();
+                }
+            }
+            delete.executeBatch();
+            return due;
+        });
+        // after the commit, like a reserve's claim; a reserve that picks one of these in between finds its row gone
+        // and moves on to the next caregiver
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        int count = 0;
+        for (Map.Entry<String, List<Date>> caregiver : purged.entrySet()) {
+            for (Date d : caregiver.getValue()) {
+                index.remove(caregiver.getKey(), d);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // one page of every appointment: those with ids after afterId, in id order, at most limit of them
+    int streamReservations(int afterId, int limit, Consumer<ReservationRecord> sink) throws SQLException {
+        String getReservations = "SELECT reservation_id, patient_username, caregiver_username, vaccine_name, " +
+                "appointment_date FROM Reservations WHERE reservation_id > ? ORDER BY reservation_id LIMIT ?";
+        ConnectionManager cm = new ConnectionManager(pool);
+        try {
+            PreparedStatement statement = cm.prepareStatement(getReservations);
+            statement.setInt(1, afterId);
+            statement.setInt(2, limit);
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            return streamReservations(statement, sink);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Takes one dose of each vaccine in the list, in one transaction; a vaccine with none left is skipped. Returns
+    // which ones got their dose.
+    boolean[] takeDoses(List<String> vaccines) throws SQLException {
+        String takeDose = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0";
+        return writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(takeDose);
+            boolean[] taken = new boolean[vaccines.size()];
+            for (int i = 0; i < taken.length; i++) {
+                statement.setString(1, vaccines.get(i));
+                taken[i] = statement.executeUpdate() == 1;
+            }
+            return taken;
+        });
+    }
+
+    // gives doses back, one update per vaccine, in one transaction
+    void returnDoses(Map<String, Integer> doses) throws SQLException {
+        if (doses.isEmpty()) {
+            return;
+        }
+        String returnDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+        writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(returnDoses);
+            for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+                statement.setInt(1, vaccine.getValue());
+                statement.setString(2, vaccine.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            return null;
+        });
+    }
+
+    private static int streamReservations(PreparedStatement statement, Consumer<ReservationRecord> sink)
+            throws SQLException {
+        int count = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                sink.accept(new ReservationRecord(resultSet.getInt("reservation_id"),
+                        resultSet.getString("patient_username"), resultSet.getString("caregiver_username"),
+                        resultSet.getString("vaccine_name"), Date.valueOf(resultSet.getString("appointment_date"))));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void addUser(String sql, String username, StoredCredentials credentials) throws SQLException {
+        writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            statement.setString(1, username);
+            statement.setBytes(2, credentials.getSalt());
+            statement.setBytes(3, credentials.getHash());
+            statement.setString(4, credentials.getHashParams().encode());
+            statement.executeUpdate();
+            return null;
+        });
+    }
+
+    private int addUsers(String sql, Map<String, StoredCredentials> users) throws SQLException {
+        return writer.execute(cm -> {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            for (Map.Entry<String, StoredCredentials> user : users.entrySet()) {
+                statement.setString(1, user.getKey());
+                statement.setBytes(2, user.getValue().getSalt());
+                statement.setBytes(3, user.getValue().getHash());
+                statement.setString(4, user.getValue().getHashParams().encode());
+                statement.addBatch();
+            }
+            int added = 0;
+            for (int count : statement.executeBatch()) {
+                // an ignored duplicate reports zero changed rows
+                if (count > 0) {
+                    added++;
+                }
+            }
+            return added;
+        });
+    }
+
+    private StoredCredentials getUser(String sql, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(pool);
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return new StoredCredentials(resultSet.getBytes("Salt"), resultSet.getBytes("Hash"),
+                        HashParams.decode(resultSet.getString("HashParams")));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private boolean exists(String sql, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(pool);
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // One reserve call; remembers the caregiver it took out of the index so a failed attempt can put it back
+    private static class Booking {
+        private final String patient;
+        private final Date date;
+        private final String vaccine;
+        private final AvailabilityIndex index;
+        private final boolean takesDose;
+        private String claimedCaregiver = null;
+
+        Booking(String patient, Date date, String vaccine, AvailabilityIndex index, boolean takesDose) {
+            this.patient = patient;
+            this.date = date;
+            this.vaccine = vaccine;
+            this.index = index;
+            this.takesDose = takesDose;
+        }
+
+        // runs inside the writer's transaction, which already holds SQLite's write lock,
+        // so nothing read here can change before the writes below land
+        ReservationRecord book(ConnectionManager cm) throws SQLException {
+            // the writer re-runs the whole group if its commit fails, so undo what an earlier attempt claimed
+            releaseClaim();
+
+            String takeDose = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0";
+            String addReservation = "INSERT INTO Reservations (patient_username, caregiver_username, vaccine_name, " +
+                    "appointment_date) VALUES (?, ?, ?, ?)";
+            String lastId = "SELECT last_insert_rowid()";
+
+            if (index.firstCaregiverOn(date) == null) {
+                return null;
+            }
+
+            // the conditional decrement is the check, so doses can never be oversold
+            PreparedStatement statement;
+            if (takesDose) {
+                statement = cm.prepareStatement(takeDose);
+                statement.setString(1, vaccine);
+                if (statement.executeUpdate() == 0) {
+                    throw new IllegalArgumentException("Not enough available doses!");
+                }
+            }
+
+            String caregiverUsername = claimCaregiver(cm, index, date);
+            if (caregiverUsername == null) {
+                // throwing rolls the dose back along with everything else in this operation
+                throw new NoCaregiverException();
+            }
+            claimedCaregiver = caregiverUsername;
+
+            statement = cm.prepareStatement(addReservation);
+            statement.setString(1, patient);
+            statement.setString(2, caregiverUsername);
+            statement.setString(3, vaccine);
+            statement.setString(4, date.toString());
+            statement.executeUpdate();
+
+            int reservationId;
+            try (ResultSet resultSet = cm.prepareStatement(lastId).executeQuery()) {
+                resultSet.next();
+                reservationId = resultSet.getInt(1);
+            }
+
+            return new ReservationRecord(reservationId, patient, caregiverUsername, vaccine, date);
+        }
+
+        void releaseClaim() {
+            if (claimedCaregiver != null) {
+                index.add(claimedCaregiver, date);
+                claimedCaregiver = null;
+            }
+        }
+    }
+
+    // One cancel_day call; remembers what it took out of the index so a failed attempt can put it back
+    private static class DayCancellation {
+        private final String caregiver;
+        private final Date date;
+        private final AvailabilityIndex index;
+        private final boolean returnsDoses;
+        private boolean removedOwnSlot = false;
+        private final List<String> claimed = new ArrayList<>();
+
+        DayCancellation(String caregiver, Date date, AvailabilityIndex index, boolean returnsDoses) {
+            this.caregiver = caregiver;
+            this.date = date;
+            this.index = index;
+            this.returnsDoses = returnsDoses;
+        }
+
+        // runs inside the writer's transaction, like Booking.book
+        CancelDayResult apply(ConnectionManager cm) throws SQLException {
+            // the writer re-runs the whole group if its commit fails, so undo what an earlier attempt did
+            undo();
+
+            String getReservations = "SELECT reservation_id, patient_username, vaccine_name FROM Reservations " +
+                    "WHERE caregiver_username = ? AND appointment_date = ? ORDER BY reservation_id";
+            String moveReservation = "UPDATE Reservations SET caregiver_username = ? WHERE reservation_id = ?";
+            String deleteReservation = "DELETE FROM Reservations WHERE reservation_id = ?";
+            String returnDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+
+            // first take the caregiver's own free slot, so nobody is rebooked with them
+            PreparedStatement statement = cm.prepareStatement(CLAIM_AVAILABILITY);
+            statement.setString(1, caregiver);
+            statement.setString(2, date.toString());
+            statement.executeUpdate();
+            removedOwnSlot = index.remove(caregiver, date);
+
+            List<ReservationRecord> affected = new ArrayList<>();
+            statement = cm.prepareStatement(getReservations);
+            statement.setString(1, caregiver);
+            statement.setString(2, date.toString());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    affected.add(new ReservationRecord(resultSet.getInt("reservation_id"),
+                            resultSet.getString("patient_username"), caregiver, resultSet.getString("vaccine_name"),
+                            date));
+                }
+            }
+
+            List<ReservationRecord> rebooked = new ArrayList<>();
+            List<ReservationRecord> released = new ArrayList<>();
+            SortedMap<String, Integer> returned = new TreeMap<>();
+            PreparedStatement move = cm.prepareStatement(moveReservation);
+            for (ReservationRecord reservation : affected) {
+                String other = claimCaregiver(cm, index, date);
+                if (other != null) {
+                    claimed.add(other);
+                    // the appointment keeps its id and its dose, only the caregiver changes
+                    move.setString(1, other);
+                    move.setInt(2, reservation.getReservationId());
+                    move.executeUpdate();
+                    rebooked.add(new ReservationRecord(reservation.getReservationId(),
+                            reservation.getPatientUsername(), other, reservation.getVaccineName(), date));
+                } else {
+                    released.add(reservation);
+                    returned.merge(reservation.getVaccineName(), 1, Integer::sum);
+                }
+            }
+
+            if (!released.isEmpty()) {
+                statement = cm.prepareStatement(deleteReservation);
+                for (ReservationRecord reservation : released) {
+                    statement.setInt(1, reservation.getReservationId());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            if (returnsDoses && !returned.isEmpty()) {
+                // one update per vaccine, however many of its appointments were cancelled
+                statement = cm.prepareStatement(returnDoses);
+                for (Map.Entry<String, Integer> vaccine : returned.entrySet()) {
+                    statement.setInt(1, vaccine.getValue());
+                    statement.setString(2, vaccine.getKey());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return new CancelDayResult(rebooked, released);
+        }
+
+        void undo() {
+            if (removedOwnSlot) {
+                index.add(caregiver, date);
+                removedOwnSlot = false;
+            }
+            for (String other : claimed) {
+                index.add(other, date);
+            }
+            claimed.clear();
+        }
+    }
+
+    // Takes the first free caregiver on the date out of Availabilities and the index, skipping index entries
+    // whose rows are already gone; returns null if nobody is free. Runs on the writer thread, inside its
+    // transaction.
+    private static String claimCaregiver(ConnectionManager cm, AvailabilityIndex index, Date date)
+            throws SQLException {
+        PreparedStatement statement = cm.prepareStatement(CLAIM_AVAILABILITY);
+        String caregiver = index.firstCaregiverOn(date);
+        while (caregiver != null) {
+            statement.setString(1, caregiver);
+            statement.setString(2, date.toString());
+            boolean claimed = statement.executeUpdate() == 1;
+            // writes on this thread are serialized, so later operations in the same group see the slot as
+            // taken even before the group commits
+            index.remove(caregiver, date);
+            if (claimed) {
+                return caregiver;
+            }
+            // the index was stale for this caregiver, move on to the next one
+            caregiver = index.nextCaregiverOn(date, caregiver);
+        }
+        return null;
+    }
+
+    private static class NoCaregiverException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
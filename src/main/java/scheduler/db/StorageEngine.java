@@ -0,0 +1,109 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+ * Everything the scheduler stores, behind one interface so the backing store can be swapped.
+ *
+ * The model classes and Scheduler only talk to the engine returned by StorageEngines.getDefault(). Every engine
+ * must keep the same guarantees: a dose is never handed out twice, a caregiver is never booked twice on a date,
+ * and a reservation either takes its dose, its caregiver slot and its row together or changes nothing. Adding a
+ * user, vaccine or availability that already exists fails with an SQLException, as a primary key would.
+ */
+public interface StorageEngine {
+
+    // brings the store up to date with the schema, returns the migrations applied
+    List<String> migrate() throws SQLException;
+
+    void addCaregiver(String username, StoredCredentials credentials) throws SQLException;
+
+    // null if there is no such caregiver
+    StoredCredentials getCaregiver(String username) throws SQLException;
+
+    boolean caregiverExists(String username) throws SQLException;
+
+    void addPatient(String username, StoredCredentials credentials) throws SQLException;
+
+    // Bulk versions of addCaregiver and addPatient for imports: add the users that do not exist yet in one
+    // transaction, skip the rest, and return how many were added.
+    int addCaregivers(Map<String, StoredCredentials> caregivers) throws SQLException;
+
+    int addPatients(Map<String, StoredCredentials> patients) throws SQLException;
+
+    // null if there is no such patient
+    StoredCredentials getPatient(String username) throws SQLException;
+
+    boolean patientExists(String username) throws SQLException;
+
+    void addVaccine(String name, int doses) throws SQLException;
+
+    // null if there is no such vaccine
+    Integer getDoses(String name) throws SQLException;
+
+    // every vaccine's doses, in name order
+    SortedMap<String, Integer> getAllDoses() throws SQLException;
+
+    void increaseDoses(String name, int num) throws SQLException;
+
+    // throws IllegalArgumentException, and changes nothing, if fewer than num doses are left
+    void decreaseDoses(String name, int num) throws SQLException;
+
+    // Bulk version of addVaccine and increaseDoses for inventory imports: adds each vaccine's doses, adding the
+    // vaccines that do not exist yet with that many, in one transaction where the engine has them.
+    void addDoses(Map<String, Integer> dosesByVaccine) throws SQLException;
+
+    // hands every stored availability to the sink, see AvailabilityIndex
+    void loadAvailability(BiConsumer<String, LocalDate> sink) throws SQLException;
+
+    void addAvailability(String caregiver, Date date) throws SQLException;
+
+    // adds the dates not added yet and returns them; the others are skipped
+    List<Date> addAvailability(String caregiver, List<Date> dates) throws SQLException;
+
+    // adds the dates not added yet for every caregiver in one transaction, returns how many were added
+    int addAvailability(Map<String, List<Date>> datesByCaregiver) throws SQLException;
+
+    // hands every free slot to the sink, without holding them all in memory
+    void streamAvailability(BiConsumer<String, LocalDate> sink) throws SQLException;
+
+    // Books one dose with the first free caregiver on the date. Returns null if no caregiver is free, and
+    // throws IllegalArgumentException if the vaccine has no doses left; nothing is changed in either case.
+    ReservationRecord reserve(String patient, Date date, String vaccine) throws SQLException;
+
+    // Books the requests in order, as one transaction where the engine has them. A request with no free caregiver
+    // or no dose left is skipped and changes nothing. Returns one entry per request: its booking, or null.
+    List<ReservationRecord> reserveAll(List<BookingRequest> requests) throws SQLException;
+
+    // Cancels the appointment if it belongs to the user (its caregiver if caregiver is true, else its patient):
+    // deletes it, returns its dose and frees the caregiver's slot again, all or nothing. Returns the cancelled
+    // appointment, or null if there is no such appointment for the user.
+    ReservationRecord cancel(int reservationId, String username, boolean caregiver) throws SQLException;
+
+    // The caregiver is no longer available on the date, all or nothing: their free slot is removed, and each of
+    // their appointments that day either moves to another free caregiver on the same date, keeping its id and
+    // its dose, or is cancelled, with the doses returned in one update per vaccine.
+    CancelDayResult cancelDay(String caregiver, Date date) throws SQLException;
+
+    // Hands the appointments the query selects to the sink one at a time, in reservation id order, without
+    // holding them all in memory; returns how many it handed over.
+    int streamAppointments(AppointmentQuery query, Consumer<ReservationRecord> sink) throws SQLException;
+
+    // hands every appointment to the sink in reservation id order, without holding them all in memory
+    void streamReservations(Consumer<ReservationRecord> sink) throws SQLException;
+
+    // Moves up to limit appointments dated before the given date into the archive, oldest first, in one
+    // transaction where the engine has them; returns how many moved. An archived appointment keeps its id, can no
+    // longer be cancelled, and is only read by an archived AppointmentQuery. See RetentionSweeper.
+    int archiveReservations(Date before, int limit) throws SQLException;
+
+    // Deletes up to limit free slots dated before the given date, oldest first, in one transaction where the
+    // engine has them; returns how many were deleted.
+    int purgeAvailability(Date before, int limit) throws SQLException;
+}
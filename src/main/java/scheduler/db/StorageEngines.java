@@ -0,0 +1,117 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+// Picks the process-wide storage engine from StorageEngine in the environment: sqlite (the default), memory or
+// journal
+public class StorageEngines {
+
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 30;
+    private static final int MAX_DB_SHARDS = 256;
+
+    private static volatile StorageEngine defaultEngine = null;
+
+    public static StorageEngine getDefault() {
+        StorageEngine engine = defaultEngine;
+        if (engine == null) {
+            synchronized (StorageEngines.class) {
+                engine = defaultEngine;
+                if (engine == null) {
+                    engine = create(System.getenv("StorageEngine"));
+                    defaultEngine = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    private static StorageEngine create(String name) {
+        if (name == null || name.isEmpty() || name.equals("sqlite")) {
+            return createSqlite();
+        }
+        if (name.equals("memory")) {
+            return new InMemoryEngine(doseShards());
+        }
+        if (name.equals("journal")) {
+            return createJournaled();
+        }
+        System.out.println("Ignoring invalid StorageEngine: " + name);
+        return createSqlite();
+    }
+
+    // DBShards (default 1) splits availability and reservations over that many files next to DBPath.
+    // CacheSize (users per cache, 0 turns the caches off) and CacheTtlSeconds; the in-memory engines need neither
+    private static StorageEngine createSqlite() {
+        int shards = dbShards();
+        StorageEngine engine = shards == 1
+                ? new SqliteEngine(ConnectionManager.getDefaultPool(), DatabaseWriter.getDefault())
+                : new ShardedSqliteEngine(ConnectionManager.getDefaultPool(), DatabaseWriter.getDefault(), shards);
+        long size = envLong("CacheSize", DEFAULT_CACHE_SIZE);
+        long ttlSeconds = envLong("CacheTtlSeconds", DEFAULT_CACHE_TTL_SECONDS);
+        if (size <= 0 || ttlSeconds <= 0) {
+            return engine;
+        }
+        return new CachingEngine(engine, (int) Math.min(size, Integer.MAX_VALUE), ttlSeconds * 1000000000L);
+    }
+
+    // JournalDir (default journal), JournalSync (0 turns off fsync), JournalSnapshotEvents and JournalSegmentMb
+    private static StorageEngine createJournaled() {
+        String dir = System.getenv("JournalDir");
+        boolean sync = !"0".equals(System.getenv("JournalSync"));
+        long snapshotEvery = envLong("JournalSnapshotEvents", 1000000);
+        int segmentMb = (int) envLong("JournalSegmentMb", 64);
+        try {
+            JournaledEngine engine = new JournaledEngine(Paths.get(dir == null || dir.isEmpty() ? "journal" : dir),
+                    segmentMb << 20, sync, snapshotEvery, doseShards());
+            Runtime.getRuntime().addShutdownHook(new Thread(engine::close, "journal-close"));
+            return engine;
+        } catch (IOException | SQLException e) {
+            throw new IllegalStateException("Could not open the journal: " + e.getMessage(), e);
+        }
+    }
+
+    // unlike the tuning settings, a wrong DBShards is not ignored: opening the database with any other count
+    // than the one it was created with hides or misplaces its data
+    private static int dbShards() {
+        String value = System.getenv("DBShards");
+        if (value == null || value.isEmpty()) {
+            return 1;
+        }
+        long shards;
+        try {
+            shards = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            shards = 0;
+        }
+        if (shards < 1 || shards > MAX_DB_SHARDS) {
+            throw new IllegalStateException("DBShards must be a number from 1 to " + MAX_DB_SHARDS + ": " + value);
+        }
+        return (int) shards;
+    }
+
+    // DoseShards sets how many counters each vaccine's doses are split over in the in-memory engines
+    private static int doseShards() {
+        long shards = envLong("DoseShards", InMemoryEngine.DEFAULT_DOSE_SHARDS);
+        if (shards < 1 || shards > 1024) {
+            System.out.println("Ignoring invalid DoseShards: " + shards);
+            return InMemoryEngine.DEFAULT_DOSE_SHARDS;
+        }
+        return (int) shards;
+    }
+
+    private static long envLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.db;
+
+import scheduler.util.CredentialHasher.HashParams;
+
+// What is stored for one user account: the salt, the password hash and the parameters the hash was made with
+public class StoredCredentials {
+    private final byte[] salt;
+    private final byte[] hash;
+    private final HashParams hashParams;
+
+    public StoredCredentials(byte[] salt, byte[] hash, HashParams hashParams) {
+        this.salt = salt;
+        this.hash = hash;
+        this.hashParams = hashParams;
+    }
+
+    // Getters
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public HashParams getHashParams() {
+        return hashParams;
+    }
+}
@@ -0,0 +1,75 @@
+package scheduler.db;
+
+import scheduler.util.Histogram;
+import scheduler.util.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/*
+ * Wraps a prepared statement so every execute call is timed into the sql.<statement> histogram and every
+ * SQLException it throws is counted by SQLState. The pool wraps each statement once, when it is first
+ * prepared, so the cached statement carries its histogram with it. For a query the time is until the first
+ * row is ready, which is where SQLite does most of its work.
+ *
+ * It also remembers the last result set a query returned, so the pool can close a cursor the caller left open
+ * without asking the driver, which sqlite-jdbc refuses once executeQuery has handed the result set out.
+ */
+class TimedStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+    private final Histogram histogram;
+    private ResultSet lastResult = null;
+
+    private TimedStatement(PreparedStatement statement, String sql) {
+        this.statement = statement;
+        this.histogram = Metrics.histogram("sql." + sql);
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement, String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new TimedStatement(statement, sql));
+    }
+
+    // closes the last result set the statement returned, if the caller left it open
+    static void closeResult(PreparedStatement statement) throws SQLException {
+        if (!Proxy.isProxyClass(statement.getClass())) {
+            return;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(statement);
+        if (handler instanceof TimedStatement) {
+            TimedStatement timed = (TimedStatement) handler;
+            if (timed.lastResult != null) {
+                timed.lastResult.close();
+                timed.lastResult = null;
+            }
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        boolean timed = method.getName().startsWith("execute");
+        long start = timed ? System.nanoTime() : 0;
+        try {
+            Object result = method.invoke(statement, args);
+            if (result instanceof ResultSet) {
+                lastResult = (ResultSet) result;
+            }
+            return result;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                Metrics.countError((SQLException) e.getCause());
+            }
+            throw e.getCause();
+        } finally {
+            if (timed) {
+                histogram.record(System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package scheduler.model;
+
+import scheduler.db.CancelDayResult;
+import scheduler.db.ReservationRecord;
+import scheduler.db.StorageEngines;
+import scheduler.db.StoredCredentials;
+import scheduler.util.CredentialHasher;
+import scheduler.util.CredentialHasher.HashParams;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class Caregiver {
+    // longest range a single upload may cover
+    private static final int MAX_UPLOAD_DAYS = 366;
+
+    private final String username;
+    private final byte[] salt;
+    private final byte[] hash;
+    private final HashParams hashParams;
+
+    private Caregiver(CaregiverBuilder builder) {
+        this.username = builder.username;
+        this.salt = builder.salt;
+        this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
+    }
+
+    private Caregiver(CaregiverGetter getter) {
+        this.username = getter.username;
+        this.salt = getter.salt;
+        this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public HashParams getHashParams() {
+        return hashParams;
+    }
+
+    public void saveToDB() throws SQLException {
+        StorageEngines.getDefault().addCaregiver(this.username, new StoredCredentials(this.salt, this.hash,
+                this.hashParams));
+    }
+
+    public void uploadAvailability(Date d) throws SQLException {
+        StorageEngines.getDefault().addAvailability(this.username, d);
+        Waitlist.getInstance().matchDates(List.of(d));
+    }
+
+    // Uploads every date from..to (inclusive) that falls on one of the given weekdays in one batched write.
+    // Dates that are already uploaded are skipped instead of failing the whole range.
+    public UploadResult uploadAvailability(Date from, Date to, Set<DayOfWeek> weekdays) throws SQLException {
+        LocalDate first = from.toLocalDate();
+        LocalDate last = to.toLocalDate();
+        if (last.isBefore(first)) {
+            throw new IllegalArgumentException("End date is before start date!");
+        }
+        if (ChronoUnit.DAYS.between(first, last) >= MAX_UPLOAD_DAYS) {
+            throw new IllegalArgumentException("Date range is too long!");
+        }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        if (dates.isEmpty()) {
+            return new UploadResult(0, 0);
+        }
+        List<Date> inserted = StorageEngines.getDefault().addAvailability(this.username, dates);
+        Waitlist.getInstance().matchDates(inserted);
+        return new UploadResult(inserted.size(), dates.size() - inserted.size());
+    }
+
+    // Withdraws this caregiver from the date in one transaction: their free slot goes, each of their appointments
+    // that day moves to another free caregiver where there is one, and the rest are cancelled with their doses
+    // returned.
+    public CancelDayResult cancelDay(Date d) throws SQLException {
+        CancelDayResult result = StorageEngines.getDefault().cancelDay(this.username, d);
+        Set<String> vaccines = new TreeSet<>();
+        for (ReservationRecord released : result.getReleased()) {
+            vaccines.add(released.getVaccineName());
+        }
+        for (String vaccine : vaccines) {
+            Waitlist.getInstance().matchVaccine(vaccine);
+        }
+        return result;
+    }
+
+    public static class UploadResult {
+        private final int inserted;
+        private final int skipped;
+
+        private UploadResult(int inserted, int skipped) {
+            this.inserted = inserted;
+            this.skipped = skipped;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+    }
+
+    public static class CaregiverBuilder {
+        private final String username;
+        private final byte[] salt;
+        private final byte[] hash;
+        private final HashParams hashParams;
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, CredentialHasher.LEGACY);
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, HashParams hashParams) {
+            this.username = username;
+            this.salt = salt;
+            this.hash = hash;
+            this.hashParams = hashParams;
+        }
+
+        public Caregiver build() {
+            return new Caregiver(this);
+        }
+    }
+
+    public static class CaregiverGetter {
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+        private HashParams hashParams;
+
+        public CaregiverGetter(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        public Caregiver get() throws SQLException {
+            StoredCredentials stored = StorageEngines.getDefault().getCaregiver(this.username);
+            if (stored == null) {
+                return null;
+            }
+            byte[] salt = stored.getSalt();
+            byte[] hash = stored.getHash();
+            HashParams hashParams = stored.getHashParams();
+            // check if the password matches, with the parameters this user's hash was made with
+            if (!CredentialHasher.getInstance().verify(password, salt, hash, hashParams)) {
+                return null;
+            }
+            this.salt = salt;
+            this.hash = Util.trim(hash);
+            this.hashParams = hashParams;
+            return new Caregiver(this);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package scheduler.model;
+import scheduler.db.StorageEngines;
+import scheduler.db.StoredCredentials;
+import scheduler.util.CredentialHasher;
+import scheduler.util.CredentialHasher.HashParams;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+
+public class Patient {
+    private final String username;
+    private final byte[] salt;
+    private final byte[] hash;
+    private final HashParams hashParams;
+
+    private Patient(PatientBuilder builder) {
+        this.username = builder.username;
+        this.salt = builder.salt;
+        this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public HashParams getHashParams() {
+        return hashParams;
+    }
+
+    public void saveToDB() throws SQLException {
+        StorageEngines.getDefault().addPatient(this.username, new StoredCredentials(this.salt, this.hash,
+                this.hashParams));
+    }
+
+    public static class PatientBuilder {
+        private final String username;
+        private final byte[] salt;
+        private final byte[] hash;
+        private final HashParams hashParams;
+
+        public PatientBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, CredentialHasher.LEGACY);
+        }
+
+        public PatientBuilder(String username, byte[] salt, byte[] hash, HashParams hashParams) {
+            this.username = username;
+            this.salt = salt;
+            this.hash = hash;
+            this.hashParams = hashParams;
+        }
+        public Patient build() {
+            return new Patient(this);
+        }
+    }
+    public static class PatientGetter {
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+        private HashParams hashParams;
+
+        public PatientGetter(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        public Patient get() throws SQLException {
+            StoredCredentials stored = StorageEngines.getDefault().getPatient(this.username);
+            if (stored == null) {
+                return null;
+            }
+            byte[] salt = stored.getSalt();
+            byte[] hash = stored.getHash();
+            HashParams hashParams = stored.getHashParams();
+            // check if the password matches, with the parameters this user's hash was made with
+            if (!CredentialHasher.getInstance().verify(password, salt, hash, hashParams)) {
+                return null;
+            }
+            this.salt = salt;
+            this.hash = Util.trim(hash);
+            this.hashParams = hashParams;
+            return new Patient.PatientBuilder(username, this.salt, this.hash, this.hashParams).build();
+        }
+    }
+}
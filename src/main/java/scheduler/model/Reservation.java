@@ -0,0 +1,88 @@
+package scheduler.model;
+
+import scheduler.db.ReservationRecord;
+import scheduler.db.StorageEngines;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+public class Reservation {
+    private final int appointmentId;
+    private final String patientUsername;
+    private final String caregiverUsername;
+    private final String vaccineName;
+    private final Date date;
+
+    private Reservation(Reserver reserver, int appointmentId, String caregiverUsername) {
+        this.appointmentId = appointmentId;
+        this.patientUsername = reserver.patientUsername;
+        this.caregiverUsername = caregiverUsername;
+        this.vaccineName = reserver.vaccineName;
+        this.date = reserver.date;
+    }
+
+    private Reservation(ReservationRecord record) {
+        this.appointmentId = record.getReservationId();
+        this.patientUsername = record.getPatientUsername();
+        this.caregiverUsername = record.getCaregiverUsername();
+        this.vaccineName = record.getVaccineName();
+        this.date = record.getDate();
+    }
+
+    // Cancels one of the user's appointments in a single transaction, returning its dose and freeing the
+    // caregiver's slot. Returns null if the user has no appointment with that id.
+    public static Reservation cancel(int appointmentId, String username, boolean caregiver) throws SQLException {
+        ReservationRecord record = StorageEngines.getDefault().cancel(appointmentId, username, caregiver);
+        if (record == null) {
+            return null;
+        }
+        // the freed slot and dose may be what a queued patient is waiting for
+        Waitlist.getInstance().matchDates(List.of(record.getDate()));
+        return new Reservation(record);
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public static class Reserver {
+        private final String patientUsername;
+        private final Date date;
+        private final String vaccineName;
+
+        public Reserver(String patientUsername, Date date, String vaccineName) {
+            this.patientUsername = patientUsername;
+            this.date = date;
+            this.vaccineName = vaccineName;
+        }
+
+        // Books one dose with one caregiver as a single transaction in the storage engine.
+        // Returns null if no caregiver is available on the date, and throws IllegalArgumentException if the
+        // vaccine has no doses left; nothing is changed in either case.
+        public Reservation reserve() throws SQLException {
+            ReservationRecord record = StorageEngines.getDefault().reserve(patientUsername, date, vaccineName);
+            if (record == null) {
+                return null;
+            }
+            return new Reservation(this, record.getReservationId(), record.getCaregiverUsername());
+        }
+    }
+}
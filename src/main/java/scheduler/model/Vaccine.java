@@ -0,0 +1,106 @@
+package scheduler.model;
+
+import scheduler.db.StorageEngines;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class    Vaccine {
+    private final String vaccineName;
+    private int availableDoses;
+
+    private Vaccine(VaccineBuilder builder) {
+        this.vaccineName = builder.vaccineName;
+        this.availableDoses = builder.availableDoses;
+    }
+
+    private Vaccine(VaccineGetter getter) {
+        this.vaccineName = getter.vaccineName;
+        this.availableDoses = getter.availableDoses;
+    }
+
+    // Getters
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public int getAvailableDoses() {
+        return availableDoses;
+    }
+
+    public void saveToDB() throws SQLException {
+        StorageEngines.getDefault().addVaccine(this.vaccineName, this.availableDoses);
+        Waitlist.getInstance().matchVaccine(this.vaccineName);
+    }
+
+    // Increment the available doses
+    public void increaseAvailableDoses(int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        StorageEngines.getDefault().increaseDoses(this.vaccineName, num);
+        this.availableDoses += num;
+        Waitlist.getInstance().matchVaccine(this.vaccineName);
+    }
+
+    // Decrement the available doses
+    public void decreaseAvailableDoses(int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        // throws if there are not enough doses left, in which case nothing changes
+        StorageEngines.getDefault().decreaseDoses(this.vaccineName, num);
+        this.availableDoses -= num;
+    }
+
+    // all vaccines in name order
+    public static List<Vaccine> getAll() throws SQLException {
+        List<Vaccine> vaccines = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : StorageEngines.getDefault().getAllDoses().entrySet()) {
+            vaccines.add(new VaccineBuilder(entry.getKey(), entry.getValue()).build());
+        }
+        return vaccines;
+    }
+
+    @Override
+    public String toString() {
+        return "Vaccine{" +
+                "vaccineName='" + vaccineName + '\'' +
+                ", availableDoses=" + availableDoses +
+                '}';
+    }
+
+    public static class VaccineBuilder {
+        private final String vaccineName;
+        private int availableDoses;
+
+        public VaccineBuilder(String vaccineName, int availableDoses) {
+            this.vaccineName = vaccineName;
+            this.availableDoses = availableDoses;
+        }
+
+        public Vaccine build() throws SQLException {
+            return new Vaccine(this);
+        }
+    }
+
+    public static class VaccineGetter {
+        private final String vaccineName;
+        private int availableDoses;
+
+        public VaccineGetter(String vaccineName) {
+            this.vaccineName = vaccineName;
+        }
+
+        public Vaccine get() throws SQLException {
+            Integer doses = StorageEngines.getDefault().getDoses(this.vaccineName);
+            if (doses == null) {
+                return null;
+            }
+            this.availableDoses = doses;
+            return new Vaccine(this);
+        }
+    }
+}
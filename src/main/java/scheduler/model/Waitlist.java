@@ -0,0 +1,228 @@
+package scheduler.model;
+
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.BookingRequest;
+import scheduler.db.ReservationRecord;
+import scheduler.db.StorageEngines;
+import scheduler.util.Histogram;
+import scheduler.util.Metrics;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/*
+ * Patients waiting for a reserve that could not be met, matched to capacity as soon as it is added.
+ *
+ * A reserve that finds no free caregiver or no dose puts the patient in the queue for that date and vaccine
+ * instead of leaving them to retry. Whenever a caregiver uploads availability or doses are added, one matching
+ * pass picks the queued requests that the new capacity can serve, oldest first and no more per date than there
+ * are free caregivers, and books them all with a single StorageEngine.reserveAll, so a burst of capacity costs
+ * one transaction rather than a retry storm. Booked patients see the appointment in show_appointments.
+ *
+ * Only requests that can still be met are queued: the date has not passed and the vaccine exists. A request
+ * whose date passes while it waits is dropped. The queue is held in memory by this process; requests still
+ * waiting when it exits are not kept.
+ */
+public class Waitlist {
+
+    private static final Waitlist instance = new Waitlist();
+
+    // date -> requests for that date in arrival order, keyed by patient and vaccine; guarded by this
+    private final TreeMap<LocalDate, LinkedHashMap<String, Entry>> byDate = new TreeMap<>();
+    private int size = 0;
+    // one matching pass at a time, so two passes never hand the same request to the engine
+    private final Object matchLock = new Object();
+    private final Histogram matchTimes = Metrics.histogram("waitlist.match");
+    private final Histogram waitTimes = Metrics.histogram("waitlist.wait");
+
+    public static Waitlist getInstance() {
+        return instance;
+    }
+
+    // queues the request unless it is queued already; returns its position among the requests for the date. Throws
+    // IllegalArgumentException for a request that could never be met
+    public int add(String patient, Date date, String vaccine) throws SQLException {
+        if (date.toLocalDate().isBefore(LocalDate.now())) {
+            throw new IllegalArgumentException(date + " has already passed");
+        }
+        if (StorageEngines.getDefault().getDoses(vaccine) == null) {
+            throw new IllegalArgumentException("there is no vaccine named " + vaccine);
+        }
+        return enqueue(patient, date, vaccine);
+    }
+
+    private synchronized int enqueue(String patient, Date date, String vaccine) {
+        dropPassed();
+        LinkedHashMap<String, Entry> queue = byDate.computeIfAbsent(date.toLocalDate(), k -> new LinkedHashMap<>());
+        String key = keyOf(patient, vaccine);
+        if (!queue.containsKey(key)) {
+            queue.put(key, new Entry(patient, date, vaccine));
+            size++;
+        }
+        int position = 1;
+        for (String queued : queue.keySet()) {
+            if (queued.equals(key)) {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    // drops a queued request, e.g. once the patient has booked it by hand
+    public synchronized void remove(String patient, Date date, String vaccine) {
+        LinkedHashMap<String, Entry> queue = byDate.get(date.toLocalDate());
+        if (queue != null && queue.remove(keyOf(patient, vaccine)) != null) {
+            size--;
+            if (queue.isEmpty()) {
+                byDate.remove(date.toLocalDate());
+            }
+        }
+    }
+
+    public synchronized int size() {
+        dropPassed();
+        return size;
+    }
+
+    // availability was added on these dates; returns how many queued requests were booked
+    public int matchDates(Collection<Date> dates) {
+        if (size() == 0 || dates.isEmpty()) {
+            return 0;
+        }
+        Set<LocalDate> days = new HashSet<>();
+        for (Date date : dates) {
+            days.add(date.toLocalDate());
+        }
+        return match(entry -> days.contains(entry.date.toLocalDate()));
+    }
+
+    // doses of this vaccine were added; returns how many queued requests were booked
+    public int matchVaccine(String vaccine) {
+        if (size() == 0) {
+            return 0;
+        }
+        return match(entry -> entry.vaccine.equals(vaccine));
+    }
+
+    public String getStats() {
+        return "waitlist: " + size() + " queued, " + matchTimes.getCount() + " matching passes, " +
+                waitTimes.getCount() + " booked, p50 wait " + waitTimes.getPercentileNanos(0.5) / 1000000 + " ms";
+    }
+
+    private int match(Predicate<Entry> filter) {
+        synchronized (matchLock) {
+            long start = System.nanoTime();
+            List<Entry> candidates;
+            try {
+                candidates = candidates(filter);
+            } catch (SQLException e) {
+                Metrics.countError(e);
+                return 0;
+            }
+            if (candidates.isEmpty()) {
+                return 0;
+            }
+            List<BookingRequest> requests = new ArrayList<>(candidates.size());
+            for (Entry entry : candidates) {
+                requests.add(new BookingRequest(entry.patient, entry.date, entry.vaccine));
+            }
+            List<ReservationRecord> booked;
+            try {
+                booked = StorageEngines.getDefault().reserveAll(requests);
+            } catch (SQLException e) {
+                // the requests stay queued for the next pass
+                Metrics.countError(e);
+                return 0;
+            }
+            int matched = 0;
+            long now = System.nanoTime();
+            for (int i = 0; i < booked.size(); i++) {
+                if (booked.get(i) != null) {
+                    Entry entry = candidates.get(i);
+                    remove(entry.patient, entry.date, entry.vaccine);
+                    waitTimes.record(now - entry.queuedAt);
+                    matched++;
+                }
+            }
+            matchTimes.record(System.nanoTime() - start);
+            return matched;
+        }
+    }
+
+    // The queued requests worth trying, oldest first within each date. A date gets no more requests than it has
+    // free caregivers and a vaccine no more than it has doses, so the pass does not spend the transaction on
+    // requests that are bound to fail.
+    private List<Entry> candidates(Predicate<Entry> filter) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        Map<String, Integer> doses = new HashMap<>(StorageEngines.getDefault().getAllDoses());
+        List<Entry> candidates = new ArrayList<>();
+        synchronized (this) {
+            dropPassed();
+            for (Map.Entry<LocalDate, LinkedHashMap<String, Entry>> day : byDate.entrySet()) {
+                int caregivers = -1;
+                Iterator<Entry> queued = day.getValue().values().iterator();
+                while (queued.hasNext() && caregivers != 0) {
+                    Entry entry = queued.next();
+                    if (!filter.test(entry)) {
+                        continue;
+                    }
+                    if (caregivers < 0) {
+                        // only looked up for dates that have a matching request
+                        caregivers = index.freeCountOn(entry.date);
+                        if (caregivers == 0) {
+                            break;
+                        }
+                    }
+                    int left = doses.getOrDefault(entry.vaccine, 0);
+                    if (left == 0) {
+                        continue;
+                    }
+                    doses.put(entry.vaccine, left - 1);
+                    caregivers--;
+                    candidates.add(entry);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    // drops the requests whose date has passed, they can no longer be booked; guarded by this
+    private void dropPassed() {
+        Map<LocalDate, LinkedHashMap<String, Entry>> passed = byDate.headMap(LocalDate.now());
+        for (LinkedHashMap<String, Entry> queue : passed.values()) {
+            size -= queue.size();
+            Metrics.add("waitlist.expired", queue.size());
+        }
+        passed.clear();
+    }
+
+    private static String keyOf(String patient, String vaccine) {
+        return patient + '\n' + vaccine;
+    }
+
+    private static class Entry {
+        private final String patient;
+        private final Date date;
+        private final String vaccine;
+        private final long queuedAt = System.nanoTime();
+
+        Entry(String patient, Date date, String vaccine) {
+            this.patient = patient;
+            this.date = date;
+            this.vaccine = vaccine;
+        }
+    }
+}
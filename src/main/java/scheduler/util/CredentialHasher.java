@@ -0,0 +1,218 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Password hashing for logins and account creation.
+ *
+ * PBKDF2 is deliberately expensive, so it runs on a fixed pool with one worker per core rather than on
+ * whatever thread happens to call it; under load that caps the CPU spent on hashing and queues the rest.
+ * Each worker keeps its own SecretKeyFactory per algorithm and its own SecureRandom, so neither is looked
+ * up or seeded again per call.
+ *
+ * New accounts are hashed with the default parameters (HashAlgorithm, HashIterations and HashKeyLength in the
+ * environment). The parameters are stored next to each user's hash, so raising the cost later does not stop
+ * existing hashes from verifying; users created before parameters were stored use LEGACY.
+ */
+public class CredentialHasher {
+
+    // what Util.generateHash has always used
+    public static final HashParams LEGACY = new HashParams("PBKDF2WithHmacSHA1", 10, 16);
+
+    private static final int SALT_LENGTH = 16;
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static volatile CredentialHasher instance = null;
+
+    private final HashParams defaultParams;
+    private final ThreadPoolExecutor workers;
+    private final ThreadLocal<Map<String, SecretKeyFactory>> factories = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+
+    // hash latency metrics
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder totalHashNanos = new LongAdder();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+
+    public CredentialHasher(HashParams defaultParams, int threads) {
+        this.defaultParams = defaultParams;
+        AtomicInteger count = new AtomicInteger();
+        // when the queue is full the caller hashes on its own thread, which slows down whoever is flooding us
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+                    Thread thread = new Thread(r, "credential-hasher-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public static CredentialHasher getInstance() {
+        CredentialHasher hasher = instance;
+        if (hasher == null) {
+            synchronized (CredentialHasher.class) {
+                hasher = instance;
+                if (hasher == null) {
+                    HashParams params = new HashParams(
+                            stringFromEnv("HashAlgorithm", "PBKDF2WithHmacSHA256"),
+                            intFromEnv("HashIterations", 100000),
+                            intFromEnv("HashKeyLength", 256));
+                    hasher = new CredentialHasher(params, Runtime.getRuntime().availableProcessors());
+                    instance = hasher;
+                }
+            }
+        }
+        return hasher;
+    }
+
+    public HashParams getDefaultParams() {
+        return defaultParams;
+    }
+
+    public byte[] generateSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.get().nextBytes(salt);
+        return salt;
+    }
+
+    public Future<byte[]> hashAsync(String password, byte[] salt, HashParams params) {
+        return workers.submit(() -> compute(password, salt, params));
+    }
+
+    // hashes on the worker pool and waits for the result
+    public byte[] hash(String password, byte[] salt, HashParams params) {
+        try {
+            return hashAsync(password, salt, params).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // hashes on the calling thread, for callers that run their own pool, like a bulk import
+    public byte[] hashOnCaller(String password, byte[] salt, HashParams params) {
+        return compute(password, salt, params);
+    }
+
+    public boolean verify(String password, byte[] salt, byte[] storedHash, HashParams params) {
+        byte[] calculatedHash = hash(password, salt, params);
+        // stored hashes may come back zero-padded to the column width, see Util.trim()
+        return Arrays.equals(Util.trim(storedHash), Util.trim(calculatedHash));
+    }
+
+    public String getStats() {
+        long count = hashes.sum();
+        return "CredentialHasher{" +
+                "params=" + defaultParams.encode() +
+                ", workers=" + workers.getCorePoolSize() +
+                ", queued=" + workers.getQueue().size() +
+                ", hashes=" + count +
+                ", meanMicros=" + (count == 0 ? 0 : totalHashNanos.sum() / count / 1000) +
+                ", maxMicros=" + maxHashNanos.get() / 1000 +
+                '}';
+    }
+
+    private byte[] compute(String password, byte[] salt, HashParams params) {
+        long start = System.nanoTime();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, params.getIterations(), params.getKeyLength());
+        try {
+            SecretKeyFactory factory = factories.get().get(params.getAlgorithm());
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(params.getAlgorithm());
+                factories.get().put(params.getAlgorithm(), factory);
+            }
+            return factory.generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+            long elapsed = System.nanoTime() - start;
+            hashes.increment();
+            totalHashNanos.add(elapsed);
+            maxHashNanos.accumulateAndGet(elapsed, Math::max);
+            Metrics.record("hash." + params.getAlgorithm(), elapsed);
+        }
+    }
+
+    // The algorithm, iteration count and key length (in bits) one hash was made with
+    public static class HashParams {
+        private final String algorithm;
+        private final int iterations;
+        private final int keyLength;
+
+        public HashParams(String algorithm, int iterations, int keyLength) {
+            if (iterations <= 0 || keyLength <= 0) {
+                throw new IllegalArgumentException("Hash parameters must be positive!");
+            }
+            this.algorithm = algorithm;
+            this.iterations = iterations;
+            this.keyLength = keyLength;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public int getKeyLength() {
+            return keyLength;
+        }
+
+        // stored in the HashParams column as algorithm:iterations:keyLength
+        public String encode() {
+            return algorithm + ":" + iterations + ":" + keyLength;
+        }
+
+        // a missing value means the hash predates stored parameters
+        public static HashParams decode(String encoded) {
+            if (encoded == null || encoded.isEmpty()) {
+                return LEGACY;
+            }
+            String[] parts = encoded.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid hash parameters: " + encoded);
+            }
+            return new HashParams(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        }
+    }
+
+    private static String stringFromEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
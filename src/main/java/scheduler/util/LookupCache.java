@@ -0,0 +1,163 @@
+package scheduler.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A bounded read-through cache: at most maxSize entries, least recently used out first, and none older than the
+ * time to live. A loader returning null is cached too, so a lookup for something that does not exist is also
+ * answered from memory until it is invalidated or expires.
+ *
+ * Hits, misses and evictions are counted in Metrics as cache.<name>.hit, .miss and .evict; an entry that expires
+ * counts as an eviction when it is found.
+ *
+ * Keys are spread over stripes by hash, each with its own lock, its own share of maxSize and its own LRU order,
+ * so hits on different keys rarely wait for each other. Loads run outside the lock, so a slow load does not hold
+ * up hits on other keys. A load only keeps its result if nothing wrote or invalidated that key while it ran, so a
+ * write is never undone by a read that started before it; writes to other keys do not matter.
+ */
+public class LookupCache<K, V> {
+
+    public interface Loader<K, V> {
+        V load(K key) throws SQLException;
+    }
+
+    private static final int MAX_STRIPES = 16;
+
+    private final String hitCounter;
+    private final String missCounter;
+    private final String evictCounter;
+    private final long ttlNanos;
+    private final List<Stripe<K, V>> stripes;
+
+    public LookupCache(String name, int maxSize, long ttlNanos) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("A cache needs room for at least one entry");
+        }
+        this.hitCounter = "cache." + name + ".hit";
+        this.missCounter = "cache." + name + ".miss";
+        this.evictCounter = "cache." + name + ".evict";
+        this.ttlNanos = ttlNanos;
+        // a power of two, and never more stripes than entries
+        int count = Math.min(MAX_STRIPES, Integer.highestOneBit(maxSize));
+        this.stripes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // the first maxSize % count stripes take one more, so the shares add up to maxSize
+            stripes.add(new Stripe<>(maxSize / count + (i < maxSize % count ? 1 : 0)));
+        }
+    }
+
+    public V get(K key, Loader<K, V> loader) throws SQLException {
+        Stripe<K, V> stripe = stripeOf(key);
+        Object token = new Object();
+        synchronized (stripe) {
+            Entry<V> entry = stripe.entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.loadedAt < ttlNanos) {
+                    Metrics.increment(hitCounter);
+                    return entry.value;
+                }
+                stripe.entries.remove(key);
+                Metrics.increment(evictCounter);
+            }
+            stripe.loading.put(key, token);
+        }
+        Metrics.increment(missCounter);
+        V value;
+        try {
+            value = loader.load(key);
+        } catch (SQLException | RuntimeException e) {
+            synchronized (stripe) {
+                stripe.loading.remove(key, token);
+            }
+            throw e;
+        }
+        synchronized (stripe) {
+            // gone if the key was written or invalidated since, or replaced by a later load of the same key
+            if (stripe.loading.remove(key, token)) {
+                store(stripe, key, value);
+            }
+        }
+        return value;
+    }
+
+    // stores a value the caller knows is current, e.g. one it has just written
+    public void put(K key, V value) {
+        Stripe<K, V> stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.loading.remove(key);
+            store(stripe, key, value);
+        }
+    }
+
+    public void invalidate(K key) {
+        Stripe<K, V> stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.loading.remove(key);
+            stripe.entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.loading.clear();
+                stripe.entries.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe<K, V> stripeOf(K key) {
+        int h = key.hashCode();
+        // spread the high bits down, as HashMap does, since only the low ones pick the stripe
+        return stripes.get((h ^ (h >>> 16)) & (stripes.size() - 1));
+    }
+
+    // guarded by the stripe
+    private void store(Stripe<K, V> stripe, K key, V value) {
+        stripe.entries.put(key, new Entry<>(value, System.nanoTime()));
+        if (stripe.entries.size() > stripe.maxSize) {
+            Iterator<Map.Entry<K, Entry<V>>> eldest = stripe.entries.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            Metrics.increment(evictCounter);
+        }
+    }
+
+    private static class Stripe<K, V> {
+        private final int maxSize;
+        // in access order, so the first entry is the least recently used
+        private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        // key -> the token of the load that may store it; a write or invalidation takes the token away
+        private final Map<K, Object> loading = new HashMap<>();
+
+        Stripe(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long loadedAt;
+
+        Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package scheduler.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Process-wide latency histograms and counters, by name.
+ *
+ * Names are dotted: command.<name> for each command, db.acquire and db.open for the connection pool,
+ * sql.<statement> for each prepared statement, hash.<algorithm> for password hashing and sqlstate.<state> for
+ * SQLExceptions. Hot paths should look a histogram up once and keep it, see CommandRegistry and
+ * TimedStatement, rather than building the name on every call.
+ */
+public class Metrics {
+
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService dumper = null;
+
+    public static Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public static void record(String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    public static void increment(String name) {
+        counter(name).increment();
+    }
+
+    public static void add(String name, long amount) {
+        counter(name).add(amount);
+    }
+
+    private static LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    // counts the exception under its SQLState, or its vendor error code when the driver sets no state
+    public static void countError(SQLException e) {
+        String state = e.getSQLState();
+        increment("sqlstate." + (state != null ? state : "code-" + e.getErrorCode()));
+    }
+
+    public static long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-48s %10s %10s %10s %10s %10s %10s%n", "histogram", "count", "mean_us",
+                "p50_us", "p99_us", "p999_us", "max_us"));
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = entry.getValue();
+            sb.append(String.format("%-48s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", abbreviate(entry.getKey()),
+                    h.getCount(), h.getMeanNanos() / 1e3, h.getPercentileNanos(0.5) / 1e3,
+                    h.getPercentileNanos(0.99) / 1e3, h.getPercentileNanos(0.999) / 1e3, h.getMaxNanos() / 1e3));
+        }
+        if (!counters.isEmpty()) {
+            sb.append(String.format("%-48s %10s%n", "counter", "count"));
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+                sb.append(String.format("%-48s %10d%n", abbreviate(entry.getKey()), entry.getValue().sum()));
+            }
+        }
+        return sb.toString();
+    }
+
+    // rewrites the file with report.get() every intervalSeconds, on a daemon thread
+    public static synchronized void startDump(String file, int intervalSeconds, Supplier<String> report) {
+        if (dumper != null) {
+            return;
+        }
+        Path path = Paths.get(file);
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(path, report), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void dump(Path path, Supplier<String> report) {
+        // write next to the target and rename, so a reader never sees half a report
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            String text = "# " + Instant.now() + System.lineSeparator() + report.get();
+            Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not write stats to " + path + ": " + e.getMessage());
+        }
+    }
+
+    // statement names are whole SQL strings; keep the table readable
+    private static String abbreviate(String name) {
+        return name.length() <= 48 ? name : name.substring(0, 45) + "...";
+    }
+}
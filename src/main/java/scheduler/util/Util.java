@@ -0,0 +1,27 @@
+package scheduler.util;
+
+import java.util.Arrays;
+
+public class Util {
+
+    public static byte[] generateSalt() {
+        // Generate a random cryptographic salt
+        return CredentialHasher.getInstance().generateSalt();
+    }
+
+    // hashes with the original PBKDF2WithHmacSHA1 parameters, use CredentialHasher for new hashes
+    public static byte[] generateHash(String password, byte[] salt) {
+        return CredentialHasher.getInstance().hash(password, salt, CredentialHasher.LEGACY);
+    }
+
+    public static byte[] trim(byte[] bytes)
+    {
+        int i = bytes.length - 1;
+        while (i >= 0 && bytes[i] == 0)
+        {
+            --i;
+        }
+
+        return Arrays.copyOf(bytes, i + 1);
+    }
+}
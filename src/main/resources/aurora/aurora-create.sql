@@ -1,18 +0,0 @@
-CREATE TABLE Caregivers (
-    Username varchar(255),
-    Salt BYTEA,
-    Hash BYTEA,
-    PRIMARY KEY (Username)
-);
-
-CREATE TABLE Availabilities (
-    Time date,
-    Username varchar(255) REFERENCES Caregivers,
-    PRIMARY KEY (Time, Username)
-);
-
-CREATE TABLE Vaccines (
-    Name varchar(255),
-    Doses int,
-    PRIMARY KEY (Name)
-);
\ No newline at end of file
@@ -0,0 +1,39 @@
+-- The same tables as sqlite/migrations, in PostgreSQL types.
+-- IF NOT EXISTS lets databases created from aurora-create.sql adopt migrations without being rebuilt.
+-- aurora-create.sql had Availabilities (Time, Username); rename that table away before migrating such a database.
+
+CREATE TABLE IF NOT EXISTS Caregivers (
+    Username varchar(255),
+    Salt BYTEA,
+    Hash BYTEA,
+    HashParams varchar(64),
+    PRIMARY KEY (Username)
+);
+
+CREATE TABLE IF NOT EXISTS Patients (
+    Username varchar(255),
+    Salt BYTEA,
+    Hash BYTEA,
+    HashParams varchar(64),
+    PRIMARY KEY (Username)
+);
+
+CREATE TABLE IF NOT EXISTS Vaccines (
+    Name varchar(255),
+    Doses int,
+    PRIMARY KEY (Name)
+);
+
+CREATE TABLE IF NOT EXISTS Availabilities (
+    caregiver_username varchar(255) NOT NULL REFERENCES Caregivers (Username),
+    available_date date NOT NULL,
+    PRIMARY KEY (caregiver_username, available_date)
+);
+
+CREATE TABLE IF NOT EXISTS Reservations (
+    reservation_id SERIAL PRIMARY KEY,
+    patient_username varchar(255) NOT NULL REFERENCES Patients (Username),
+    caregiver_username varchar(255) NOT NULL REFERENCES Caregivers (Username),
+    vaccine_name varchar(255) NOT NULL REFERENCES Vaccines (Name),
+    appointment_date date NOT NULL
+);
@@ -0,0 +1,15 @@
+-- Covering indexes for the hot lookups, matching sqlite/migrations/V002.
+
+-- caregivers free on a date, in name order
+CREATE INDEX IF NOT EXISTS availabilities_by_date
+    ON Availabilities (available_date, caregiver_username);
+
+-- a patient's appointments in date order
+CREATE INDEX IF NOT EXISTS reservations_by_patient
+    ON Reservations (patient_username, appointment_date, reservation_id)
+    INCLUDE (caregiver_username, vaccine_name);
+
+-- a caregiver's appointments in date order
+CREATE INDEX IF NOT EXISTS reservations_by_caregiver
+    ON Reservations (caregiver_username, appointment_date, reservation_id)
+    INCLUDE (patient_username, vaccine_name);
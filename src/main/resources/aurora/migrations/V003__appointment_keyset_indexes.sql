@@ -0,0 +1,9 @@
+-- Keyset pagination indexes for show_appointments, matching sqlite/migrations/V003.
+
+CREATE INDEX IF NOT EXISTS reservations_by_patient_id
+    ON Reservations (patient_username, reservation_id)
+    INCLUDE (caregiver_username, vaccine_name, appointment_date);
+
+CREATE INDEX IF NOT EXISTS reservations_by_caregiver_id
+    ON Reservations (caregiver_username, reservation_id)
+    INCLUDE (patient_username, vaccine_name, appointment_date);
@@ -0,0 +1,6 @@
+-- Shard layout marker, matching sqlite/migrations/V004. Aurora is never sharded by file, so it stays empty.
+
+CREATE TABLE IF NOT EXISTS ShardLayout (
+    shard_count INT NOT NULL,
+    shard_index INT NOT NULL
+);
@@ -0,0 +1,20 @@
+-- Archive for appointments past the retention horizon, matching sqlite/migrations/V005.
+
+CREATE TABLE IF NOT EXISTS ArchivedReservations (
+    reservation_id INT PRIMARY KEY,
+    patient_username varchar(255) NOT NULL,
+    caregiver_username varchar(255) NOT NULL,
+    vaccine_name varchar(255) NOT NULL,
+    appointment_date date NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS archived_reservations_by_patient_id
+    ON ArchivedReservations (patient_username, reservation_id)
+    INCLUDE (caregiver_username, vaccine_name, appointment_date);
+
+CREATE INDEX IF NOT EXISTS archived_reservations_by_caregiver_id
+    ON ArchivedReservations (caregiver_username, reservation_id)
+    INCLUDE (patient_username, vaccine_name, appointment_date);
+
+CREATE INDEX IF NOT EXISTS reservations_by_date
+    ON Reservations (appointment_date, reservation_id);
@@ -0,0 +1,7 @@
+-- A database built from aurora-create.sql already had Caregivers without HashParams, and V001's IF NOT EXISTS
+-- kept that table as it was. This adds the column wherever it is missing; rows that get it as NULL are read as
+-- the legacy hash parameters, which is what they were hashed with.
+
+ALTER TABLE Caregivers ADD COLUMN IF NOT EXISTS HashParams varchar(64);
+
+ALTER TABLE Patients ADD COLUMN IF NOT EXISTS HashParams varchar(64);
@@ -0,0 +1,42 @@
+-- The schema create.sql used to describe, with the Patients table and the foreign keys fixed.
+-- IF NOT EXISTS lets databases created from create.sql adopt migrations without being rebuilt.
+
+CREATE TABLE IF NOT EXISTS Caregivers (
+    Username varchar(255),
+    Salt BINARY(16),
+    Hash BINARY(16),
+    HashParams varchar(64),
+    PRIMARY KEY (Username)
+);
+
+CREATE TABLE IF NOT EXISTS Patients (
+    Username varchar(255),
+    Salt BINARY(16),
+    Hash BINARY(16),
+    HashParams varchar(64),
+    PRIMARY KEY (Username)
+);
+
+CREATE TABLE IF NOT EXISTS Vaccines (
+    Name varchar(255),
+    Doses int,
+    PRIMARY KEY (Name)
+);
+
+CREATE TABLE IF NOT EXISTS Availabilities (
+    caregiver_username TEXT NOT NULL,
+    available_date TEXT NOT NULL,
+    PRIMARY KEY (caregiver_username, available_date),
+    FOREIGN KEY (caregiver_username) REFERENCES Caregivers(Username)
+);
+
+CREATE TABLE IF NOT EXISTS Reservations (
+    reservation_id INTEGER PRIMARY KEY AUTOINCREMENT,
+    patient_username TEXT NOT NULL,
+    caregiver_username TEXT NOT NULL,
+    vaccine_name TEXT NOT NULL,
+    appointment_date TEXT NOT NULL,
+    FOREIGN KEY (patient_username) REFERENCES Patients(Username),
+    FOREIGN KEY (caregiver_username) REFERENCES Caregivers(Username),
+    FOREIGN KEY (vaccine_name) REFERENCES Vaccines(Name)
+);
@@ -0,0 +1,14 @@
+-- Covering indexes for the hot lookups; Scheduler --check-plans prints the plans that use them.
+-- Reservations' INTEGER PRIMARY KEY is the rowid, so every index below already carries reservation_id.
+
+-- caregivers free on a date, in name order
+CREATE INDEX IF NOT EXISTS availabilities_by_date
+    ON Availabilities (available_date, caregiver_username);
+
+-- a patient's appointments in date order
+CREATE INDEX IF NOT EXISTS reservations_by_patient
+    ON Reservations (patient_username, appointment_date, caregiver_username, vaccine_name);
+
+-- a caregiver's appointments in date order
+CREATE INDEX IF NOT EXISTS reservations_by_caregiver
+    ON Reservations (caregiver_username, appointment_date, patient_username, vaccine_name);
@@ -0,0 +1,8 @@
+-- show_appointments pages through a user's appointments in reservation_id order with
+-- "WHERE patient_username = ? AND reservation_id > ? ORDER BY reservation_id", which these serve without a sort.
+
+CREATE INDEX IF NOT EXISTS reservations_by_patient_id
+    ON Reservations (patient_username, reservation_id);
+
+CREATE INDEX IF NOT EXISTS reservations_by_caregiver_id
+    ON Reservations (caregiver_username, reservation_id);
@@ -0,0 +1,9 @@
+-- Which part of a sharded database this file is: shard_index is -1 for the catalog, which holds the users and
+-- vaccines, and 0 to shard_count - 1 for the shards holding Availabilities and Reservations. ShardedSqliteEngine
+-- writes the one row on first start and refuses to start if DBShards no longer matches it. Unsharded databases
+-- leave the table empty.
+
+CREATE TABLE IF NOT EXISTS ShardLayout (
+    shard_count INTEGER NOT NULL,
+    shard_index INTEGER NOT NULL
+);
@@ -0,0 +1,22 @@
+-- Where the retention sweeper moves appointments once they are older than the retention horizon, so the indexes
+-- search, reserve and show_appointments use stay the size of recent data. Rows keep their reservation_id;
+-- Reservations' AUTOINCREMENT never hands an archived id out again. show_appointments --archive pages through
+-- these in reservation_id order, like the live table.
+
+CREATE TABLE IF NOT EXISTS ArchivedReservations (
+    reservation_id INTEGER PRIMARY KEY,
+    patient_username TEXT NOT NULL,
+    caregiver_username TEXT NOT NULL,
+    vaccine_name TEXT NOT NULL,
+    appointment_date TEXT NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS archived_reservations_by_patient_id
+    ON ArchivedReservations (patient_username, reservation_id);
+
+CREATE INDEX IF NOT EXISTS archived_reservations_by_caregiver_id
+    ON ArchivedReservations (caregiver_username, reservation_id);
+
+-- the sweeper finds the oldest appointments through this instead of scanning Reservations
+CREATE INDEX IF NOT EXISTS reservations_by_date
+    ON Reservations (appointment_date, reservation_id);
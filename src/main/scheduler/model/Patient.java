@@ -1,108 +0,0 @@
-package scheduler.model;
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
-
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Arrays;
-
-public class Patient {
-    private final String username;
-    private final byte[] salt;
-    private final byte[] hash;
-
-    private Patient(PatientBuilder builder) {
-        this.username = builder.username;
-        this.salt = builder.salt;
-        this.hash = builder.hash;
-    }
-
-    // Getters
-    public String getUsername() {
-        return username;
-    }
-
-    public byte[] getSalt() {
-        return salt;
-    }
-
-    public byte[] getHash() {
-        return hash;
-    }
-
-    public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (?, ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
-    }
-
-    public static class PatientBuilder {
-        private final String username;
-        private final byte[] salt;
-        private final byte[] hash;
-
-        public PatientBuilder(String username, byte[] salt, byte[] hash) {
-            this.username = username;
-            this.salt = salt;
-            this.hash = hash;
-        }
-        public Patient build() {
-            return new Patient(this);
-        }
-    }
-    public static class PatientGetter {
-        private final String username;
-        private final String password;
-        private byte[] salt;
-        private byte[] hash;
-
-        public PatientGetter(String username, String password) {
-            this.username = username;
-            this.password = password;
-        }
-
-        public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        cm.closeConnection();
-                        return new Patient.PatientBuilder(username, salt, hash).build();
-                    }
-                }
-                return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
-            }
-        }
-    }
-}
@@ -0,0 +1,171 @@
+package scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.db.StorageEngines;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The line protocol end to end over a loopback socket, against the default SQLite engine the build points at a
+// fresh file.
+class SchedulerServerTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private SchedulerServer server;
+    private Thread serving;
+
+    @BeforeAll
+    static void migrate() throws Exception {
+        StorageEngines.getDefault().migrate();
+    }
+
+    @BeforeEach
+    void start() throws Exception {
+        server = new SchedulerServer(0, 1);
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "test-server");
+        serving.start();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        server.shutdown();
+        serving.join(TIMEOUT_MILLIS);
+    }
+
+    @Test
+    void runsCommandsForAClient() throws Exception {
+        try (Client caregiver = new Client()) {
+            assertTrue(caregiver.greeting().contains("Welcome to the COVID-19 Vaccine Reservation"));
+            assertTrue(caregiver.send("create_caregiver server_caregiver secret").contains("Created user"));
+            assertTrue(caregiver.send("login_caregiver server_caregiver secret").contains("Logged in as"));
+            assertTrue(caregiver.send("upload_availability 2033-02-01").contains("Availability uploaded!"));
+            assertTrue(caregiver.send("add_doses server_vaccine 2").contains("Doses updated!"));
+            assertTrue(caregiver.send("logout").contains("Successfully logged out!"));
+
+            assertTrue(caregiver.send("create_patient server_patient secret").contains("Created user"));
+            assertTrue(caregiver.send("login_patient server_patient secret").contains("Logged in as"));
+            String reserved = caregiver.send("reserve 2033-02-01 server_vaccine");
+            assertTrue(reserved.contains("Caregiver username: server_caregiver"), reserved);
+            assertTrue(caregiver.send("show_appointments").contains("server_vaccine"));
+
+            assertTrue(caregiver.send("quit").contains("Bye!"));
+            assertNull(caregiver.in.readLine());
+        }
+        waitForSessions(0);
+    }
+
+    @Test
+    void turnsAwayClientsPastMaxSessions() throws Exception {
+        try (Client first = new Client()) {
+            first.greeting();
+            waitForSessions(1);
+            try (Client second = new Client()) {
+                assertEquals("Server busy, please try again later!", second.in.readLine());
+                assertNull(second.in.readLine());
+            }
+            // the session that got in is still served
+            assertTrue(first.send("stats").length() > 0);
+        }
+        // and once it is gone, the next client gets its place
+        waitForSessions(0);
+        try (Client third = new Client()) {
+            assertTrue(third.greeting().contains("Welcome"));
+        }
+    }
+
+    @Test
+    void shutdownEndsSessionsAndStopsAccepting() throws Exception {
+        int port = server.getPort();
+        try (Client client = new Client()) {
+            client.greeting();
+            waitForSessions(1);
+            server.shutdown();
+            serving.join(TIMEOUT_MILLIS);
+            assertFalse(serving.isAlive());
+            // the idle session is ended and the connection closed
+            assertNull(client.in.readLine());
+        }
+        waitForSessions(0);
+        // and nobody is listening any more
+        assertThrows(IOException.class, () -> new Socket(InetAddress.getLoopbackAddress(), port).close());
+    }
+
+    private void waitForSessions(int sessions) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (server.getActiveSessions() != sessions) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError(server.getActiveSessions() + " sessions, expected " + sessions);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    // one connection, reading the server's output up to each prompt
+    private class Client implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        Client() throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        }
+
+        // the greeting lists every command as "> usage" and ends with an empty line before the first prompt
+        String greeting() throws IOException {
+            return readUntil("\n\n> ");
+        }
+
+        String send(String line) throws IOException {
+            out.println(line);
+            return readUntil("\n> ");
+        }
+
+        private String readUntil(String prompt) throws IOException {
+            StringBuilder text = new StringBuilder();
+            while (!endsWith(text, prompt) && !(text.length() == 2 && endsWith(text, "> "))) {
+                int c = in.read();
+                if (c < 0) {
+                    break;
+                }
+                text.append((char) c);
+            }
+            return text.toString();
+        }
+
+        private boolean endsWith(StringBuilder text, String suffix) {
+            return text.length() >= suffix.length()
+                    && text.substring(text.length() - suffix.length()).equals(suffix);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import scheduler.util.CredentialHasher;
+
+import java.nio.file.Path;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Many threads reserving the same vaccine at once, on every engine: each dose goes to exactly one booking, each
+// slot to at most one, and the count never dips below zero on the way.
+class ConcurrentReserveTest {
+
+    private static final int STOCK = 60;
+    private static final int CAREGIVERS = 30;
+    private static final int DAYS = 4;
+    private static final int THREADS = 8;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "journal", "sqlite"})
+    void handsOutEveryDoseExactlyOnce(String kind) throws Exception {
+        StorageEngine engine;
+        LocalDate firstDay;
+        if (kind.equals("memory")) {
+            engine = new InMemoryEngine(4);
+            firstDay = LocalDate.of(2032, 1, 1);
+        } else if (kind.equals("journal")) {
+            engine = new JournaledEngine(dir, 1 << 20, false, 0, 4);
+            firstDay = LocalDate.of(2032, 1, 1);
+        } else {
+            // reserve on SQLite books through the process-wide availability index, so it has to be the default
+            engine = StorageEngines.getDefault();
+            engine.migrate();
+            firstDay = LocalDate.of(2032, 3, 1);
+        }
+        try {
+            run(engine, "race_" + kind + "_", firstDay);
+        } finally {
+            if (engine instanceof JournaledEngine) {
+                ((JournaledEngine) engine).close();
+            }
+        }
+    }
+
+    private void run(StorageEngine engine, String prefix, LocalDate firstDay) throws Exception {
+        String vaccine = prefix + "vaccine";
+        StoredCredentials credentials = new StoredCredentials(new byte[16], new byte[16], CredentialHasher.LEGACY);
+        Map<String, StoredCredentials> caregivers = new LinkedHashMap<>();
+        Map<String, StoredCredentials> patients = new LinkedHashMap<>();
+        Map<String, List<Date>> slots = new LinkedHashMap<>();
+        List<Date> dates = new ArrayList<>();
+        for (int d = 0; d < DAYS; d++) {
+            dates.add(Date.valueOf(firstDay.plusDays(d)));
+        }
+        for (int c = 0; c < CAREGIVERS; c++) {
+            caregivers.put(prefix + "caregiver_" + c, credentials);
+            slots.put(prefix + "caregiver_" + c, dates);
+        }
+        for (int t = 0; t < THREADS; t++) {
+            patients.put(prefix + "patient_" + t, credentials);
+        }
+        engine.addCaregivers(caregivers);
+        engine.addPatients(patients);
+        engine.addVaccine(vaccine, STOCK);
+        assertEquals(CAREGIVERS * DAYS, engine.addAvailability(slots));
+
+        ConcurrentLinkedQueue<ReservationRecord> booked = new ConcurrentLinkedQueue<>();
+        AtomicInteger lowest = new AtomicInteger(STOCK);
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            // watches the count while the reserves run
+            Future<?> watcher = pool.submit(() -> {
+                while (!done.get()) {
+                    lowest.accumulateAndGet(engine.getDoses(vaccine), Math::min);
+                }
+                return null;
+            });
+            List<Future<?>> reservers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String patient = prefix + "patient_" + t;
+                int offset = t;
+                reservers.add(pool.submit(() -> {
+                    start.await();
+                    // every thread works through the dates from a different one, until the doses run out
+                    for (int i = offset; !Thread.currentThread().isInterrupted(); i++) {
+                        try {
+                            ReservationRecord reservation = engine.reserve(patient, dates.get(i % DAYS), vaccine);
+                            if (reservation != null) {
+                                booked.add(reservation);
+                            }
+                        } catch (IllegalArgumentException e) {
+                            return null;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> reserver : reservers) {
+                reserver.get(60, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            watcher.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(STOCK, booked.size());
+        assertEquals(0, engine.getDoses(vaccine));
+        assertTrue(lowest.get() >= 0, "doses went down to " + lowest.get());
+        Set<Integer> ids = new HashSet<>();
+        Set<String> taken = new HashSet<>();
+        for (ReservationRecord reservation : booked) {
+            assertTrue(ids.add(reservation.getReservationId()), "id " + reservation.getReservationId() + " twice");
+            String slot = reservation.getCaregiverUsername() + " " + reservation.getDate();
+            assertTrue(taken.add(slot), slot + " booked twice");
+        }
+        // the booked slots are gone and every other one is still free
+        AtomicInteger free = new AtomicInteger();
+        engine.streamAvailability((caregiver, date) -> {
+            if (caregiver.startsWith(prefix)) {
+                assertFalse(taken.contains(caregiver + " " + Date.valueOf(date)), caregiver + " " + date);
+                free.incrementAndGet();
+            }
+        });
+        assertEquals(CAREGIVERS * DAYS - STOCK, free.get());
+    }
+}
@@ -0,0 +1,160 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// reserve and cancel either make every change they stand for, dose, slot and appointment, or none of them
+class InMemoryEngineTest {
+
+    private static final Date DAY = Date.valueOf("2032-06-01");
+    private static final String VACCINE = "pfizer";
+
+    private InMemoryEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new InMemoryEngine(4);
+    }
+
+    @Test
+    void reserveWithoutDosesChangesNothing() throws Exception {
+        engine.addVaccine(VACCINE, 0);
+        engine.addAvailability("alice", DAY);
+
+        assertThrows(IllegalArgumentException.class, () -> engine.reserve("bob", DAY, VACCINE));
+        assertThrows(IllegalArgumentException.class, () -> engine.reserve("bob", DAY, "no_such_vaccine"));
+        assertEquals(0, engine.getDoses(VACCINE));
+        assertEquals(1, freeSlots());
+        assertEquals(0, appointments("bob", false));
+    }
+
+    @Test
+    void reserveWithoutACaregiverChangesNothing() throws Exception {
+        engine.addVaccine(VACCINE, 3);
+        engine.addAvailability("alice", Date.valueOf("2032-06-02"));
+
+        assertNull(engine.reserve("bob", DAY, VACCINE));
+        assertEquals(3, engine.getDoses(VACCINE));
+        assertEquals(1, freeSlots());
+        assertEquals(0, appointments("bob", false));
+    }
+
+    @Test
+    void reserveTakesTheDoseTheSlotAndBooksTogether() throws Exception {
+        engine.addVaccine(VACCINE, 3);
+        engine.addAvailability("alice", DAY);
+
+        ReservationRecord reservation = engine.reserve("bob", DAY, VACCINE);
+        assertNotNull(reservation);
+        assertEquals("alice", reservation.getCaregiverUsername());
+        assertEquals(2, engine.getDoses(VACCINE));
+        assertEquals(0, freeSlots());
+        assertEquals(1, appointments("bob", false));
+        assertEquals(1, appointments("alice", true));
+    }
+
+    @Test
+    void cancelGivesBackTheDoseAndTheSlotOnce() throws Exception {
+        engine.addVaccine(VACCINE, 1);
+        engine.addAvailability("alice", DAY);
+        int id = engine.reserve("bob", DAY, VACCINE).getReservationId();
+
+        // only the appointment's own patient or caregiver may cancel it
+        assertNull(engine.cancel(id, "carol", false));
+        assertNull(engine.cancel(id, "bob", true));
+        assertEquals(0, engine.getDoses(VACCINE));
+        assertEquals(0, freeSlots());
+
+        assertNotNull(engine.cancel(id, "alice", true));
+        assertEquals(1, engine.getDoses(VACCINE));
+        assertEquals(1, freeSlots());
+        assertEquals(0, appointments("bob", false));
+
+        assertNull(engine.cancel(id, "alice", true));
+        assertNull(engine.cancel(id, "bob", false));
+        assertEquals(1, engine.getDoses(VACCINE));
+        assertEquals(1, freeSlots());
+    }
+
+    @Test
+    void racingReservesAndCancelsLeaveEverythingAsItWas() throws Exception {
+        int stock = 5;
+        int caregivers = 8;
+        int threads = 8;
+        int rounds = 2000;
+        engine.addVaccine(VACCINE, stock);
+        for (int c = 0; c < caregivers; c++) {
+            engine.addAvailability("caregiver_" + c, DAY);
+        }
+
+        // each thread books and at once cancels, so doses and slots keep going out and coming back
+        AtomicInteger booked = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String patient = "patient_" + t;
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        ReservationRecord reservation;
+                        try {
+                            reservation = engine.reserve(patient, DAY, VACCINE);
+                        } catch (IllegalArgumentException e) {
+                            continue;
+                        }
+                        if (reservation == null) {
+                            continue;
+                        }
+                        booked.incrementAndGet();
+                        if (engine.cancel(reservation.getReservationId(), patient, false) == null) {
+                            throw new AssertionError("could not cancel " + reservation.getReservationId());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(stock, engine.getDoses(VACCINE));
+        assertEquals(caregivers, freeSlots());
+        for (int t = 0; t < threads; t++) {
+            assertEquals(0, appointments("patient_" + t, false));
+        }
+        assertTrue(booked.get() > 0, "nothing was ever booked");
+    }
+
+    private int freeSlots() {
+        AtomicInteger count = new AtomicInteger();
+        engine.streamAvailability((caregiver, date) -> count.incrementAndGet());
+        return count.get();
+    }
+
+    private int appointments(String username, boolean caregiver) {
+        return engine.streamAppointments(new AppointmentQuery.AppointmentQueryBuilder(username, caregiver).build(),
+                reservation -> { });
+    }
+}
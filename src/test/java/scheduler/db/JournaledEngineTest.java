@@ -0,0 +1,102 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JournaledEngineTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void stopsAfterAChangeItCouldNotJournal() throws Exception {
+        JournaledEngine engine = new JournaledEngine(dir, SEGMENT_SIZE, false, 0);
+        engine.addVaccine("pfizer", 10);
+
+        // the next segment already exists, so the engine cannot roll over to it
+        List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        String name = segments.get(0).getFileName().toString();
+        long number = Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+        Path blocker = dir.resolve(String.format("journal-%09d.log", number + 1));
+        Files.createFile(blocker);
+
+        int increments = 0;
+        while (true) {
+            try {
+                engine.increaseDoses("pfizer", 1);
+            } catch (SQLException e) {
+                break;
+            }
+            increments++;
+            if (increments > SEGMENT_SIZE) {
+                throw new AssertionError("the journal never had to roll");
+            }
+        }
+
+        // the failed increment reached memory, but nothing may see it or build on it
+        assertThrows(SQLException.class, () -> engine.getDoses("pfizer"));
+        assertThrows(SQLException.class, () -> engine.increaseDoses("pfizer", 1));
+        assertThrows(SQLException.class, () -> engine.addVaccine("moderna", 1));
+        assertThrows(IOException.class, engine::snapshot);
+        engine.close();
+
+        // a restart recovers every increment before the failed one
+        Files.delete(blocker);
+        JournaledEngine reopened = new JournaledEngine(dir, SEGMENT_SIZE, false, 0);
+        try {
+            assertEquals(10 + increments, reopened.getDoses("pfizer"));
+            assertNull(reopened.getAllDoses().get("moderna"));
+            reopened.increaseDoses("pfizer", 1);
+            assertEquals(11 + increments, reopened.getDoses("pfizer"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void replaysAnInventoryImport() throws Exception {
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        doses.put("pfizer", 5);
+        doses.put("moderna", 7);
+        JournaledEngine engine = new JournaledEngine(dir, SEGMENT_SIZE, false, 0);
+        try {
+            engine.addVaccine("pfizer", 10);
+            engine.addDoses(doses);
+        } finally {
+            engine.close();
+        }
+
+        JournaledEngine reopened = new JournaledEngine(dir, SEGMENT_SIZE, false, 0);
+        try {
+            // the vaccine and the whole import, as two records
+            assertEquals(2, reopened.getRecoveredRecords());
+            assertEquals(Map.of("moderna", 7, "pfizer", 15), reopened.getAllDoses());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("journal-"))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scheduler.util.CredentialHasher;
+import scheduler.util.Util;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationRunnerTest {
+
+    private static final String PASSWORD = "password";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void migratesAnEmptyDatabase() throws Exception {
+        try (Connection con = DriverManager.getConnection(url("fresh.db"))) {
+            MigrationRunner runner = new MigrationRunner("sqlite/migrations");
+            List<String> applied = runner.migrate(con);
+            assertEquals("V001__baseline.sql", applied.get(0));
+            assertTrue(applied.contains("V006__hash_params_columns.sql"));
+            assertEquals(List.of(), runner.migrate(con));
+        }
+    }
+
+    // a database built by running the old create.sql, whose Caregivers has no HashParams, then used for a while
+    @Test
+    void adoptsADatabaseBuiltFromTheOldCreateScript() throws Exception {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        try (Connection con = DriverManager.getConnection(url("legacy.db"))) {
+            runLegacyScript(con);
+            try (PreparedStatement statement = con.prepareStatement(
+                    "INSERT INTO Caregivers (Username, Salt, Hash) VALUES (?, ?, ?)")) {
+                statement.setString(1, "old_caregiver");
+                statement.setBytes(2, salt);
+                statement.setBytes(3, hash);
+                statement.executeUpdate();
+            }
+        }
+
+        String url = url("legacy.db");
+        ConnectionPool pool = ConnectionManager.newReadPool(url);
+        DatabaseWriter writer = new DatabaseWriter(url, 64, 1000, "test-writer");
+        try {
+            SqliteEngine engine = new SqliteEngine(pool, writer);
+            assertTrue(engine.migrate().contains("V006__hash_params_columns.sql"));
+
+            // the caregiver from before the migration still logs in, with the legacy parameters
+            StoredCredentials stored = engine.getCaregiver("old_caregiver");
+            assertNotNull(stored);
+            assertSame(CredentialHasher.LEGACY, stored.getHashParams());
+            assertArrayEquals(stored.getHash(),
+                    CredentialHasher.getInstance().hash(PASSWORD, stored.getSalt(), stored.getHashParams()));
+
+            // and new users are stored with their parameters
+            CredentialHasher hasher = CredentialHasher.getInstance();
+            byte[] newSalt = hasher.generateSalt();
+            StoredCredentials credentials = new StoredCredentials(newSalt,
+                    hasher.hash(PASSWORD, newSalt, hasher.getDefaultParams()), hasher.getDefaultParams());
+            engine.addCaregiver("new_caregiver", credentials);
+            engine.addPatient("new_patient", credentials);
+            assertEquals(hasher.getDefaultParams().encode(),
+                    engine.getPatient("new_patient").getHashParams().encode());
+            assertEquals(hasher.getDefaultParams().encode(),
+                    engine.getCaregiver("new_caregiver").getHashParams().encode());
+            assertEquals(List.of(), engine.migrate());
+        } finally {
+            writer.close();
+            pool.close();
+        }
+    }
+
+    private String url(String name) {
+        return "jdbc:sqlite:" + dir.resolve(name);
+    }
+
+    // runs every statement it can and carries on past the ones that fail, as the sqlite3 shell did with it
+    private static void runLegacyScript(Connection con) throws Exception {
+        String sql;
+        try (InputStream in = MigrationRunnerTest.class.getClassLoader()
+                .getResourceAsStream("sqlite/legacy-create.sql")) {
+            sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try (Statement statement = con.createStatement()) {
+            for (String part : MigrationRunner.splitStatements(sql)) {
+                try {
+                    statement.execute(part);
+                } catch (SQLException e) {
+                    // CREATE TABLE IF Patients does not parse
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqliteEngineTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void opensAnUnshardedDatabaseAgain() throws Exception {
+        String url = url("plain.db");
+        assertTrue(withEngine(url, SqliteEngine::migrate).contains("V001__baseline.sql"));
+        assertEquals(List.of(), withEngine(url, SqliteEngine::migrate));
+    }
+
+    @Test
+    void refusesTheCatalogOfAShardedDatabase() throws Exception {
+        String url = url("catalog.db");
+        recordLayout(url, 4, -1);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> withEngine(url, SqliteEngine::migrate));
+        assertTrue(e.getMessage().contains("DBShards=4"), e.getMessage());
+    }
+
+    @Test
+    void refusesAShardOfAShardedDatabase() throws Exception {
+        String url = url("catalog.db.shard2");
+        recordLayout(url, 4, 2);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> withEngine(url, SqliteEngine::migrate));
+        assertTrue(e.getMessage().contains("shard 2"), e.getMessage());
+    }
+
+    @Test
+    void addsDosesAndNewVaccinesTogether() throws Exception {
+        String url = url("inventory.db");
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        doses.put("pfizer", 5);
+        doses.put("moderna", 7);
+        Map<String, Integer> all = withEngine(url, engine -> {
+            engine.migrate();
+            engine.addVaccine("pfizer", 10);
+            engine.addDoses(doses);
+            return engine.getAllDoses();
+        });
+        assertEquals(Map.of("moderna", 7, "pfizer", 15), all);
+    }
+
+    private interface EngineCall<T> {
+        T call(SqliteEngine engine) throws Exception;
+    }
+
+    private static <T> T withEngine(String url, EngineCall<T> call) throws Exception {
+        ConnectionPool pool = ConnectionManager.newReadPool(url);
+        DatabaseWriter writer = new DatabaseWriter(url, 64, 1000, "test-writer");
+        try {
+            return call.call(new SqliteEngine(pool, writer));
+        } finally {
+            writer.close();
+            pool.close();
+        }
+    }
+
+    // what ShardedSqliteEngine records in each of its files on first start
+    private static void recordLayout(String url, int count, int index) throws Exception {
+        try (Connection con = DriverManager.getConnection(url)) {
+            new MigrationRunner("sqlite/migrations").migrate(con);
+            try (Statement statement = con.createStatement()) {
+                statement.executeUpdate("INSERT INTO ShardLayout (shard_count, shard_index) VALUES (" + count +
+                        ", " + index + ")");
+            }
+        }
+    }
+
+    private String url(String name) {
+        return "jdbc:sqlite:" + dir.resolve(name);
+    }
+}